@@ -1,5 +1,6 @@
 package com.amazon.aws.partners.saasfactory;
 
+import com.amazon.aws.partners.saasfactory.engine.VendingResult;
 import com.amazon.aws.partners.saasfactory.services.DynamoClientService;
 import com.amazon.aws.partners.saasfactory.services.S3ClientService;
 import com.amazonaws.services.lambda.runtime.Context;
@@ -30,21 +31,26 @@ public class ApiGatewayAuthorizedHandler implements RequestHandler<APIGatewayPro
 
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
+    /**
+     * Shared by every invocation of the container, the machine keeps no state between vends.
+     */
+    private static final TokenVendingMachine TOKEN_VENDING_MACHINE = new TokenVendingMachine();
+
+    private static final String ROLE = System.getenv("ROLE");
+    private static final Region REGION = Region.of(System.getenv("AWS_REGION"));
+    private static final String BUCKET = System.getenv("S3_BUCKET");
+    private static final String TABLE = System.getenv("DB_TABLE");
+
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent requestEvent, Context context) {
-        String role = System.getenv("ROLE");
-
-        TokenVendingMachine tokenVendingMachine = new TokenVendingMachine();
         Map<String, String> headers = requestEvent.getHeaders();
         APIGatewayProxyRequestEvent.ProxyRequestContext requestContext = requestEvent.getRequestContext();
         Map<String, Object> authorizer = requestContext.getAuthorizer();
-        AwsCredentialsProvider tenantCredentials = tokenVendingMachine.vendTokenAuthorizer(authorizer, role);
-        String tenant = tokenVendingMachine.getTenant();
-
-        Region region = Region.of(System.getenv("AWS_REGION"));
+        VendingResult result = TOKEN_VENDING_MACHINE.vendAuthorizer(authorizer, ROLE,
+                context.getRemainingTimeInMillis());
+        AwsCredentialsProvider tenantCredentials = result.getCredentialsProvider();
+        String tenant = result.getTenant();
 
-        String bucket = System.getenv("S3_BUCKET");
-        String table = System.getenv("DB_TABLE");
         String json = "{\"value\": \"test\"}";
         String key = UUID.randomUUID() + ".json";
 
@@ -56,7 +62,7 @@ public class ApiGatewayAuthorizedHandler implements RequestHandler<APIGatewayPro
 
 
         try {
-            S3ClientService s3ClientService = new S3ClientService(bucket, tenantCredentials);
+            S3ClientService s3ClientService = new S3ClientService(BUCKET, tenantCredentials);
             s3ClientService.upload(json, tenant + "/" + key);
 
             ListObjectsV2Response listResponse = s3ClientService.listObjects(tenant);
@@ -67,9 +73,9 @@ public class ApiGatewayAuthorizedHandler implements RequestHandler<APIGatewayPro
         }
 
         try {
-            DynamoClientService dynamoClientService = new DynamoClientService(region, tenant, tenantCredentials);
-            dynamoClientService.insert(table, Double.toString(Math.random()));
-            QueryResponse query = dynamoClientService.query(table);
+            DynamoClientService dynamoClientService = new DynamoClientService(REGION, tenant, tenantCredentials);
+            dynamoClientService.insert(TABLE, Double.toString(Math.random()));
+            QueryResponse query = dynamoClientService.query(TABLE);
             map.put("DynamoDB rows visible", Integer.toString(query.count()));
         } catch (SdkServiceException e) {
             LOGGER.error("Issue calling the services ", e);
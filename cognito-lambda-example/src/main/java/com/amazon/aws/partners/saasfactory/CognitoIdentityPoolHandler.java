@@ -21,6 +21,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
+import com.amazon.aws.partners.saasfactory.engine.VendingResult;
 import com.amazon.aws.partners.saasfactory.services.DynamoClientService;
 import com.amazon.aws.partners.saasfactory.services.S3ClientService;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
@@ -48,17 +49,23 @@ public class CognitoIdentityPoolHandler implements RequestHandler<APIGatewayProx
 
     private static final ObjectMapper MAPPER = new ObjectMapper();
 
+    /**
+     * Shared by every invocation of the container, the machine keeps no state between vends.
+     */
+    private static final TokenVendingMachine TOKEN_VENDING_MACHINE = new TokenVendingMachine();
+
+    private static final Region REGION = Region.of(System.getenv("AWS_REGION"));
+    private static final String BUCKET = System.getenv("S3_BUCKET");
+    private static final String TABLE = System.getenv("DB_TABLE");
+
     @Override
     public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent requestEvent, Context context) {
-        TokenVendingMachine tokenVendingMachine = new TokenVendingMachine();
         Map<String, String> headers = requestEvent.getHeaders();
-        AwsCredentialsProvider tenantCredentials = tokenVendingMachine.vendCognitoToken(headers);
-        String tenant = tokenVendingMachine.getTenant();
-
-        Region region = Region.of(System.getenv("AWS_REGION"));
+        VendingResult result = TOKEN_VENDING_MACHINE.vendCognito(headers,
+                context.getRemainingTimeInMillis());
+        AwsCredentialsProvider tenantCredentials = result.getCredentialsProvider();
+        String tenant = result.getTenant();
 
-        String bucket = System.getenv("S3_BUCKET");
-        String table = System.getenv("DB_TABLE");
         UUID randomUUID = UUID.randomUUID();
         String json = "{\"value\": \"" + randomUUID + "\"}";
         String key = randomUUID + ".json";
@@ -70,7 +77,7 @@ public class CognitoIdentityPoolHandler implements RequestHandler<APIGatewayProx
         map.put("tenant", tenant);
 
         try {
-            S3ClientService s3ClientService = new S3ClientService(bucket, tenantCredentials);
+            S3ClientService s3ClientService = new S3ClientService(BUCKET, tenantCredentials);
             s3ClientService.upload(json, tenant + "/" + key);
 
             ListObjectsV2Response listResponse = s3ClientService.listObjects(tenant);
@@ -81,9 +88,9 @@ public class CognitoIdentityPoolHandler implements RequestHandler<APIGatewayProx
         }
 
         try {
-            DynamoClientService dynamoClientService = new DynamoClientService(region, tenant, tenantCredentials);
-            dynamoClientService.insert(table, Double.toString(Math.random()));
-            QueryResponse query = dynamoClientService.query(table);
+            DynamoClientService dynamoClientService = new DynamoClientService(REGION, tenant, tenantCredentials);
+            dynamoClientService.insert(TABLE, Double.toString(Math.random()));
+            QueryResponse query = dynamoClientService.query(TABLE);
             map.put("DynamoDB rows visible", Integer.toString(query.count()));
         } catch (SdkServiceException e) {
             LOGGER.error("Issue calling the services ", e);
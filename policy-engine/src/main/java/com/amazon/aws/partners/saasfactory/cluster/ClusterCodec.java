@@ -0,0 +1,324 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cluster;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import com.amazon.aws.partners.saasfactory.exception.PolicyAssumptionException;
+import com.amazon.aws.partners.saasfactory.exception.StsThrottledException;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Wire format of the cluster protocol. Every message is a frame of its length followed by an AES-GCM encrypted body,
+ * so only nodes that share the cluster key can ask for credentials or read them. Requests and responses are
+ * authenticated with different associated data, so a request cannot be replayed as a response, and the associated
+ * data of a response includes the IV of the request it answers, so it cannot be replayed as the answer to another.
+ */
+final class ClusterCodec {
+
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+    static final byte THROTTLED = 2;
+    static final byte DEADLINE_EXCEEDED = 3;
+
+    private static final byte VEND = 0;
+    private static final byte INVALIDATE_TENANT = 1;
+
+    private static final int VERSION = 5;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int MAX_FRAME_LENGTH = 1 << 20;
+    private static final byte[] REQUEST_AAD = aad("request");
+    private static final byte[] RESPONSE_AAD = aad("response");
+
+    private final SecretKey key;
+    private final SecureRandom random = new SecureRandom();
+
+    ClusterCodec(SecretKey key) {
+        this.key = key;
+    }
+
+    /**
+     * @return the IV of the request, which the response has to be bound to
+     */
+    byte[] writeRequest(DataOutputStream out, ClusterVendRequest request) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeInt(VERSION);
+        body.writeByte(VEND);
+        writeString(body, request.getRole());
+        writeString(body, request.getTenant());
+        writeString(body, request.getPolicy());
+        writeString(body, request.getWebIdentityToken());
+        body.writeLong(request.getGeneration());
+        body.writeLong(request.getDeadline().isBounded() ? request.getDeadline().remainingMillis() : -1);
+        body.writeBoolean(request.isPrewarm());
+        return writeFrame(out, bytes.toByteArray(), REQUEST_AAD);
+    }
+
+    /**
+     * Asks a node to drop what it cached for the tenant.
+     *
+     * @return the IV of the request, which the acknowledgement has to be bound to
+     */
+    byte[] writeInvalidation(DataOutputStream out, String tenant) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeInt(VERSION);
+        body.writeByte(INVALIDATE_TENANT);
+        writeString(body, tenant);
+        return writeFrame(out, bytes.toByteArray(), REQUEST_AAD);
+    }
+
+    /**
+     * @return the vend or invalidation, or null when the peer closed the connection
+     */
+    InboundRequest readRequest(DataInputStream in) throws IOException {
+        byte[] iv = new byte[IV_LENGTH];
+        byte[] frame = readFrame(in, REQUEST_AAD, iv);
+        if (frame == null) {
+            return null;
+        }
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(frame));
+        checkVersion(body);
+        byte kind = body.readByte();
+        if (kind == INVALIDATE_TENANT) {
+            return new InboundRequest(null, readString(body), iv);
+        }
+        if (kind != VEND) {
+            throw new IOException("Unknown cluster request " + kind);
+        }
+        String role = readString(body);
+        String tenant = readString(body);
+        String policy = readString(body);
+        String webIdentityToken = readString(body);
+        long generation = body.readLong();
+        long remainingMillis = body.readLong();
+        boolean prewarm = body.readBoolean();
+        return new InboundRequest(new ClusterVendRequest(role, tenant, policy, webIdentityToken, generation,
+                remainingMillis < 0 ? Deadline.none() : Deadline.afterMillis(remainingMillis), prewarm), null, iv);
+    }
+
+    void writeCredentials(DataOutputStream out, byte[] requestIv, Credentials credentials) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeInt(VERSION);
+        body.writeByte(OK);
+        writeString(body, credentials.accessKeyId());
+        writeString(body, credentials.secretAccessKey());
+        writeString(body, credentials.sessionToken());
+        body.writeLong(credentials.expiration().toEpochMilli());
+        writeFrame(out, bytes.toByteArray(), responseAad(requestIv));
+    }
+
+    void writeAcknowledgement(DataOutputStream out, byte[] requestIv) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeInt(VERSION);
+        body.writeByte(OK);
+        writeFrame(out, bytes.toByteArray(), responseAad(requestIv));
+    }
+
+    void writeFailure(DataOutputStream out, byte[] requestIv, byte status, String message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeInt(VERSION);
+        body.writeByte(status);
+        writeString(body, message);
+        writeFrame(out, bytes.toByteArray(), responseAad(requestIv));
+    }
+
+    /**
+     * @param requestIv the IV returned by {@link #writeRequest}, a response to any other request is refused
+     * @return the credentials vended by the owner
+     * @throws PolicyAssumptionException with the owner's reason when it could not vend them
+     */
+    Credentials readResponse(DataInputStream in, byte[] requestIv) throws IOException {
+        DataInputStream body = readSuccess(in, requestIv);
+        return Credentials.builder()
+                .accessKeyId(readString(body))
+                .secretAccessKey(readString(body))
+                .sessionToken(readString(body))
+                .expiration(Instant.ofEpochMilli(body.readLong()))
+                .build();
+    }
+
+    /**
+     * @param requestIv the IV returned by {@link #writeInvalidation}
+     * @throws PolicyAssumptionException with the node's reason when it could not invalidate the tenant
+     */
+    void readAcknowledgement(DataInputStream in, byte[] requestIv) throws IOException {
+        readSuccess(in, requestIv);
+    }
+
+    /**
+     * @return the rest of the response body after its status
+     */
+    private DataInputStream readSuccess(DataInputStream in, byte[] requestIv) throws IOException {
+        byte[] frame = readFrame(in, responseAad(requestIv), new byte[IV_LENGTH]);
+        if (frame == null) {
+            throw new IOException("Connection closed before the response");
+        }
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(frame));
+        checkVersion(body);
+        byte status = body.readByte();
+        switch (status) {
+            case OK:
+                return body;
+            case THROTTLED:
+                throw new StsThrottledException(readString(body));
+            case DEADLINE_EXCEEDED:
+                throw new DeadlineExceededException(readString(body));
+            default:
+                throw new PolicyAssumptionException(readString(body));
+        }
+    }
+
+    private byte[] writeFrame(DataOutputStream out, byte[] plaintext, byte[] aad) throws IOException {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        byte[] ciphertext;
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(aad);
+            ciphertext = cipher.doFinal(plaintext);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to encrypt the message", e);
+        }
+        out.writeInt(IV_LENGTH + ciphertext.length);
+        out.write(iv);
+        out.write(ciphertext);
+        out.flush();
+        return iv;
+    }
+
+    /**
+     * @param iv filled with the IV of the frame
+     */
+    private byte[] readFrame(DataInputStream in, byte[] aad, byte[] iv) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        if (length <= IV_LENGTH || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        byte[] ciphertext = new byte[length - IV_LENGTH];
+        in.readFully(iv);
+        in.readFully(ciphertext);
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(aad);
+            return cipher.doFinal(ciphertext);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to authenticate the message, is the cluster key the same on every node?", e);
+        }
+    }
+
+    // the version is part of the associated data, so nodes speaking different versions fail to authenticate
+    private static byte[] aad(String direction) {
+        return ("tvm-cluster-v" + VERSION + "-" + direction).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] responseAad(byte[] requestIv) {
+        byte[] aad = Arrays.copyOf(RESPONSE_AAD, RESPONSE_AAD.length + requestIv.length);
+        System.arraycopy(requestIv, 0, aad, RESPONSE_AAD.length, requestIv.length);
+        return aad;
+    }
+
+    private static void checkVersion(DataInputStream body) throws IOException {
+        int version = body.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported cluster protocol version " + version);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A vend or invalidation as read by the receiving node, with the IV of its frame that the response is bound to.
+     */
+    static final class InboundRequest {
+        private final ClusterVendRequest request;
+        private final String invalidatedTenant;
+        private final byte[] iv;
+
+        private InboundRequest(ClusterVendRequest request, String invalidatedTenant, byte[] iv) {
+            this.request = request;
+            this.invalidatedTenant = invalidatedTenant;
+            this.iv = iv;
+        }
+
+        boolean isInvalidation() {
+            return request == null;
+        }
+
+        /**
+         * @return the vend, null for an invalidation
+         */
+        ClusterVendRequest getRequest() {
+            return request;
+        }
+
+        String getInvalidatedTenant() {
+            return invalidatedTenant;
+        }
+
+        byte[] getIv() {
+            return iv;
+        }
+    }
+}
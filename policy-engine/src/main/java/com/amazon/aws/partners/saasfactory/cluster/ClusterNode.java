@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cluster;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+
+/**
+ * A member of a {@link VendingCluster}, identified by a name that stays the same when the node restarts.
+ */
+public final class ClusterNode {
+
+    private final String id;
+    private final String host;
+    private final int port;
+
+    public ClusterNode(String id, String host, int port) {
+        this.id = Objects.requireNonNull(id);
+        this.host = Objects.requireNonNull(host);
+        this.port = port;
+    }
+
+    /**
+     * @param spec the node as {@code id=host:port}
+     */
+    public static ClusterNode parse(String spec) {
+        int equals = spec.indexOf('=');
+        int colon = spec.lastIndexOf(':');
+        if (equals <= 0 || colon <= equals + 1 || colon == spec.length() - 1) {
+            throw new IllegalArgumentException("Expected a cluster node as id=host:port, got " + spec);
+        }
+        return new ClusterNode(spec.substring(0, equals).trim(), spec.substring(equals + 1, colon).trim(),
+                Integer.parseInt(spec.substring(colon + 1).trim()));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    InetSocketAddress address() {
+        return new InetSocketAddress(host, port);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ClusterNode)) {
+            return false;
+        }
+        ClusterNode that = (ClusterNode) o;
+        return port == that.port && id.equals(that.id) && host.equals(that.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, host, port);
+    }
+
+    @Override
+    public String toString() {
+        return id + "=" + host + ":" + port;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cluster;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+
+/**
+ * A role assumption forwarded to the node that owns the tenant.
+ */
+public final class ClusterVendRequest {
+
+    private final String role;
+    private final String tenant;
+    private final String policy;
+    private final String webIdentityToken;
+    private final long generation;
+    private final Deadline deadline;
+    private final boolean prewarm;
+
+    public ClusterVendRequest(String role, String tenant, String policy, String webIdentityToken, long generation,
+                              Deadline deadline, boolean prewarm) {
+        this.role = role;
+        this.tenant = tenant;
+        this.policy = policy;
+        this.webIdentityToken = webIdentityToken;
+        this.generation = generation;
+        this.deadline = deadline;
+        this.prewarm = prewarm;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the token to assume the role with, null to assume it with the owner's own credentials
+     */
+    public String getWebIdentityToken() {
+        return webIdentityToken;
+    }
+
+    /**
+     * @return the generation of the tenant on the forwarding node
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return true for a vend made ahead of demand, which the owner does not count towards the tenant's usage
+     */
+    public boolean isPrewarm() {
+        return prewarm;
+    }
+}
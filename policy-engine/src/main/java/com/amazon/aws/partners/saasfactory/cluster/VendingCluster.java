@@ -0,0 +1,496 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cluster;
+
+import com.amazon.aws.partners.saasfactory.concurrent.VendingExecutors;
+import com.amazon.aws.partners.saasfactory.exception.ClusterForwardingException;
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import com.amazon.aws.partners.saasfactory.exception.StsThrottledException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Spreads the tenants over the nodes of a fleet so that each tenant's credentials are vended by a single node. A
+ * consistent hash ring assigns every tenant an owner. The other nodes forward their role assumptions for the tenant to
+ * the owner, which serves them from its own credentials cache, so the fleet calls STS once per tenant instead of once
+ * per tenant and node. Invalidating a tenant is sent to every other node, as any of them may have cached its
+ * credentials.
+ *
+ * <p>Nodes talk over TCP, one request and response at a time per connection, with the messages encrypted and
+ * authenticated with a key shared by the fleet. Membership is static: every node has to be given the same list. A
+ * node serves at most {@code maxInboundConnections} connections at a time and closes those that stay idle for
+ * {@code serverIdleTimeoutMillis}, so that peers which never send a request do not hold on to its threads.
+ */
+public class VendingCluster implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VendingCluster.class);
+
+    private final ClusterNode self;
+    private final List<ClusterNode> nodes;
+    private final ConsistentHashRing ring;
+    private final ClusterCodec codec;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int maxIdleConnections;
+    private final int maxInboundConnections;
+    private final int serverIdleTimeoutMillis;
+    private final InetAddress bindAddress;
+    private final Map<ClusterNode, Queue<Connection>> idle = new ConcurrentHashMap<>();
+    private final Set<Connection> inbound = ConcurrentHashMap.newKeySet();
+    private final Semaphore inboundPermits;
+    private volatile ServerSocket server;
+    private volatile ExecutorService handlers;
+
+    public VendingCluster(VendingClusterBuilder builder) {
+        if (builder.key == null) {
+            throw new IllegalArgumentException("The cluster needs a shared key");
+        }
+        this.self = builder.nodes.stream()
+                .filter(node -> node.getId().equals(builder.self))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Node " + builder.self + " is not a cluster member"));
+        this.nodes = new ArrayList<>(builder.nodes);
+        this.ring = new ConsistentHashRing(builder.nodes, builder.virtualNodes);
+        this.codec = new ClusterCodec(builder.key);
+        this.connectTimeoutMillis = builder.connectTimeoutMillis;
+        this.readTimeoutMillis = builder.readTimeoutMillis;
+        this.maxIdleConnections = builder.maxIdleConnections;
+        this.maxInboundConnections = builder.maxInboundConnections;
+        this.serverIdleTimeoutMillis = builder.serverIdleTimeoutMillis;
+        this.bindAddress = builder.bindAddress;
+        this.inboundPermits = new Semaphore(builder.maxInboundConnections);
+    }
+
+    public static VendingClusterBuilder builder() {
+        return new VendingClusterBuilder();
+    }
+
+    public ClusterNode getSelf() {
+        return self;
+    }
+
+    public ClusterNode owner(String tenant) {
+        return ring.owner(tenant);
+    }
+
+    public boolean isOwner(String tenant) {
+        return self.equals(owner(tenant));
+    }
+
+    /**
+     * Starts answering the vends and invalidations sent by the other nodes.
+     *
+     * @param handler             vends for the tenants this node owns, without forwarding them again
+     * @param invalidationHandler drops what this node cached for a tenant, without sending the invalidation on
+     */
+    public synchronized void start(Function<ClusterVendRequest, Credentials> handler,
+                                   Consumer<String> invalidationHandler) {
+        if (server != null) {
+            return;
+        }
+        ServerSocket serverSocket;
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(bindAddress, self.getPort()));
+        } catch (IOException e) {
+            throw new ClusterForwardingException("Unable to listen on port " + self.getPort(), e);
+        }
+        // one thread accepts, the others serve the connections the permits let in
+        ExecutorService executor = VendingExecutors.newBoundedVendingExecutor("vending-cluster",
+                maxInboundConnections + 1, 1);
+        this.server = serverSocket;
+        this.handlers = executor;
+        executor.execute(() -> accept(serverSocket, executor, handler, invalidationHandler));
+        LOGGER.info("Cluster node {} listening", self);
+    }
+
+    /**
+     * @return the connections from other nodes this node is serving
+     */
+    public int inboundConnectionCount() {
+        return inbound.size();
+    }
+
+    /**
+     * Assumes the role on the node that owns the tenant.
+     *
+     * @throws ClusterForwardingException when the owner cannot be reached, the caller may then vend locally
+     */
+    public Credentials forward(ClusterVendRequest request) {
+        ClusterNode owner = owner(request.getTenant());
+        long remainingMillis = request.getDeadline().remainingMillis();
+        if (remainingMillis == 0) {
+            throw new DeadlineExceededException("No time left to forward the vend to " + owner.getId());
+        }
+        return exchange(owner, (int) Math.min(readTimeoutMillis, remainingMillis), connection -> {
+            byte[] requestIv = codec.writeRequest(connection.out, request);
+            return codec.readResponse(connection.in, requestIv);
+        });
+    }
+
+    /**
+     * Has every other node drop what it cached for the tenant. A node that cannot be reached is skipped, so its
+     * cached credentials for the tenant are served until they expire.
+     */
+    public void invalidateTenant(String tenant) {
+        for (ClusterNode node : nodes) {
+            if (node.equals(self)) {
+                continue;
+            }
+            try {
+                exchange(node, readTimeoutMillis, connection -> {
+                    byte[] requestIv = codec.writeInvalidation(connection.out, tenant);
+                    codec.readAcknowledgement(connection.in, requestIv);
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                LOGGER.warn("Unable to invalidate tenant {} on {}", tenant, node.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * Sends a request to the node over a pooled connection. A pooled connection may have been closed by the node
+     * since it was last used, so the request is retried once on a new one.
+     *
+     * @throws ClusterForwardingException when the node cannot be reached
+     */
+    private <T> T exchange(ClusterNode node, int timeoutMillis, Exchange<T> exchange) {
+        Queue<Connection> pool = idle.computeIfAbsent(node, key -> new ConcurrentLinkedQueue<>());
+        for (int attempt = 0; ; attempt++) {
+            Connection pooled = attempt == 0 ? pool.poll() : null;
+            Connection connection = null;
+            try {
+                connection = pooled != null ? pooled : connect(node);
+                connection.socket.setSoTimeout(timeoutMillis);
+                T result;
+                try {
+                    result = exchange.run(connection);
+                } catch (RuntimeException e) {
+                    // the node answered with a failure, the connection is still good
+                    release(pool, connection);
+                    throw e;
+                }
+                release(pool, connection);
+                return result;
+            } catch (IOException e) {
+                if (connection != null) {
+                    connection.close();
+                }
+                if (pooled == null || e instanceof SocketTimeoutException) {
+                    throw new ClusterForwardingException("Unable to reach " + node.getId(), e);
+                }
+            }
+        }
+    }
+
+    private Connection connect(ClusterNode node) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(node.address(), connectTimeoutMillis);
+            return new Connection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void release(Queue<Connection> pool, Connection connection) {
+        if (pool.size() < maxIdleConnections) {
+            pool.offer(connection);
+        } else {
+            connection.close();
+        }
+    }
+
+    private void accept(ServerSocket serverSocket, ExecutorService executor,
+                        Function<ClusterVendRequest, Credentials> handler, Consumer<String> invalidationHandler) {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                if (!inboundPermits.tryAcquire()) {
+                    LOGGER.warn("Refusing cluster connection from {}, already serving {} connections",
+                            socket.getRemoteSocketAddress(), maxInboundConnections);
+                    socket.close();
+                    continue;
+                }
+                Connection connection = null;
+                try {
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(serverIdleTimeoutMillis);
+                    connection = new Connection(socket);
+                    inbound.add(connection);
+                    if (serverSocket.isClosed()) {
+                        // closed while this connection was accepted, close() may not have seen it
+                        connection.close();
+                    }
+                    Connection accepted = connection;
+                    executor.execute(() -> serve(accepted, handler, invalidationHandler));
+                } catch (IOException | RejectedExecutionException e) {
+                    if (connection != null) {
+                        inbound.remove(connection);
+                    }
+                    inboundPermits.release();
+                    socket.close();
+                    LOGGER.warn("Dropping cluster connection from {}", socket.getRemoteSocketAddress(), e);
+                }
+            } catch (SocketException e) {
+                if (!serverSocket.isClosed()) {
+                    LOGGER.error("Cluster node {} stopped accepting connections", self, e);
+                }
+                return;
+            } catch (IOException e) {
+                LOGGER.error("Unable to accept a cluster connection", e);
+            }
+        }
+    }
+
+    private void serve(Connection connection, Function<ClusterVendRequest, Credentials> handler,
+                       Consumer<String> invalidationHandler) {
+        try {
+            ClusterCodec.InboundRequest inbound;
+            while ((inbound = codec.readRequest(connection.in)) != null) {
+                byte[] requestIv = inbound.getIv();
+                if (inbound.isInvalidation()) {
+                    invalidate(connection, requestIv, inbound.getInvalidatedTenant(), invalidationHandler);
+                    continue;
+                }
+                ClusterVendRequest request = inbound.getRequest();
+                try {
+                    codec.writeCredentials(connection.out, requestIv, handler.apply(request));
+                } catch (StsThrottledException e) {
+                    codec.writeFailure(connection.out, requestIv, ClusterCodec.THROTTLED, e.getMessage());
+                } catch (DeadlineExceededException e) {
+                    codec.writeFailure(connection.out, requestIv, ClusterCodec.DEADLINE_EXCEEDED, e.getMessage());
+                } catch (RuntimeException e) {
+                    LOGGER.error("Unable to vend for tenant {} on behalf of another node", request.getTenant(), e);
+                    codec.writeFailure(connection.out, requestIv, ClusterCodec.FAILED,
+                            String.valueOf(e.getMessage()));
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            LOGGER.debug("Closing idle cluster connection from {}", connection.socket.getRemoteSocketAddress());
+        } catch (IOException e) {
+            if (!connection.socket.isClosed()) {
+                LOGGER.warn("Closing cluster connection from {}", connection.socket.getRemoteSocketAddress(), e);
+            }
+        } finally {
+            connection.close();
+            inbound.remove(connection);
+            inboundPermits.release();
+        }
+    }
+
+    private void invalidate(Connection connection, byte[] requestIv, String tenant,
+                            Consumer<String> invalidationHandler) throws IOException {
+        try {
+            invalidationHandler.accept(tenant);
+            codec.writeAcknowledgement(connection.out, requestIv);
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to invalidate tenant {} on behalf of another node", tenant, e);
+            codec.writeFailure(connection.out, requestIv, ClusterCodec.FAILED, String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * Stops listening, closes the connections served for the other nodes, which ends their threads, and closes the
+     * pooled connections to the other nodes.
+     */
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to close the cluster server socket", e);
+            }
+            inbound.forEach(Connection::close);
+            handlers.shutdownNow();
+            server = null;
+        }
+        idle.values().forEach(pool -> {
+            Connection connection;
+            while ((connection = pool.poll()) != null) {
+                connection.close();
+            }
+        });
+    }
+
+    private interface Exchange<T> {
+        T run(Connection connection) throws IOException;
+    }
+
+    private static final class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.debug("Unable to close cluster connection", e);
+            }
+        }
+    }
+
+    public static final class VendingClusterBuilder {
+        private final List<ClusterNode> nodes = new ArrayList<>();
+        private String self;
+        private SecretKey key;
+        private int virtualNodes = 128;
+        private int connectTimeoutMillis = 200;
+        private int readTimeoutMillis = 5000;
+        private int maxIdleConnections = 8;
+        private int maxInboundConnections = 64;
+        private int serverIdleTimeoutMillis = 60_000;
+        private InetAddress bindAddress;
+
+        private VendingClusterBuilder() {
+        }
+
+        /**
+         * @param self the id of this node, one of the {@link #nodes(List)}
+         */
+        public VendingClusterBuilder self(String self) {
+            this.self = self;
+            return this;
+        }
+
+        public VendingClusterBuilder nodes(List<ClusterNode> nodes) {
+            this.nodes.addAll(nodes);
+            return this;
+        }
+
+        public VendingClusterBuilder node(ClusterNode node) {
+            this.nodes.add(node);
+            return this;
+        }
+
+        /**
+         * AES key shared by every node, 16, 24 or 32 bytes.
+         */
+        public VendingClusterBuilder key(byte[] key) {
+            if (key.length != 16 && key.length != 24 && key.length != 32) {
+                throw new IllegalArgumentException("The cluster key must be 16, 24 or 32 bytes");
+            }
+            this.key = new SecretKeySpec(key, "AES");
+            return this;
+        }
+
+        public VendingClusterBuilder key(SecretKey key) {
+            this.key = key;
+            return this;
+        }
+
+        /**
+         * Points per node on the hash ring, 128 by default.
+         */
+        public VendingClusterBuilder virtualNodes(int virtualNodes) {
+            this.virtualNodes = virtualNodes;
+            return this;
+        }
+
+        public VendingClusterBuilder connectTimeoutMillis(int connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Longest wait for the owner's answer, shortened further by the deadline of the vend.
+         */
+        public VendingClusterBuilder readTimeoutMillis(int readTimeoutMillis) {
+            this.readTimeoutMillis = readTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Connections kept open to each of the other nodes for later forwards.
+         */
+        public VendingClusterBuilder maxIdleConnections(int maxIdleConnections) {
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        /**
+         * Connections from the other nodes served at a time, 64 by default. Further connections are closed as soon
+         * as they are accepted, the other node then vends locally.
+         */
+        public VendingClusterBuilder maxInboundConnections(int maxInboundConnections) {
+            this.maxInboundConnections = maxInboundConnections;
+            return this;
+        }
+
+        /**
+         * How long a connection from another node may wait for its next request before it is closed, 60 seconds by
+         * default. The other node reconnects on its next request.
+         */
+        public VendingClusterBuilder serverIdleTimeoutMillis(int serverIdleTimeoutMillis) {
+            this.serverIdleTimeoutMillis = serverIdleTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * Address this node listens on, every interface by default. Set it to the address the other nodes reach
+         * this node on to keep the port off the other networks of the host.
+         */
+        public VendingClusterBuilder bindAddress(InetAddress bindAddress) {
+            this.bindAddress = bindAddress;
+            return this;
+        }
+
+        public VendingCluster build() {
+            return new VendingCluster(this);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import java.util.Map;
+
+/**
+ * Finds the bearer token of a request. The Authorization header is looked up by its usual spellings first and by
+ * a single case-insensitive pass over the headers otherwise. The token is sliced out of the header value, the scheme
+ * is matched case-insensitively as well.
+ */
+public final class BearerTokens {
+
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String AUTHORIZATION_LOWER_CASE = "authorization";
+    private static final String BEARER = "Bearer";
+
+    private BearerTokens() {
+    }
+
+    /**
+     * @return the value of the Authorization header, null when there is none
+     */
+    public static String authorizationHeader(Map<String, String> headers) {
+        if (headers == null) {
+            return null;
+        }
+        String value = headers.get(AUTHORIZATION);
+        if (value != null) {
+            return value;
+        }
+        value = headers.get(AUTHORIZATION_LOWER_CASE);
+        if (value != null) {
+            return value;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (AUTHORIZATION.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the token of the request's Authorization header, null when it has no bearer token
+     */
+    public static String fromHeaders(Map<String, String> headers) {
+        String value = authorizationHeader(headers);
+        return value == null ? null : fromHeader(value);
+    }
+
+    /**
+     * @param authorization the value of an Authorization header, {@code Bearer <token>}
+     * @return the token, null when the value is not a bearer token
+     */
+    public static String fromHeader(CharSequence authorization) {
+        if (authorization == null) {
+            return null;
+        }
+        int length = authorization.length();
+        int start = 0;
+        while (start < length && authorization.charAt(start) == ' ') {
+            start++;
+        }
+        if (length - start <= BEARER.length() || !isBearer(authorization, start)) {
+            return null;
+        }
+        int tokenStart = start + BEARER.length();
+        if (authorization.charAt(tokenStart) != ' ') {
+            return null;
+        }
+        while (tokenStart < length && authorization.charAt(tokenStart) == ' ') {
+            tokenStart++;
+        }
+        int tokenEnd = length;
+        while (tokenEnd > tokenStart && Character.isWhitespace(authorization.charAt(tokenEnd - 1))) {
+            tokenEnd--;
+        }
+        if (tokenStart == tokenEnd) {
+            return null;
+        }
+        return authorization.subSequence(tokenStart, tokenEnd).toString();
+    }
+
+    private static boolean isBearer(CharSequence value, int offset) {
+        for (int i = 0; i < BEARER.length(); i++) {
+            char c = value.charAt(offset + i);
+            // ASCII only, the lower case letter is the upper case one with bit 0x20 set
+            if ((c | 0x20) != (BEARER.charAt(i) | 0x20)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
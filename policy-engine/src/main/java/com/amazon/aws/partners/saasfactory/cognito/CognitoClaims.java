@@ -6,6 +6,7 @@ public class CognitoClaims {
     private String identityPool;
     private Map<String, String> providerLogins;
     private String tenant;
+    private String subject;
 
     public static CognitoClaimsBuilder builder() {
         return new CognitoClaimsBuilder();
@@ -15,6 +16,7 @@ public class CognitoClaims {
         this.identityPool = builder.identityPool;
         this.providerLogins = builder.providerLogins;
         this.tenant = builder.tenant;
+        this.subject = builder.subject;
     }
 
     public String getIdentityPool() {
@@ -33,11 +35,19 @@ public class CognitoClaims {
         return tenant;
     }
 
+    /**
+     * @return the user pool's identifier for the user, the {@code sub} claim of the token
+     */
+    public String getSubject() {
+        return subject;
+    }
+
 
     public static final class CognitoClaimsBuilder {
         private String identityPool;
         private Map<String, String> providerLogins;
         private String tenant;
+        private String subject;
 
         private CognitoClaimsBuilder() {
         }
@@ -60,6 +70,11 @@ public class CognitoClaims {
             this.tenant = tenant;
             return this;
         }
+
+        public CognitoClaimsBuilder subject(String subject) {
+            this.subject = subject;
+            return this;
+        }
     }
 
 }
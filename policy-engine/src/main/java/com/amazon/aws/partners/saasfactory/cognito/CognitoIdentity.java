@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+/**
+ * What the identity pool gives a user: the identity, an OpenID token for it and the role to assume with the token.
+ */
+public final class CognitoIdentity {
+
+    private final String identityId;
+    private final String openIdToken;
+    private final String role;
+
+    public CognitoIdentity(String identityId, String openIdToken, String role) {
+        this.identityId = identityId;
+        this.openIdToken = openIdToken;
+        this.role = role;
+    }
+
+    public String getIdentityId() {
+        return identityId;
+    }
+
+    public String getOpenIdToken() {
+        return openIdToken;
+    }
+
+    /**
+     * @return the authenticated role of the identity pool
+     */
+    public String getRole() {
+        return role;
+    }
+}
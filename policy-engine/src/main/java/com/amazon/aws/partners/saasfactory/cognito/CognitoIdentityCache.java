@@ -0,0 +1,215 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Remembers the answers of the Cognito identity pool calls that do not change from one vend to the next: the
+ * authenticated role of each identity pool, the identity id of each user of a pool, and the OpenID token of each
+ * identity until shortly before it expires. Users are told apart by the provider they signed in with and the subject
+ * of their verified token, never by the token itself, which changes every time the user signs in.
+ */
+public class CognitoIdentityCache {
+
+    /**
+     * The validity of an OpenID token when it carries no expiry, as documented for GetOpenIdToken.
+     */
+    private static final Duration OPEN_ID_TOKEN_VALIDITY = Duration.ofMinutes(10);
+
+    private static final CognitoIdentityCache GLOBAL = CognitoIdentityCache.builder().build();
+
+    private final ConcurrentMap<String, Entry> roles = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Entry> identityIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Entry> openIdTokens = new ConcurrentHashMap<>();
+    private final Duration roleTtl;
+    private final Duration identityIdTtl;
+    private final Duration openIdTokenSkew;
+    private final int maxEntries;
+    private final Clock clock;
+
+    public CognitoIdentityCache(CognitoIdentityCacheBuilder builder) {
+        this.roleTtl = builder.roleTtl;
+        this.identityIdTtl = builder.identityIdTtl;
+        this.openIdTokenSkew = builder.openIdTokenSkew;
+        this.maxEntries = builder.maxEntries;
+        this.clock = builder.clock;
+    }
+
+    /**
+     * The cache the identity managers use unless they are given another one.
+     */
+    public static CognitoIdentityCache global() {
+        return GLOBAL;
+    }
+
+    public static CognitoIdentityCacheBuilder builder() {
+        return new CognitoIdentityCacheBuilder();
+    }
+
+    public String role(String identityPool, Supplier<String> lookup) {
+        return get(roles, identityPool, lookup, role -> clock.millis() + roleTtl.toMillis());
+    }
+
+    /**
+     * @return the cached role of the identity pool, null when it has to be looked up
+     */
+    public String getRole(String identityPool) {
+        Entry entry = identityPool == null ? null : roles.get(identityPool);
+        return entry != null && entry.expiresAtMillis > clock.millis() ? entry.value : null;
+    }
+
+    /**
+     * @param subject the subject of the verified token, without one the identity id is looked up every time
+     */
+    public String identityId(String identityPool, Map<String, String> providerLogins, String subject,
+                             Supplier<String> lookup) {
+        if (subject == null || providerLogins == null || providerLogins.isEmpty()) {
+            return lookup.get();
+        }
+        String key = identityPool + '\n' + String.join(",", new TreeSet<>(providerLogins.keySet())) + '\n' + subject;
+        return get(identityIds, key, lookup, identityId -> clock.millis() + identityIdTtl.toMillis());
+    }
+
+    public String openIdToken(String identityId, Supplier<String> lookup) {
+        return get(openIdTokens, identityId, lookup, this::usableUntil);
+    }
+
+    public void clear() {
+        roles.clear();
+        identityIds.clear();
+        openIdTokens.clear();
+    }
+
+    private String get(ConcurrentMap<String, Entry> entries, String key, Supplier<String> lookup,
+                       ToLongFunction<String> expiry) {
+        if (key == null) {
+            return lookup.get();
+        }
+        long now = clock.millis();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAtMillis > now) {
+            return entry.value;
+        }
+        String value = lookup.get();
+        if (value != null) {
+            long expiresAtMillis = expiry.applyAsLong(value);
+            if (expiresAtMillis > now) {
+                if (entries.size() >= maxEntries) {
+                    evict(entries, now);
+                }
+                entries.put(key, new Entry(value, expiresAtMillis));
+            }
+        }
+        return value;
+    }
+
+    private long usableUntil(String openIdToken) {
+        Object expiresAt = null;
+        try {
+            expiresAt = JwtClaimsReader.read(openIdToken, "exp").get("exp");
+        } catch (JwtProcessingException e) {
+            // not a token we can read, fall back to the documented validity
+        }
+        long expiresAtMillis = expiresAt instanceof Number
+                ? ((Number) expiresAt).longValue() * 1000
+                : clock.millis() + OPEN_ID_TOKEN_VALIDITY.toMillis();
+        return expiresAtMillis - openIdTokenSkew.toMillis();
+    }
+
+    private void evict(ConcurrentMap<String, Entry> entries, long now) {
+        entries.values().removeIf(entry -> entry.expiresAtMillis <= now);
+        Iterator<String> keys = entries.keySet().iterator();
+        while (entries.size() >= maxEntries && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private static final class Entry {
+        private final String value;
+        private final long expiresAtMillis;
+
+        private Entry(String value, long expiresAtMillis) {
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    public static final class CognitoIdentityCacheBuilder {
+        private Duration roleTtl = Duration.ofHours(1);
+        private Duration identityIdTtl = Duration.ofHours(24);
+        private Duration openIdTokenSkew = Duration.ofMinutes(1);
+        private int maxEntries = 10_000;
+        private Clock clock = Clock.systemUTC();
+
+        private CognitoIdentityCacheBuilder() {
+        }
+
+        /**
+         * How long the authenticated role of an identity pool is reused.
+         */
+        public CognitoIdentityCacheBuilder roleTtl(Duration roleTtl) {
+            this.roleTtl = roleTtl;
+            return this;
+        }
+
+        /**
+         * How long the identity id of a user is reused.
+         */
+        public CognitoIdentityCacheBuilder identityIdTtl(Duration identityIdTtl) {
+            this.identityIdTtl = identityIdTtl;
+            return this;
+        }
+
+        /**
+         * How long before its expiry an OpenID token stops being reused, leaving time to assume the role with it.
+         */
+        public CognitoIdentityCacheBuilder openIdTokenSkew(Duration openIdTokenSkew) {
+            this.openIdTokenSkew = openIdTokenSkew;
+            return this;
+        }
+
+        /**
+         * Maximum number of entries of each kind.
+         */
+        public CognitoIdentityCacheBuilder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public CognitoIdentityCacheBuilder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public CognitoIdentityCache build() {
+            return new CognitoIdentityCache(this);
+        }
+    }
+}
@@ -17,6 +17,10 @@
 
 package com.amazon.aws.partners.saasfactory.cognito;
 
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.concurrent.Futures;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingExecutors;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingTimeouts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
@@ -29,20 +33,49 @@ import software.amazon.awssdk.services.cognitoidentity.model.GetIdentityPoolRole
 import software.amazon.awssdk.services.cognitoidentity.model.GetOpenIdTokenResponse;
 
 import java.util.*;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Looks up the identity pool role and the OpenID token of a user. The answers are kept in a
+ * {@link CognitoIdentityCache}, by default the process wide one, so that a user seen before costs no Cognito call
+ * at all. The role does not depend on the identity, so {@link #resolve()} looks it up while the identity id and
+ * OpenID token calls are made. Managers are created per vend, the Cognito clients they use are shared per region.
+ */
 public class CognitoWebIdentityManager {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CognitoWebIdentityManager.class);
+
+    private static final ConcurrentMap<Region, CognitoIdentityClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private static final ExecutorService COGNITO_EXECUTOR = VendingExecutors.newVendingExecutor("cognito-identity");
+
     private final CognitoIdentityClient cognito;
 
     private final String identityPool;
     private final Map<String, String> providerLogins;
+    private final String subject;
+    private final CognitoIdentityCache cache;
+    private final Deadline deadline;
+    private final VendingTimeouts timeouts;
 
     public CognitoWebIdentityManager(CognitoWebIdentityManagerBuilder builder) {
         this.identityPool = builder.identityPool;
         this.providerLogins = builder.providerLogins;
-        this.cognito = CognitoIdentityClient.builder()
-                .region(builder.region)
+        this.subject = builder.subject;
+        this.cache = builder.cache;
+        this.deadline = builder.deadline;
+        this.timeouts = builder.timeouts;
+        this.cognito = builder.region == null
+                ? newClient(null)
+                : CLIENTS.computeIfAbsent(builder.region, CognitoWebIdentityManager::newClient);
+    }
+
+    private static CognitoIdentityClient newClient(Region region) {
+        return CognitoIdentityClient.builder()
+                .region(region)
                 .httpClientBuilder(UrlConnectionHttpClient.builder())
                 .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
                 .build();
@@ -53,15 +86,59 @@ public class CognitoWebIdentityManager {
     }
 
     public String getCognitoIdentityId() {
-        return getCognitoIdentityId(identityPool, providerLogins);
+        if (cache == null) {
+            return getCognitoIdentityId(identityPool, providerLogins);
+        }
+        return cache.identityId(identityPool, providerLogins, subject,
+                () -> getCognitoIdentityId(identityPool, providerLogins));
     }
 
     public String getOpenIdToken() {
-        return getOpenIdToken(getCognitoIdentityId(), providerLogins);
+        return getOpenIdToken(getCognitoIdentityId());
+    }
+
+    /**
+     * Resolves the identity on the calling thread, with the role looked up alongside.
+     */
+    public CognitoIdentity resolve() {
+        CompletableFuture<String> role = getIdentityPoolAuthRoleAsync();
+        String identityId = getCognitoIdentityId();
+        String openIdToken = getOpenIdToken(identityId);
+        return new CognitoIdentity(identityId, openIdToken, Futures.join(role));
+    }
+
+    /**
+     * Resolves the identity on other threads, leaving the calling thread free for work that does not depend on it.
+     */
+    public CompletableFuture<CognitoIdentity> resolveAsync() {
+        CompletableFuture<String> role = getIdentityPoolAuthRoleAsync();
+        return CompletableFuture.supplyAsync(() -> {
+            String identityId = getCognitoIdentityId();
+            return new CognitoIdentity(identityId, getOpenIdToken(identityId), null);
+        }, COGNITO_EXECUTOR).thenCombine(role,
+                (identity, authRole) -> new CognitoIdentity(identity.getIdentityId(), identity.getOpenIdToken(), authRole));
+    }
+
+    private CompletableFuture<String> getIdentityPoolAuthRoleAsync() {
+        String cached = cache == null ? null : cache.getRole(identityPool);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return CompletableFuture.supplyAsync(this::getIdentityPoolAuthRole, COGNITO_EXECUTOR);
+    }
+
+    private String getOpenIdToken(String identityId) {
+        if (cache == null) {
+            return getOpenIdToken(identityId, providerLogins);
+        }
+        return cache.openIdToken(identityId, () -> getOpenIdToken(identityId, providerLogins));
     }
 
     public String getIdentityPoolAuthRole() {
-        return getIdentityPoolAuthRole(identityPool);
+        if (cache == null) {
+            return getIdentityPoolAuthRole(identityPool);
+        }
+        return cache.role(identityPool, () -> getIdentityPoolAuthRole(identityPool));
     }
 
     private String getCognitoIdentityId(String identityPoolId, Map<String, String> providerLogins) {
@@ -70,6 +147,7 @@ public class CognitoWebIdentityManager {
             GetIdResponse getIdResponse = cognito.getId(request -> request
                     .identityPoolId(identityPoolId)
                     .logins(providerLogins)
+                    .overrideConfiguration(timeouts.overrideFor(VendingTimeouts.Phase.COGNITO, deadline))
             );
             identityId = getIdResponse.identityId();
         } catch (SdkServiceException cognitoError) {
@@ -85,6 +163,7 @@ public class CognitoWebIdentityManager {
             GetOpenIdTokenResponse getOpenIdTokenResponse = cognito.getOpenIdToken(getOpenIdReq -> getOpenIdReq
                     .identityId(identityId)
                     .logins(providerLogins)
+                    .overrideConfiguration(timeouts.overrideFor(VendingTimeouts.Phase.COGNITO, deadline))
             );
             openIdToken = getOpenIdTokenResponse.token();
         } catch (SdkServiceException cognitoError) {
@@ -97,7 +176,10 @@ public class CognitoWebIdentityManager {
     private String getIdentityPoolAuthRole(String identityPoolId) {
         String role;
         try {
-            GetIdentityPoolRolesResponse idPoolRolesResponse = cognito.getIdentityPoolRoles(idPoolRolesReq -> idPoolRolesReq.identityPoolId(identityPoolId));
+            GetIdentityPoolRolesResponse idPoolRolesResponse = cognito.getIdentityPoolRoles(idPoolRolesReq -> idPoolRolesReq
+                    .identityPoolId(identityPoolId)
+                    .overrideConfiguration(timeouts.overrideFor(VendingTimeouts.Phase.COGNITO, deadline))
+            );
             role = idPoolRolesResponse.roles().get("authenticated");
         } catch (SdkServiceException cognitoError) {
             LOGGER.error("CognitoWebIdentityManager::GetIdentityPoolRoles", cognitoError);
@@ -109,7 +191,11 @@ public class CognitoWebIdentityManager {
     public static final class CognitoWebIdentityManagerBuilder {
         private String identityPool;
         private Map<String, String> providerLogins;
+        private String subject;
+        private CognitoIdentityCache cache = CognitoIdentityCache.global();
         private Region region;
+        private Deadline deadline = Deadline.none();
+        private VendingTimeouts timeouts = VendingTimeouts.defaults();
 
         private CognitoWebIdentityManagerBuilder() {
         }
@@ -124,11 +210,38 @@ public class CognitoWebIdentityManager {
             return this;
         }
 
+        /**
+         * The subject of the verified token the provider logins were taken from. The identity id of the user is
+         * only cached when it is known.
+         */
+        public CognitoWebIdentityManagerBuilder subject(String subject) {
+            this.subject = subject;
+            return this;
+        }
+
+        /**
+         * Where the roles, identity ids and OpenID tokens are kept, null to call Cognito every time.
+         */
+        public CognitoWebIdentityManagerBuilder cache(CognitoIdentityCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
         public CognitoWebIdentityManagerBuilder region(Region region) {
             this.region = region;
             return this;
         }
 
+        public CognitoWebIdentityManagerBuilder deadline(Deadline deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        public CognitoWebIdentityManagerBuilder timeouts(VendingTimeouts timeouts) {
+            this.timeouts = timeouts;
+            return this;
+        }
+
         public CognitoWebIdentityManager build() {
             return new CognitoWebIdentityManager(this);
         }
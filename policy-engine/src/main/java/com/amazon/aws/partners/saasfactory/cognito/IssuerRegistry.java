@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import com.amazon.aws.partners.saasfactory.concurrent.NegativeCache;
+import software.amazon.awssdk.regions.Region;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The issuers whose tokens are accepted, each with a verifier built once and shared by every request. Only the
+ * configured issuers are accepted: a token from any other issuer is rejected before its keys are fetched or its
+ * signature is checked, and a registry without issuers rejects every token.
+ */
+public class IssuerRegistry {
+
+    private static final String COGNITO_ISSUER_PREFIX = "https://cognito-idp.";
+    private static final String COGNITO_ISSUER_DOMAIN = ".amazonaws.com";
+
+    private static final IssuerRegistry DEFAULT_REGISTRY = IssuerRegistry.builder().build();
+
+    private final Map<String, TokenVerifier> verifiers;
+    private final JwksCache jwksCache;
+    private final VerifiedTokenCache verifiedTokens;
+    private final NegativeCache<String, String> rejectedTokens;
+
+    public IssuerRegistry(IssuerRegistryBuilder builder) {
+        this.jwksCache = builder.jwksCache;
+        this.verifiedTokens = builder.verifiedTokens;
+        this.rejectedTokens = builder.rejectedTokens != null ? builder.rejectedTokens : NegativeCache.builder().build();
+        Map<String, TokenVerifier> verifiers = new LinkedHashMap<>();
+        for (String issuer : builder.issuers) {
+            verifiers.put(issuer, new TokenVerifier(issuer, Clock.systemUTC(), builder.leeway));
+        }
+        this.verifiers = Collections.unmodifiableMap(verifiers);
+    }
+
+    /**
+     * The registry used when none is configured. It has no issuers and rejects every token, configure the user
+     * pools of the application to accept their tokens.
+     */
+    public static IssuerRegistry defaultRegistry() {
+        return DEFAULT_REGISTRY;
+    }
+
+    public static IssuerRegistryBuilder builder() {
+        return new IssuerRegistryBuilder();
+    }
+
+    /**
+     * @return the verifier for the issuer, null when tokens of the issuer are not accepted
+     */
+    public TokenVerifier verifierFor(String issuer) {
+        return issuer == null ? null : verifiers.get(issuer);
+    }
+
+    public JwksCache getJwksCache() {
+        return jwksCache;
+    }
+
+    /**
+     * @return the tokens of these issuers that passed verification, null when verified tokens are not cached
+     */
+    public VerifiedTokenCache getVerifiedTokens() {
+        return verifiedTokens;
+    }
+
+    /**
+     * @return the tokens that recently failed verification against this registry, by the SHA-256 of the token
+     */
+    public NegativeCache<String, String> getRejectedTokens() {
+        return rejectedTokens;
+    }
+
+    /**
+     * @return the issuers whose tokens are accepted
+     */
+    public Set<String> getIssuers() {
+        return verifiers.keySet();
+    }
+
+    /**
+     * The issuer of the tokens of a Cognito user pool.
+     */
+    public static String issuer(Region region, String userPoolId) {
+        return COGNITO_ISSUER_PREFIX + region.id() + COGNITO_ISSUER_DOMAIN + "/" + userPoolId;
+    }
+
+    public static final class IssuerRegistryBuilder {
+        private final Set<String> issuers = new LinkedHashSet<>();
+        private JwksCache jwksCache = JwksCache.global();
+        private VerifiedTokenCache verifiedTokens;
+        private NegativeCache<String, String> rejectedTokens;
+        private Duration leeway = TokenVerifier.DEFAULT_LEEWAY;
+
+        private IssuerRegistryBuilder() {
+        }
+
+        public IssuerRegistryBuilder issuer(String issuer) {
+            this.issuers.add(issuer);
+            return this;
+        }
+
+        public IssuerRegistryBuilder userPool(Region region, String userPoolId) {
+            return issuer(IssuerRegistry.issuer(region, userPoolId));
+        }
+
+        public IssuerRegistryBuilder jwksCache(JwksCache jwksCache) {
+            this.jwksCache = jwksCache;
+            return this;
+        }
+
+        /**
+         * Remembers tokens that passed verification until they expire, so that a token reused for many requests
+         * has its signature checked once. Off by default.
+         */
+        public IssuerRegistryBuilder verifiedTokens(VerifiedTokenCache verifiedTokens) {
+            this.verifiedTokens = verifiedTokens;
+            return this;
+        }
+
+        /**
+         * Remembers tokens that failed verification for a while, so that a rejected token is rejected again without
+         * fetching keys or verifying its signature. Each registry has its own, 30 seconds and 10,000 tokens by
+         * default.
+         */
+        public IssuerRegistryBuilder rejectedTokens(NegativeCache<String, String> rejectedTokens) {
+            this.rejectedTokens = rejectedTokens;
+            return this;
+        }
+
+        /**
+         * How far the issue and not before times of a token may be ahead of our clock, 30 seconds by default.
+         */
+        public IssuerRegistryBuilder leeway(Duration leeway) {
+            this.leeway = leeway;
+            return this;
+        }
+
+        public IssuerRegistry build() {
+            return new IssuerRegistry(this);
+        }
+    }
+}
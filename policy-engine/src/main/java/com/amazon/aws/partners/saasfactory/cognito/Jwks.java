@@ -0,0 +1,218 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads JSON Web Key Sets. Only the RSA signing keys are kept, parsed once into {@link RSAPublicKey}s by key id.
+ */
+public final class Jwks {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final String CLASSPATH_PREFIX = "classpath:";
+
+    private Jwks() {
+    }
+
+    /**
+     * @return the URL a user pool publishes its keys at
+     */
+    public static String location(String issuer) {
+        return issuer + "/.well-known/jwks.json";
+    }
+
+    /**
+     * Fetches the keys of an issuer.
+     *
+     * @param timeout bounds connecting and reading, null for the JDK defaults
+     */
+    public static Map<String, RSAPublicKey> fetch(String issuer, Duration timeout) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(location(issuer)).openConnection();
+            if (timeout != null) {
+                int millis = (int) Math.max(1, Math.min(Integer.MAX_VALUE, timeout.toMillis()));
+                connection.setConnectTimeout(millis);
+                connection.setReadTimeout(millis);
+            }
+            connection.setRequestProperty("Accept", "application/json");
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new JwtProcessingException("Fetching the JWKS of " + issuer + " returned "
+                        + connection.getResponseCode() + ".");
+            }
+            try (InputStream body = connection.getInputStream()) {
+                return parse(body);
+            }
+        } catch (IOException e) {
+            throw new JwtProcessingException("Unable to fetch the JWKS of " + issuer + ".", e);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Reads a key set with the streaming parser, without loading the data binding classes on the verification path.
+     */
+    public static Map<String, RSAPublicKey> parse(InputStream jwks) throws IOException {
+        try (JsonParser parser = JSON.createParser(jwks)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            return readKeySet(parser);
+        }
+    }
+
+    /**
+     * @param jwks a key set, an object with a {@code keys} array
+     */
+    public static Map<String, RSAPublicKey> parse(JsonNode jwks) {
+        Map<String, RSAPublicKey> keys = new HashMap<>();
+        for (JsonNode key : jwks.path("keys")) {
+            addKey(keys, key.path("kid").asText(null), key.path("kty").asText(null), key.path("use").asText(null),
+                    key.path("n").asText(), key.path("e").asText());
+        }
+        return Collections.unmodifiableMap(keys);
+    }
+
+    /**
+     * Loads a snapshot of the keys of several issuers, see {@link #parseSnapshot(InputStream)}.
+     *
+     * @param location a file path, or a classpath resource prefixed with {@code classpath:}
+     */
+    public static Map<String, Map<String, RSAPublicKey>> loadSnapshot(String location) {
+        try (InputStream snapshot = open(location)) {
+            if (snapshot == null) {
+                throw new JwtProcessingException("JWKS snapshot " + location + " not found.");
+            }
+            return parseSnapshot(snapshot);
+        } catch (NoSuchFileException e) {
+            throw new JwtProcessingException("JWKS snapshot " + location + " not found.", e);
+        } catch (IOException e) {
+            throw new JwtProcessingException("Unable to read the JWKS snapshot " + location + ".", e);
+        }
+    }
+
+    /**
+     * @param snapshot an object with the key set of each issuer by issuer,
+     *                 {@code {"https://cognito-idp.us-west-2.amazonaws.com/us-west-2_AbCdEfGhI": {"keys": [...]}}}
+     */
+    public static Map<String, Map<String, RSAPublicKey>> parseSnapshot(InputStream snapshot) throws IOException {
+        Map<String, Map<String, RSAPublicKey>> issuers = new LinkedHashMap<>();
+        try (JsonParser parser = JSON.createParser(snapshot)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String issuer = parser.currentName();
+                expect(parser.nextToken(), JsonToken.START_OBJECT);
+                issuers.put(issuer, readKeySet(parser));
+            }
+        }
+        return Collections.unmodifiableMap(issuers);
+    }
+
+    /**
+     * Reads the key set object the parser is at, up to and including its end.
+     */
+    private static Map<String, RSAPublicKey> readKeySet(JsonParser parser) throws IOException {
+        Map<String, RSAPublicKey> keys = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            boolean keySet = "keys".equals(parser.currentName());
+            if (parser.nextToken() != JsonToken.START_ARRAY || !keySet) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Map<String, String> key = new HashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                        key.put(name, parser.getText());
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                addKey(keys, key.get("kid"), key.get("kty"), key.get("use"), key.get("n"), key.get("e"));
+            }
+        }
+        return Collections.unmodifiableMap(keys);
+    }
+
+    /**
+     * Keeps RSA keys that may be used for signatures.
+     */
+    private static void addKey(Map<String, RSAPublicKey> keys, String kid, String kty, String use, String modulus,
+                               String exponent) {
+        if (kid == null || !"RSA".equals(kty) || "enc".equals(use)) {
+            return;
+        }
+        keys.put(kid, publicKey(modulus == null ? "" : modulus, exponent == null ? "" : exponent));
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) {
+        if (actual != expected) {
+            throw new JwtProcessingException("Invalid JWKS, expected " + expected + " but found " + actual + ".");
+        }
+    }
+
+    private static InputStream open(String location) throws IOException {
+        if (location.startsWith(CLASSPATH_PREFIX)) {
+            String resource = location.substring(CLASSPATH_PREFIX.length());
+            InputStream stream = Jwks.class.getResourceAsStream(resource);
+            if (stream == null) {
+                stream = Jwks.class.getClassLoader().getResourceAsStream(resource);
+            }
+            return stream;
+        }
+        return Files.newInputStream(Paths.get(location));
+    }
+
+    private static RSAPublicKey publicKey(String modulus, String exponent) {
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            RSAPublicKeySpec spec = new RSAPublicKeySpec(
+                    new BigInteger(1, decoder.decode(modulus)), new BigInteger(1, decoder.decode(exponent)));
+            return (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(spec);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new JwtProcessingException("Invalid RSA key in JWKS.", e);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.concurrent.Futures;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingExecutors;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingTimeouts;
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.interfaces.RSAPublicKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+
+/**
+ * The signing keys of every issuer seen by the process, parsed once and looked up by key id, so verifying a token
+ * is pure CPU once its issuer's keys are known. Keys are refetched in the background when they are about to reach
+ * their time to live. A key id that is not known triggers a refetch as well, for keys rotated since the last fetch,
+ * but at most once per {@code minRefetchInterval} and issuer so that tokens with made up key ids cannot make the
+ * process fetch keys on every request. The same interval applies to issuers whose keys have not been fetched yet or
+ * have expired: a failed fetch is remembered and rethrown until the interval has passed. Concurrent fetches for an
+ * issuer share a single request. Keys are kept for at most {@code maxIssuers} issuers.
+ */
+public class JwksCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JwksCache.class);
+
+    /**
+     * Fetches run here so that a caller can give up when its deadline passes while the fetch still fills the cache.
+     */
+    private static final ExecutorService JWKS_EXECUTOR = VendingExecutors.newVendingExecutor("jwks-fetch");
+
+    private static final Duration BACKGROUND_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final JwksCache GLOBAL = JwksCache.builder().build();
+
+    private final ConcurrentMap<String, IssuerKeys> issuers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Map<String, RSAPublicKey>>> inFlight = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final long refreshAheadMillis;
+    private final long minRefetchIntervalMillis;
+    private final int maxIssuers;
+    private final BiFunction<String, Duration, Map<String, RSAPublicKey>> fetcher;
+    private final Clock clock;
+
+    public JwksCache(JwksCacheBuilder builder) {
+        this.ttlMillis = builder.ttl.toMillis();
+        this.refreshAheadMillis = builder.refreshAhead.toMillis();
+        this.minRefetchIntervalMillis = builder.minRefetchInterval.toMillis();
+        this.maxIssuers = builder.maxIssuers;
+        this.fetcher = builder.fetcher;
+        this.clock = builder.clock;
+    }
+
+    /**
+     * The cache the key providers use unless they are given another one.
+     */
+    public static JwksCache global() {
+        return GLOBAL;
+    }
+
+    public static JwksCacheBuilder builder() {
+        return new JwksCacheBuilder();
+    }
+
+    /**
+     * @param deadline bounds the fetch when the keys of the issuer have to be fetched first
+     * @throws JwtProcessingException if the issuer has no key with the id, or its keys could not be fetched within
+     *                                the last {@code minRefetchInterval}
+     */
+    public RSAPublicKey getKey(String issuer, String keyId, Deadline deadline, VendingTimeouts timeouts) {
+        IssuerKeys state = issuerKeys(issuer);
+        if (state == null) {
+            throw new JwtProcessingException("Not keeping the keys of more than " + maxIssuers + " issuers.");
+        }
+        long now = clock.millis();
+        if (state.isFresh(now)) {
+            if (now - state.fetchedAtMillis >= ttlMillis - refreshAheadMillis && mayFetch(state, now)) {
+                refresh(issuer, state, timeouts.timeoutFor(VendingTimeouts.Phase.JWKS, Deadline.none()));
+            }
+            RSAPublicKey key = state.keys.get(keyId);
+            if (key != null) {
+                return key;
+            }
+            if (!mayFetch(state, now)) {
+                throw new JwtProcessingException("Unknown signing key " + keyId + " for " + issuer + ".");
+            }
+        } else if (!mayFetch(state, now) && !inFlight.containsKey(issuer)) {
+            RSAPublicKey stale = state.keys.get(keyId);
+            if (stale != null) {
+                return stale;
+            }
+            throw new JwtProcessingException("The keys of " + issuer + " could not be fetched recently.",
+                    state.lastFailure);
+        }
+        Map<String, RSAPublicKey> keys;
+        try {
+            keys = fetchWithin(issuer, state, deadline, timeouts);
+        } catch (JwtProcessingException e) {
+            RSAPublicKey stale = state.keys.get(keyId);
+            if (stale == null) {
+                throw e;
+            }
+            LOGGER.warn("Unable to refresh the JWKS of {}, using the keys fetched before", issuer, e);
+            return stale;
+        }
+        RSAPublicKey key = keys.get(keyId);
+        if (key == null) {
+            throw new JwtProcessingException("Unknown signing key " + keyId + " for " + issuer + ".");
+        }
+        return key;
+    }
+
+    /**
+     * @return the keys currently held for the issuer, empty when none have been fetched
+     */
+    public Map<String, RSAPublicKey> getKeys(String issuer) {
+        IssuerKeys state = issuers.get(issuer);
+        return state == null ? Collections.emptyMap() : state.keys;
+    }
+
+    /**
+     * Makes the keys of an issuer known before they are fetched, from a snapshot taken earlier, and fetches the
+     * current keys in the background. Tokens signed with a key of the snapshot verify without waiting for the fetch,
+     * and keep verifying when the fetch fails. Keys that have been fetched already are not replaced.
+     */
+    public void seed(String issuer, Map<String, RSAPublicKey> keys) {
+        IssuerKeys state = issuerKeys(issuer);
+        if (state == null) {
+            LOGGER.warn("Not seeding the keys of {}, the keys of {} issuers are kept already", issuer, maxIssuers);
+            return;
+        }
+        synchronized (state) {
+            if (!state.fetched) {
+                state.keys = Collections.unmodifiableMap(new HashMap<>(keys));
+                state.fetchedAtMillis = clock.millis();
+                state.fetched = true;
+            }
+        }
+        refresh(issuer, state, null);
+    }
+
+    /**
+     * Seeds the keys of every issuer of a snapshot, see {@link Jwks#loadSnapshot(String)}.
+     */
+    public void seed(Map<String, Map<String, RSAPublicKey>> snapshot) {
+        snapshot.forEach(this::seed);
+    }
+
+    /**
+     * @return the state of the issuer, null when it is new and the keys of {@code maxIssuers} issuers are kept
+     */
+    private IssuerKeys issuerKeys(String issuer) {
+        IssuerKeys state = issuers.get(issuer);
+        if (state != null || issuers.size() >= maxIssuers) {
+            return state;
+        }
+        return issuers.computeIfAbsent(issuer, i -> new IssuerKeys());
+    }
+
+    private void refresh(String issuer, IssuerKeys state, Duration timeout) {
+        fetch(issuer, state, timeout).whenComplete((keys, error) -> {
+            if (error != null) {
+                LOGGER.warn("Refreshing the JWKS of {} failed", issuer, error);
+            }
+        });
+    }
+
+    private Map<String, RSAPublicKey> fetchWithin(String issuer, IssuerKeys state, Deadline deadline,
+                                                  VendingTimeouts timeouts) {
+        Duration timeout = timeouts.timeoutFor(VendingTimeouts.Phase.JWKS, deadline);
+        CompletableFuture<Map<String, RSAPublicKey>> fetch = fetch(issuer, state, timeout);
+        if (timeout == null) {
+            return Futures.join(fetch);
+        }
+        try {
+            return fetch.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // the fetch goes on and fills the cache for the requests that follow
+            throw new DeadlineExceededException("Timed out fetching the JWKS from " + issuer + ".", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JwtProcessingException("Interrupted fetching the JWKS.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new JwtProcessingException("Unable to fetch the JWKS of " + issuer + ".", e.getCause());
+        }
+    }
+
+    private CompletableFuture<Map<String, RSAPublicKey>> fetch(String issuer, IssuerKeys state, Duration timeout) {
+        CompletableFuture<Map<String, RSAPublicKey>> fetch = new CompletableFuture<>();
+        CompletableFuture<Map<String, RSAPublicKey>> existing = inFlight.putIfAbsent(issuer, fetch);
+        if (existing != null) {
+            return existing;
+        }
+        state.lastAttemptMillis = clock.millis();
+        Duration fetchTimeout = timeout == null ? BACKGROUND_TIMEOUT : timeout;
+        JWKS_EXECUTOR.execute(() -> {
+            try {
+                Map<String, RSAPublicKey> keys = fetcher.apply(issuer, fetchTimeout);
+                synchronized (state) {
+                    state.keys = keys;
+                    state.fetchedAtMillis = clock.millis();
+                    state.fetched = true;
+                    state.lastFailure = null;
+                }
+                fetch.complete(keys);
+            } catch (RuntimeException | Error e) {
+                state.lastFailure = e;
+                fetch.completeExceptionally(e);
+            } finally {
+                inFlight.remove(issuer, fetch);
+            }
+        });
+        return fetch;
+    }
+
+    private boolean mayFetch(IssuerKeys state, long now) {
+        return now - state.lastAttemptMillis >= minRefetchIntervalMillis;
+    }
+
+    private final class IssuerKeys {
+        private volatile Map<String, RSAPublicKey> keys = Collections.emptyMap();
+        private volatile long fetchedAtMillis;
+        private volatile long lastAttemptMillis = Long.MIN_VALUE / 2;
+        private volatile boolean fetched;
+        private volatile Throwable lastFailure;
+
+        private boolean isFresh(long now) {
+            return fetched && now - fetchedAtMillis < ttlMillis;
+        }
+    }
+
+    public static final class JwksCacheBuilder {
+        private Duration ttl = Duration.ofHours(1);
+        private Duration refreshAhead = Duration.ofMinutes(5);
+        private Duration minRefetchInterval = Duration.ofSeconds(30);
+        private int maxIssuers = 100;
+        private BiFunction<String, Duration, Map<String, RSAPublicKey>> fetcher = Jwks::fetch;
+        private Clock clock = Clock.systemUTC();
+
+        private JwksCacheBuilder() {
+        }
+
+        /**
+         * How long fetched keys are used before they have to be fetched again.
+         */
+        public JwksCacheBuilder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        /**
+         * How long before the keys reach their time to live a request triggers a refetch in the background.
+         */
+        public JwksCacheBuilder refreshAhead(Duration refreshAhead) {
+            this.refreshAhead = refreshAhead;
+            return this;
+        }
+
+        /**
+         * Minimum time between two fetches for the same issuer, whether triggered by unknown key ids, refreshes or
+         * keys that have not been fetched yet. A failed fetch is rethrown for this long.
+         */
+        public JwksCacheBuilder minRefetchInterval(Duration minRefetchInterval) {
+            this.minRefetchInterval = minRefetchInterval;
+            return this;
+        }
+
+        /**
+         * How many issuers keys are kept for, further issuers are refused.
+         */
+        public JwksCacheBuilder maxIssuers(int maxIssuers) {
+            this.maxIssuers = maxIssuers;
+            return this;
+        }
+
+        /**
+         * Fetches the keys of an issuer within a timeout, {@link Jwks#fetch(String, Duration)} by default.
+         */
+        public JwksCacheBuilder fetcher(BiFunction<String, Duration, Map<String, RSAPublicKey>> fetcher) {
+            this.fetcher = fetcher;
+            return this;
+        }
+
+        public JwksCacheBuilder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public JwksCache build() {
+            return new JwksCache(this);
+        }
+    }
+}
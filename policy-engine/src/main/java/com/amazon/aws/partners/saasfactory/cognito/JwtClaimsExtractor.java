@@ -17,46 +17,76 @@
 
 package com.amazon.aws.partners.saasfactory.cognito;
 
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingTimeouts;
 import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
-import com.auth0.jwt.JWT;
-import com.auth0.jwt.JWTVerifier;
-import com.auth0.jwt.algorithms.Algorithm;
-import com.auth0.jwt.exceptions.JWTVerificationException;
-import com.auth0.jwt.interfaces.Claim;
-import com.auth0.jwt.interfaces.DecodedJWT;
-import com.auth0.jwt.interfaces.RSAKeyProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 public class JwtClaimsExtractor {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JwtClaimsExtractor.class);
 
-    private static final Pattern BEARER_TOKEN_REGEX = Pattern.compile("^[B|b]earer +");
+    private final Deadline deadline;
+    private final VendingTimeouts timeouts;
+    private final IssuerRegistry issuers;
 
-    public JwtClaimsExtractor() { }
+    public JwtClaimsExtractor() {
+        this(Deadline.none(), VendingTimeouts.defaults());
+    }
 
-    public Map<String, Claim> getClaims(Map<String, String> request, boolean validateToken) {
-        String bearerToken = getBearerToken(request);
-        DecodedJWT unverifiedJWT = JWT.decode(bearerToken);
+    /**
+     * @param deadline bounds the JWKS fetch made to verify a token
+     */
+    public JwtClaimsExtractor(Deadline deadline, VendingTimeouts timeouts) {
+        this(deadline, timeouts, IssuerRegistry.defaultRegistry());
+    }
+
+    /**
+     * @param issuers the issuers whose tokens are accepted
+     */
+    public JwtClaimsExtractor(Deadline deadline, VendingTimeouts timeouts, IssuerRegistry issuers) {
+        this.deadline = deadline;
+        this.timeouts = timeouts;
+        this.issuers = issuers;
+    }
+
+    /**
+     * @return the claims of the request's token as plain values: strings, numbers, booleans, lists and maps
+     */
+    public Map<String, Object> getClaims(Map<String, String> request, boolean validateToken) {
+        return getClaims(getBearerToken(request), validateToken);
+    }
+
+    private Map<String, Object> getClaims(String bearerToken, boolean validateToken) {
         if(validateToken) {
-            String issuer = unverifiedJWT.getIssuer();
-            DecodedJWT verifiedJWT = verify(bearerToken, issuer);
-            return verifiedJWT.getClaims();
+            return verify(bearerToken).getClaims();
         }
-        return unverifiedJWT.getClaims();
+        return JwtClaimsReader.readAll(bearerToken);
+    }
+
+    /**
+     * Like {@link #getClaims(Map, boolean)}, for callers that have the value of the Authorization header at hand.
+     *
+     * @param authorization the value of the Authorization header, {@code Bearer <token>}
+     */
+    public Map<String, Object> getClaimsFromHeader(CharSequence authorization, boolean validateToken) {
+        return getClaims(getBearerToken(authorization), validateToken);
     }
 
     public CognitoClaims getClaims(Map<String, String> request, String tenantClaim, String identityPoolClaim) {
         String bearerToken = getBearerToken(request);
-        DecodedJWT unverifiedJWT = JWT.decode(bearerToken);
-        String issuer = unverifiedJWT.getIssuer();
-        DecodedJWT verifiedJWT = verify(bearerToken, issuer);
-        Map<String, Claim> claims = verifiedJWT.getClaims();
+        VerifiedToken verifiedJWT = verify(bearerToken);
+        String issuer = verifiedJWT.getIssuer();
+        Map<String, Object> claims = verifiedJWT.getClaims();
         Map<String, String> providerLogins = getProviderLogins(claims, bearerToken, issuer);
         String tenantId = getTenantId(claims, tenantClaim);
         String identityPoolId = getIdentityPoolId(claims, identityPoolClaim);
@@ -64,34 +94,42 @@ public class JwtClaimsExtractor {
                 .identityPool(identityPoolId)
                 .providerLogins(providerLogins)
                 .tenant(tenantId)
+                .subject(verifiedJWT.getSubject())
                 .build();
     }
 
-    public String getTenantId(Map<String, Claim> claims, String claimName) {
-        String tenantId = null;
-        Claim tenantClaim = claims.get(claimName);
-        if (tenantClaim != null) {
-            tenantId = tenantClaim.asString();
-        }
+    /**
+     * The tenant of the request's token. Without validation only the tenant claim is read from the token, see
+     * {@link JwtClaimsReader}.
+     */
+    public String getTenantId(Map<String, String> request, String claimName, boolean validateToken) {
+        String bearerToken = getBearerToken(request);
+        String tenantId = validateToken
+                ? verify(bearerToken).getStringClaim(claimName)
+                : JwtClaimsReader.readString(bearerToken, claimName);
         if (tenantId == null) {
             throw new JwtProcessingException("No tenant id in token");
         }
         return tenantId;
     }
 
-    public String getIdentityPoolId(Map<String, Claim> claims, String claimName) {
-        String identityPoolId = null;
-        Claim identityPoolClaim = claims.get(claimName);
-        if (identityPoolClaim != null) {
-            identityPoolId = identityPoolClaim.asString();
+    public String getTenantId(Map<String, Object> claims, String claimName) {
+        Object tenantId = claims.get(claimName);
+        if (!(tenantId instanceof String)) {
+            throw new JwtProcessingException("No tenant id in token");
         }
-        if (identityPoolId == null || identityPoolId.isEmpty()) {
+        return (String) tenantId;
+    }
+
+    public String getIdentityPoolId(Map<String, Object> claims, String claimName) {
+        Object identityPoolId = claims.get(claimName);
+        if (!(identityPoolId instanceof String) || ((String) identityPoolId).isEmpty()) {
             throw new JwtProcessingException("No Cognito Identity Pool ID in token");
         }
-        return identityPoolId;
+        return (String) identityPoolId;
     }
 
-    public Map<String, String> getProviderLogins(Map<String, Claim> claims , String bearerToken, String issuer) {
+    public Map<String, String> getProviderLogins(Map<String, Object> claims , String bearerToken, String issuer) {
         Map<String, String> logins = new HashMap<>();
         String provider = issuer.replace("https://", "");
         checkIdToken(claims);
@@ -99,48 +137,102 @@ public class JwtClaimsExtractor {
         return logins;
     }
 
-    private void checkIdToken(Map<String, Claim> claims) {
-        Claim tokenUseClaim = claims.get("token_use");
-        if (!"id".equals(tokenUseClaim.asString())) {
+    private void checkIdToken(Map<String, Object> claims) {
+        if (!"id".equals(claims.get("token_use"))) {
             throw new JwtProcessingException("Request does not contain an ID Token");
         }
     }
 
     private String getBearerToken(Map<String, String> request) {
-        String jwt = null;
-        if (request != null) {
-            String bearerToken = null;
-            if (request.containsKey("Authorization")) {
-                bearerToken = request.get("Authorization");
-            } else if (request.containsKey("authorization")) {
-                bearerToken = request.get("authorization");
-            } else {
-                LOGGER.error("Request does not contain an Authorization header");
-            }
-            if (bearerToken != null) {
-                String[] token = BEARER_TOKEN_REGEX.split(bearerToken);
-                if (token.length == 2 && !token[1].isEmpty()) {
-                    jwt = token[1];
-                } else {
-                    LOGGER.error("Authorization header does not contain Bearer token");
-                }
-            } else {
-                LOGGER.error("Request does not contain Authorization header");
-            }
+        if (request == null) {
+            return null;
+        }
+        String authorization = BearerTokens.authorizationHeader(request);
+        if (authorization == null) {
+            LOGGER.error("Request does not contain an Authorization header");
+            return null;
+        }
+        return getBearerToken(authorization);
+    }
+
+    private String getBearerToken(CharSequence authorization) {
+        String jwt = BearerTokens.fromHeader(authorization);
+        if (jwt == null) {
+            LOGGER.error("Authorization header does not contain Bearer token");
         }
         return jwt;
     }
 
-    private DecodedJWT verify(String token, String issuer) {
+    /**
+     * Verifies the token, rejecting it before any key is fetched when the registry rejected it recently, is
+     * malformed, has no expiry or has already expired, or was not issued by a trusted issuer. Only the issuer, expiry
+     * and key id are read for these checks, the issuer's verifier then checks the signature and reads the claims.
+     * Failures to fetch the keys are not remembered, the token may well verify once the keys can be fetched. When the
+     * registry caches verified tokens, a token verified before is returned as is until it expires.
+     */
+    private VerifiedToken verify(String token) {
+        String tokenHash = token == null ? null : hash(token);
+        String rejection = tokenHash == null ? null : issuers.getRejectedTokens().get(tokenHash);
+        if (rejection != null) {
+            throw new JwtProcessingException(rejection);
+        }
+        VerifiedTokenCache verifiedTokens = issuers.getVerifiedTokens();
+        if (verifiedTokens != null && tokenHash != null) {
+            VerifiedToken verified = verifiedTokens.get(tokenHash);
+            if (verified != null) {
+                return verified;
+            }
+        }
+        Map<String, Object> claims;
+        Object keyId;
         try {
-            RSAKeyProvider keyProvider = new CognitoRSAKeyProvider(issuer);
-            Algorithm algorithm = Algorithm.RSA256(keyProvider);
-            JWTVerifier verifier = JWT.require(algorithm)
-                    .build();
-            return verifier.verify(token);
-        } catch (JWTVerificationException e){
+            claims = JwtClaimsReader.read(token, "iss", "exp");
+            keyId = JwtClaimsReader.readHeader(token, "kid").get("kid");
+        } catch (JwtProcessingException e) {
+            throw reject(tokenHash, e.getMessage());
+        }
+        Object expiresAt = claims.get("exp");
+        if (!(expiresAt instanceof Number)) {
+            throw reject(tokenHash, "Token has no expiry.");
+        }
+        if (((Number) expiresAt).longValue() * 1000 < System.currentTimeMillis()) {
+            throw reject(tokenHash, "Token has expired.");
+        }
+        Object issuer = claims.get("iss");
+        TokenVerifier verifier = issuer instanceof String ? issuers.verifierFor((String) issuer) : null;
+        if (verifier == null) {
+            throw reject(tokenHash, "Token was not issued by a trusted user pool.");
+        }
+        if (!(keyId instanceof String)) {
+            throw reject(tokenHash, "Token does not name its signing key.");
+        }
+        // fetches the key within the deadline if it is not cached yet, verifying is CPU only from here
+        RSAPublicKey key = issuers.getJwksCache().getKey((String) issuer, (String) keyId, deadline, timeouts);
+        try {
+            VerifiedToken verified = verifier.verify(token, key);
+            if (verifiedTokens != null) {
+                verifiedTokens.put(tokenHash, verified);
+            }
+            return verified;
+        } catch (JwtProcessingException e){
             LOGGER.error("Failed to validate token with issuer.", e);
-            throw new JwtProcessingException("Failed to validate token with issuer.");
+            throw reject(tokenHash, "Failed to validate token with issuer.");
+        }
+    }
+
+    private JwtProcessingException reject(String tokenHash, String reason) {
+        if (tokenHash != null) {
+            issuers.getRejectedTokens().put(tokenHash, reason);
+        }
+        return new JwtProcessingException(reason);
+    }
+
+    private static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
         }
     }
 
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads selected claims of a token without materializing its payload. The payload is base64url decoded into a buffer
+ * reused by the thread and streamed through a JSON parser that skips every other claim and stops once all requested
+ * claims are found. Only claims with a string, number or boolean value are read that way, {@link #readAll} reads
+ * every claim. The token is not verified.
+ */
+public final class JwtClaimsReader {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    /**
+     * Buffers up to this size are kept for the next token of the thread, larger payloads get a buffer of their own.
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[4096]);
+
+    private static final byte[] BASE64_URL = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_URL, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_URL[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private JwtClaimsReader() {
+    }
+
+    /**
+     * @return the claims found, by name, as {@link String}, {@link Long}, {@link Double} or {@link Boolean}
+     * @throws JwtProcessingException if the token or its payload is malformed
+     */
+    public static Map<String, Object> read(CharSequence token, String... claimNames) {
+        int payloadStart = payloadStart(token);
+        return read(token, payloadStart, payloadEnd(token, payloadStart), claimNames);
+    }
+
+    /**
+     * Like {@link #read(CharSequence, String...)}, for the header of the token.
+     */
+    public static Map<String, Object> readHeader(CharSequence token, String... names) {
+        int payloadStart = payloadStart(token);
+        return read(token, 0, payloadStart - 1, names);
+    }
+
+    /**
+     * Reads every claim of the token, with arrays as {@link List}s and objects as {@link Map}s.
+     *
+     * @throws JwtProcessingException if the token or its payload is malformed
+     */
+    public static Map<String, Object> readAll(CharSequence token) {
+        int payloadStart = payloadStart(token);
+        int payloadEnd = payloadEnd(token, payloadStart);
+        byte[] buffer = buffer(payloadEnd - payloadStart);
+        int length = decode(token, payloadStart, payloadEnd, buffer);
+        try (JsonParser parser = JSON.createParser(buffer, 0, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JwtProcessingException("The token payload is not a JSON object.");
+            }
+            return readObject(parser);
+        } catch (IOException e) {
+            throw new JwtProcessingException("The token payload is not valid JSON.", e);
+        }
+    }
+
+    /**
+     * Reads the object the parser is at, with the streaming parser only, the data binding classes take longer to
+     * load than a verification takes.
+     */
+    private static Map<String, Object> readObject(JsonParser parser) throws IOException {
+        Map<String, Object> object = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            object.put(name, readValue(parser, parser.nextToken()));
+        }
+        return object;
+    }
+
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case START_OBJECT:
+                return readObject(parser);
+            case START_ARRAY:
+                List<Object> array = new ArrayList<>();
+                for (JsonToken element = parser.nextToken(); element != JsonToken.END_ARRAY;
+                     element = parser.nextToken()) {
+                    array.add(readValue(parser, element));
+                }
+                return array;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return parser.getBooleanValue();
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new JwtProcessingException("Unexpected " + token + " in the token payload.");
+        }
+    }
+
+    private static Map<String, Object> read(CharSequence token, int start, int end, String[] names) {
+        byte[] buffer = buffer(end - start);
+        int length = decode(token, start, end, buffer);
+        Map<String, Object> claims = new HashMap<>();
+        try (JsonParser parser = JSON.createParser(buffer, 0, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JwtProcessingException("The token payload is not a JSON object.");
+            }
+            while (claims.size() < names.length && parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!isRequested(name, names)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                switch (value) {
+                    case VALUE_STRING:
+                        claims.put(name, parser.getText());
+                        break;
+                    case VALUE_NUMBER_INT:
+                        claims.put(name, parser.getLongValue());
+                        break;
+                    case VALUE_NUMBER_FLOAT:
+                        claims.put(name, parser.getDoubleValue());
+                        break;
+                    case VALUE_TRUE:
+                    case VALUE_FALSE:
+                        claims.put(name, parser.getBooleanValue());
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            throw new JwtProcessingException("The token payload is not valid JSON.", e);
+        }
+        return claims;
+    }
+
+    private static int payloadStart(CharSequence token) {
+        if (token == null) {
+            throw new JwtProcessingException("No token to read claims from.");
+        }
+        int headerEnd = indexOf(token, '.', 0);
+        if (headerEnd < 0) {
+            throw new JwtProcessingException("The token is not a JWT.");
+        }
+        return headerEnd + 1;
+    }
+
+    private static int payloadEnd(CharSequence token, int payloadStart) {
+        int payloadEnd = indexOf(token, '.', payloadStart);
+        if (payloadEnd < 0) {
+            throw new JwtProcessingException("The token is not a JWT.");
+        }
+        return payloadEnd;
+    }
+
+    private static byte[] buffer(int encodedLength) {
+        byte[] buffer = BUFFER.get();
+        int maxLength = encodedLength * 3 / 4 + 3;
+        if (buffer.length < maxLength) {
+            buffer = new byte[maxLength];
+            if (maxLength <= MAX_RETAINED_BUFFER) {
+                BUFFER.set(buffer);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * @return the string claim, null when the token does not have it or it is not a string
+     */
+    public static String readString(CharSequence token, String claimName) {
+        Object value = read(token, claimName).get(claimName);
+        return value instanceof String ? (String) value : null;
+    }
+
+    private static boolean isRequested(String name, String[] claimNames) {
+        for (String claimName : claimNames) {
+            if (claimName.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOf(CharSequence value, char c, int from) {
+        for (int i = from; i < value.length(); i++) {
+            if (value.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes unpadded base64url, as used by JWTs, into the buffer.
+     *
+     * @return the number of bytes decoded
+     */
+    private static int decode(CharSequence value, int start, int end, byte[] out) {
+        int length = 0;
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            int sextet = c < 128 ? BASE64_URL[c] : -1;
+            if (sextet < 0) {
+                if (c == '=') {
+                    break;
+                }
+                throw new JwtProcessingException("The token payload is not base64url encoded.");
+            }
+            bits = bits << 6 | sextet;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                out[length++] = (byte) (bits >> bitCount);
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Verifies the RS256 signed tokens of one issuer with the JDK's {@link Signature}: the signature over the header and
+ * payload, the issuer, and that the current time is within the token's validity period. Tokens without an expiry
+ * are rejected. The issue and not before times are allowed a small leeway for clocks that are slightly ahead of
+ * ours. Verifiers hold no state besides their issuer and are shared by all requests.
+ */
+public class TokenVerifier {
+
+    /**
+     * How far the issue and not before times may be ahead of our clock by default.
+     */
+    public static final Duration DEFAULT_LEEWAY = Duration.ofSeconds(30);
+
+    private static final String RS256 = "RS256";
+
+    /**
+     * Signature instances are not thread safe, each thread keeps one rather than looking the provider up per token.
+     */
+    private static final ThreadLocal<Signature> SHA256_WITH_RSA = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("SHA256withRSA");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA256withRSA is not available", e);
+        }
+    });
+
+    private final String issuer;
+    private final Clock clock;
+    private final long leewayMillis;
+
+    public TokenVerifier(String issuer) {
+        this(issuer, Clock.systemUTC(), DEFAULT_LEEWAY);
+    }
+
+    public TokenVerifier(String issuer, Clock clock) {
+        this(issuer, clock, DEFAULT_LEEWAY);
+    }
+
+    /**
+     * @param leeway how far the issue and not before times of a token may be ahead of the clock
+     */
+    public TokenVerifier(String issuer, Clock clock, Duration leeway) {
+        this.issuer = issuer;
+        this.clock = clock;
+        this.leewayMillis = leeway.toMillis();
+    }
+
+    public String getIssuer() {
+        return issuer;
+    }
+
+    /**
+     * @param key the key the token names in its {@code kid} header
+     * @throws JwtProcessingException if the token is malformed, is not signed with the key, is from another issuer,
+     *                                has no expiry, has expired or is not valid yet
+     */
+    public VerifiedToken verify(String token, RSAPublicKey key) {
+        int headerEnd = token.indexOf('.');
+        int payloadEnd = headerEnd < 0 ? -1 : token.indexOf('.', headerEnd + 1);
+        if (payloadEnd < 0 || token.indexOf('.', payloadEnd + 1) >= 0) {
+            throw new JwtProcessingException("The token is not a JWT.");
+        }
+        if (!RS256.equals(JwtClaimsReader.readHeader(token, "alg").get("alg"))) {
+            throw new JwtProcessingException("The token is not signed with " + RS256 + ".");
+        }
+        if (!hasValidSignature(token, payloadEnd, key)) {
+            throw new JwtProcessingException("The token signature is not valid.");
+        }
+        Map<String, Object> claims = JwtClaimsReader.readAll(token);
+        if (!issuer.equals(claims.get("iss"))) {
+            throw new JwtProcessingException("The token was not issued by " + issuer + ".");
+        }
+        long now = clock.millis();
+        Object expiresAt = claims.get("exp");
+        if (!(expiresAt instanceof Number)) {
+            throw new JwtProcessingException("The token has no expiry.");
+        }
+        if (isAtOrBefore(expiresAt, now)) {
+            throw new JwtProcessingException("The token has expired.");
+        }
+        if (isAfter(claims.get("nbf"), now + leewayMillis) || isAfter(claims.get("iat"), now + leewayMillis)) {
+            throw new JwtProcessingException("The token is not valid yet.");
+        }
+        return new VerifiedToken(claims);
+    }
+
+    private static boolean hasValidSignature(String token, int payloadEnd, RSAPublicKey key) {
+        byte[] signature;
+        try {
+            signature = Base64.getUrlDecoder().decode(token.substring(payloadEnd + 1));
+        } catch (IllegalArgumentException e) {
+            throw new JwtProcessingException("The token signature is not base64url encoded.", e);
+        }
+        try {
+            Signature verifier = SHA256_WITH_RSA.get();
+            verifier.initVerify(key);
+            verifier.update(token.getBytes(StandardCharsets.US_ASCII), 0, payloadEnd);
+            return verifier.verify(signature);
+        } catch (GeneralSecurityException e) {
+            throw new JwtProcessingException("Unable to check the token signature.", e);
+        }
+    }
+
+    /**
+     * @param seconds a NumericDate claim, seconds since the epoch
+     */
+    private static boolean isAtOrBefore(Object seconds, long millis) {
+        return seconds instanceof Number && ((Number) seconds).longValue() * 1000 <= millis;
+    }
+
+    private static boolean isAfter(Object seconds, long millis) {
+        return seconds instanceof Number && ((Number) seconds).longValue() * 1000 > millis;
+    }
+}
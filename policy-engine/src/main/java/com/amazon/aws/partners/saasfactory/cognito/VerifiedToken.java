@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A token whose signature, issuer and validity period have been checked, with its claims as plain values: strings,
+ * numbers, booleans, lists and maps.
+ */
+public final class VerifiedToken {
+
+    private final Map<String, Object> claims;
+
+    VerifiedToken(Map<String, Object> claims) {
+        this.claims = Collections.unmodifiableMap(new LinkedHashMap<>(claims));
+    }
+
+    public String getIssuer() {
+        return getStringClaim("iss");
+    }
+
+    public String getSubject() {
+        return getStringClaim("sub");
+    }
+
+    /**
+     * @return the expiry of the token, null when it does not expire
+     */
+    public Instant getExpiresAt() {
+        Object exp = claims.get("exp");
+        return exp instanceof Number ? Instant.ofEpochSecond(((Number) exp).longValue()) : null;
+    }
+
+    /**
+     * @return the claim, null when the token does not have it
+     */
+    public Object getClaim(String name) {
+        return claims.get(name);
+    }
+
+    /**
+     * @return the claim, null when the token does not have it or it is not a string
+     */
+    public String getStringClaim(String name) {
+        Object value = claims.get(name);
+        return value instanceof String ? (String) value : null;
+    }
+
+    public Map<String, Object> getClaims() {
+        return claims;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tokens that passed verification, by the SHA-256 of the token, so that a client reusing its token for many
+ * requests has the signature checked once. An entry expires when its token does, or after {@code maxTtl} when that
+ * is sooner. Tokens without an expiry are not cached. The cache holds at most {@code maxEntries} tokens, dropping
+ * expired ones first when it is full.
+ */
+public class VerifiedTokenCache {
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long maxTtlMillis;
+    private final int maxEntries;
+    private final Clock clock;
+
+    public VerifiedTokenCache(VerifiedTokenCacheBuilder builder) {
+        this.maxTtlMillis = builder.maxTtl.toMillis();
+        this.maxEntries = builder.maxEntries;
+        this.clock = builder.clock;
+    }
+
+    public static VerifiedTokenCacheBuilder builder() {
+        return new VerifiedTokenCacheBuilder();
+    }
+
+    /**
+     * @return the verified token, or null when it is not cached or has expired
+     */
+    public VerifiedToken get(String tokenHash) {
+        Entry entry = entries.get(tokenHash);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAtMillis <= clock.millis()) {
+            entries.remove(tokenHash, entry);
+            return null;
+        }
+        return entry.token;
+    }
+
+    public void put(String tokenHash, VerifiedToken token) {
+        Instant expiresAt = token.getExpiresAt();
+        if (expiresAt == null) {
+            return;
+        }
+        long now = clock.millis();
+        long expiresAtMillis = Math.min(expiresAt.toEpochMilli(), now + maxTtlMillis);
+        if (expiresAtMillis <= now) {
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            evict(now);
+        }
+        entries.put(tokenHash, new Entry(token, expiresAtMillis));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private void evict(long now) {
+        entries.values().removeIf(entry -> entry.expiresAtMillis <= now);
+        Iterator<String> keys = entries.keySet().iterator();
+        while (entries.size() >= maxEntries && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private static final class Entry {
+        private final VerifiedToken token;
+        private final long expiresAtMillis;
+
+        private Entry(VerifiedToken token, long expiresAtMillis) {
+            this.token = token;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    public static final class VerifiedTokenCacheBuilder {
+        private Duration maxTtl = Duration.ofHours(1);
+        private int maxEntries = 10_000;
+        private Clock clock = Clock.systemUTC();
+
+        private VerifiedTokenCacheBuilder() {
+        }
+
+        /**
+         * Upper bound for how long a token stays cached, however far off its expiry is.
+         */
+        public VerifiedTokenCacheBuilder maxTtl(Duration maxTtl) {
+            this.maxTtl = maxTtl;
+            return this;
+        }
+
+        public VerifiedTokenCacheBuilder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public VerifiedTokenCacheBuilder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public VerifiedTokenCache build() {
+            return new VerifiedTokenCache(this);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.concurrent;
+
+import java.time.Duration;
+
+/**
+ * Point in time by which a vend has to complete, for example the end of the Lambda invocation as given by
+ * {@code Context.getRemainingTimeInMillis()}. Based on {@link System#nanoTime()}, so it is not affected by clock
+ * adjustments.
+ */
+public final class Deadline {
+
+    private static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    private final long deadlineNanos;
+
+    private Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @return a deadline that never passes
+     */
+    public static Deadline none() {
+        return NONE;
+    }
+
+    public static Deadline after(Duration duration) {
+        return afterMillis(duration.toMillis());
+    }
+
+    public static Deadline afterMillis(long millis) {
+        return new Deadline(System.nanoTime() + Math.max(0, millis) * 1_000_000);
+    }
+
+    public boolean isBounded() {
+        return this != NONE;
+    }
+
+    /**
+     * @return the milliseconds left, 0 once the deadline has passed and {@link Long#MAX_VALUE} when it is unbounded
+     */
+    public long remainingMillis() {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, (deadlineNanos - System.nanoTime()) / 1_000_000);
+    }
+
+    public boolean isExpired() {
+        return remainingMillis() == 0;
+    }
+
+    /**
+     * @return a deadline the given time before this one, keeping that time in reserve for the caller
+     */
+    public Deadline minus(Duration reserve) {
+        if (!isBounded()) {
+            return this;
+        }
+        return new Deadline(deadlineNanos - reserve.toNanos());
+    }
+
+    @Override
+    public String toString() {
+        return isBounded() ? "Deadline{remainingMillis=" + remainingMillis() + "}" : "Deadline{none}";
+    }
+}
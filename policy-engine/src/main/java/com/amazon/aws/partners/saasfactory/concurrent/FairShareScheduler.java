@@ -0,0 +1,349 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.concurrent;
+
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import com.amazon.aws.partners.saasfactory.exception.PolicyAssumptionException;
+import com.amazon.aws.partners.saasfactory.exception.StsThrottledException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Shares a fixed number of concurrent calls, for example to STS, fairly between tenants. Every tenant has its own
+ * queue and the queues are served by deficit round robin: on its turn a tenant may start as many calls as its tier
+ * weight, so a tenant bursting thousands of requests waits behind its own queue instead of starving everyone else.
+ * A tenant is also capped in the number of calls it has in flight, and in the number it may have waiting.
+ * <p>
+ * Calls run on the caller's thread once they are granted a slot. Queues are lock-free, tenants are kept in a
+ * {@link ConcurrentHashMap}, and the round robin itself is run by whichever thread submits or completes a call while no
+ * other thread is running it, so callers never block on the scheduler's own state.
+ */
+public class FairShareScheduler {
+
+    private static final String DEFAULT_TIER = "default";
+
+    private final ConcurrentMap<String, TenantQueue> tenants = new ConcurrentHashMap<>();
+    private final Queue<TenantQueue> roundRobin = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+    private final AtomicInteger availableSlots;
+    private final Function<String, String> tierResolver;
+    private final Map<String, Integer> tierWeights;
+    private final Map<String, Integer> tierConcurrency;
+    private final int maxConcurrencyPerTenant;
+    private final int maxQueuedPerTenant;
+    private final long maxWaitMillis;
+
+    public FairShareScheduler(FairShareSchedulerBuilder builder) {
+        this.availableSlots = new AtomicInteger(builder.maxConcurrency);
+        this.tierResolver = builder.tierResolver;
+        this.tierWeights = new HashMap<>(builder.tierWeights);
+        this.tierConcurrency = new HashMap<>(builder.tierConcurrency);
+        this.maxConcurrencyPerTenant = builder.maxConcurrencyPerTenant;
+        this.maxQueuedPerTenant = builder.maxQueuedPerTenant;
+        this.maxWaitMillis = builder.maxWaitMillis;
+    }
+
+    public static FairShareSchedulerBuilder builder() {
+        return new FairShareSchedulerBuilder();
+    }
+
+    /**
+     * Runs the call on this thread once the tenant's turn comes.
+     *
+     * @throws StsThrottledException if the tenant's queue is full or no slot was granted within the maximum wait
+     */
+    public <T> T execute(String tenant, Supplier<T> call) {
+        return execute(tenant, call, Deadline.none());
+    }
+
+    /**
+     * Runs the call on this thread once the tenant's turn comes, waiting for it no longer than the deadline allows.
+     *
+     * @throws StsThrottledException if the tenant's queue is full or no slot was granted within the maximum wait
+     * @throws DeadlineExceededException if the deadline passed before a slot was granted
+     */
+    public <T> T execute(String tenant, Supplier<T> call, Deadline deadline) {
+        Ticket ticket = new Ticket();
+        TenantQueue queue = enqueue(tenant == null ? "" : tenant, ticket);
+        dispatch();
+        awaitGrant(queue, ticket, deadline);
+        try {
+            return call.get();
+        } finally {
+            release(queue);
+        }
+    }
+
+    public int availableSlots() {
+        return availableSlots.get();
+    }
+
+    /**
+     * @return the number of calls the tenant has waiting for a slot
+     */
+    public int queued(String tenant) {
+        TenantQueue queue = tenants.get(tenant);
+        return queue == null ? 0 : queue.queued.get();
+    }
+
+    /**
+     * @return the number of calls the tenant has running
+     */
+    public int inFlight(String tenant) {
+        TenantQueue queue = tenants.get(tenant);
+        return queue == null ? 0 : queue.inFlight.get();
+    }
+
+    private TenantQueue enqueue(String tenant, Ticket ticket) {
+        boolean[] accepted = {false};
+        TenantQueue queue = tenants.compute(tenant, (key, existing) -> {
+            TenantQueue tenantQueue = existing != null ? existing : newQueue(key);
+            if (tenantQueue.queued.get() < maxQueuedPerTenant) {
+                tenantQueue.queued.incrementAndGet();
+                tenantQueue.tickets.offer(ticket);
+                accepted[0] = true;
+            }
+            return tenantQueue;
+        });
+        if (!accepted[0]) {
+            throw new StsThrottledException("Too many requests queued for tenant " + tenant + ".");
+        }
+        schedule(queue);
+        return queue;
+    }
+
+    private TenantQueue newQueue(String tenant) {
+        String tier = tierResolver.apply(tenant);
+        if (tier == null) {
+            tier = DEFAULT_TIER;
+        }
+        return new TenantQueue(tenant,
+                Math.max(1, tierWeights.getOrDefault(tier, 1)),
+                Math.max(1, tierConcurrency.getOrDefault(tier, maxConcurrencyPerTenant)));
+    }
+
+    private void awaitGrant(TenantQueue queue, Ticket ticket, Deadline deadline) {
+        long remainingMillis = deadline.remainingMillis();
+        try {
+            ticket.granted.get(Math.min(maxWaitMillis, remainingMillis), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (ticket.state.compareAndSet(Ticket.WAITING, Ticket.CANCELLED)) {
+                if (remainingMillis < maxWaitMillis) {
+                    throw new DeadlineExceededException("Deadline passed waiting for a slot for tenant "
+                            + queue.tenant + ".", e);
+                }
+                throw new StsThrottledException("Timed out waiting for a slot for tenant " + queue.tenant + ".", e);
+            }
+            // granted while timing out, the slot is ours
+        } catch (InterruptedException e) {
+            if (ticket.state.compareAndSet(Ticket.WAITING, Ticket.CANCELLED)) {
+                Thread.currentThread().interrupt();
+                throw new PolicyAssumptionException("Interrupted waiting for a slot.", e);
+            }
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Slot grants never fail.", e);
+        }
+    }
+
+    private void release(TenantQueue queue) {
+        queue.inFlight.decrementAndGet();
+        availableSlots.incrementAndGet();
+        if (queue.queued.get() > 0) {
+            schedule(queue);
+        } else {
+            tenants.computeIfPresent(queue.tenant, (key, existing) -> existing.isIdle() ? null : existing);
+        }
+        dispatch();
+    }
+
+    private void schedule(TenantQueue queue) {
+        if (queue.scheduled.compareAndSet(false, true)) {
+            roundRobin.offer(queue);
+        }
+    }
+
+    /**
+     * Deficit round robin over the tenants with waiting calls. Only one thread dispatches at a time, the others leave
+     * their work to it and the loop re-checks for work that arrived while it was finishing.
+     */
+    private void dispatch() {
+        do {
+            if (!dispatching.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                TenantQueue queue;
+                while (availableSlots.get() > 0 && (queue = roundRobin.poll()) != null) {
+                    serve(queue);
+                }
+            } finally {
+                dispatching.set(false);
+            }
+        } while (availableSlots.get() > 0 && !roundRobin.isEmpty());
+    }
+
+    private void serve(TenantQueue queue) {
+        if (queue.inFlight.get() < queue.maxConcurrency) {
+            queue.deficit += queue.weight;
+        }
+        while (queue.deficit >= 1 && availableSlots.get() > 0 && queue.inFlight.get() < queue.maxConcurrency) {
+            Ticket ticket = queue.tickets.poll();
+            if (ticket == null) {
+                break;
+            }
+            queue.queued.decrementAndGet();
+            if (!ticket.state.compareAndSet(Ticket.WAITING, Ticket.GRANTED)) {
+                continue;
+            }
+            availableSlots.decrementAndGet();
+            queue.inFlight.incrementAndGet();
+            queue.deficit -= 1;
+            ticket.granted.complete(null);
+        }
+
+        if (queue.tickets.isEmpty()) {
+            queue.deficit = 0;
+            queue.scheduled.set(false);
+            if (!queue.tickets.isEmpty()) {
+                schedule(queue);
+            } else {
+                tenants.computeIfPresent(queue.tenant, (key, existing) -> existing.isIdle() ? null : existing);
+            }
+        } else if (queue.inFlight.get() >= queue.maxConcurrency) {
+            // parked until one of its own calls completes
+            queue.scheduled.set(false);
+            if (queue.inFlight.get() < queue.maxConcurrency) {
+                schedule(queue);
+            }
+        } else {
+            roundRobin.offer(queue);
+        }
+    }
+
+    private static final class Ticket {
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int CANCELLED = 2;
+
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private final CompletableFuture<Void> granted = new CompletableFuture<>();
+    }
+
+    private static final class TenantQueue {
+        private final String tenant;
+        private final int weight;
+        private final int maxConcurrency;
+        private final Queue<Ticket> tickets = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // only touched by the dispatching thread
+        private int deficit;
+
+        private TenantQueue(String tenant, int weight, int maxConcurrency) {
+            this.tenant = tenant;
+            this.weight = weight;
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        private boolean isIdle() {
+            return queued.get() == 0 && inFlight.get() == 0 && !scheduled.get();
+        }
+    }
+
+    public static final class FairShareSchedulerBuilder {
+        private int maxConcurrency = 16;
+        private int maxConcurrencyPerTenant = 4;
+        private int maxQueuedPerTenant = 1_000;
+        private long maxWaitMillis = 10_000;
+        private Function<String, String> tierResolver = tenant -> DEFAULT_TIER;
+        private final Map<String, Integer> tierWeights = new HashMap<>();
+        private final Map<String, Integer> tierConcurrency = new HashMap<>();
+
+        private FairShareSchedulerBuilder() {
+        }
+
+        /**
+         * Calls running at the same time across all tenants.
+         */
+        public FairShareSchedulerBuilder maxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * Calls a tenant may have running at the same time, unless its tier sets its own cap.
+         */
+        public FairShareSchedulerBuilder maxConcurrencyPerTenant(int maxConcurrencyPerTenant) {
+            this.maxConcurrencyPerTenant = maxConcurrencyPerTenant;
+            return this;
+        }
+
+        /**
+         * Calls a tenant may have waiting, further calls are rejected straight away.
+         */
+        public FairShareSchedulerBuilder maxQueuedPerTenant(int maxQueuedPerTenant) {
+            this.maxQueuedPerTenant = maxQueuedPerTenant;
+            return this;
+        }
+
+        public FairShareSchedulerBuilder maxWaitMillis(long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        /**
+         * Maps a tenant to its tier, tenants are in the default tier otherwise. Called once per active tenant.
+         */
+        public FairShareSchedulerBuilder tierResolver(Function<String, String> tierResolver) {
+            this.tierResolver = tierResolver;
+            return this;
+        }
+
+        /**
+         * Calls a tenant of the tier may start per round, relative to the default tier's 1.
+         */
+        public FairShareSchedulerBuilder tierWeight(String tier, int weight) {
+            this.tierWeights.put(tier, weight);
+            return this;
+        }
+
+        public FairShareSchedulerBuilder tierConcurrency(String tier, int maxConcurrency) {
+            this.tierConcurrency.put(tier, maxConcurrency);
+            return this;
+        }
+
+        public FairShareScheduler build() {
+            return new FairShareScheduler(this);
+        }
+    }
+}
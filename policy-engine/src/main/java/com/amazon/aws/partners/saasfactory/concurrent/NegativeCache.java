@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.concurrent;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers recent failures for a short time, so that a request that is bound to fail again is rejected without
+ * repeating the work that failed. Entries expire after the configured time to live and the cache holds at most
+ * {@code maxEntries} of them, dropping expired entries first when it is full.
+ */
+public class NegativeCache<K, V> {
+
+    private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final Clock clock;
+
+    public NegativeCache(NegativeCacheBuilder builder) {
+        this.ttlMillis = builder.ttl.toMillis();
+        this.maxEntries = builder.maxEntries;
+        this.clock = builder.clock;
+    }
+
+    public static NegativeCacheBuilder builder() {
+        return new NegativeCacheBuilder();
+    }
+
+    /**
+     * @return the failure recorded for the key, or null when there is none or it has expired
+     */
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAtMillis <= clock.millis()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.failure;
+    }
+
+    public void put(K key, V failure) {
+        if (entries.size() >= maxEntries) {
+            evict();
+        }
+        entries.put(key, new Entry<>(failure, clock.millis() + ttlMillis));
+    }
+
+    public void remove(K key) {
+        entries.remove(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void evict() {
+        long now = clock.millis();
+        entries.values().removeIf(entry -> entry.expiresAtMillis <= now);
+        Iterator<K> keys = entries.keySet().iterator();
+        while (entries.size() >= maxEntries && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V failure;
+        private final long expiresAtMillis;
+
+        private Entry(V failure, long expiresAtMillis) {
+            this.failure = failure;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    public static final class NegativeCacheBuilder {
+        private Duration ttl = Duration.ofSeconds(30);
+        private int maxEntries = 10_000;
+        private Clock clock = Clock.systemUTC();
+
+        private NegativeCacheBuilder() {
+        }
+
+        public NegativeCacheBuilder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        public NegativeCacheBuilder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public NegativeCacheBuilder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public <K, V> NegativeCache<K, V> build() {
+            return new NegativeCache<>(this);
+        }
+    }
+}
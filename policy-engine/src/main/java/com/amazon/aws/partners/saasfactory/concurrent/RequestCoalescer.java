@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.concurrent;
+
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import com.amazon.aws.partners.saasfactory.exception.PolicyAssumptionException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight execution of expensive calls. The first caller for a key runs the loader on its own thread, every
+ * concurrent caller for the same key waits (up to a bounded time, and never past its own {@link Deadline}) for that
+ * result or error instead of issuing its own call. When the first caller's call fails because its own deadline
+ * passed, a waiting caller with time left makes the call itself rather than failing with that caller's timeout.
+ *
+ * @param <K> the key identifying equivalent calls
+ * @param <V> the result of the call
+ */
+public class RequestCoalescer<K, V> {
+
+    private final ConcurrentMap<K, InFlight<V>> inFlight = new ConcurrentHashMap<>();
+    private final long maxWaitMillis;
+
+    public RequestCoalescer(RequestCoalescerBuilder builder) {
+        this.maxWaitMillis = builder.maxWaitMillis;
+    }
+
+    public static RequestCoalescerBuilder builder() {
+        return new RequestCoalescerBuilder();
+    }
+
+    public V execute(K key, Supplier<V> loader) {
+        return execute(key, loader, Deadline.none());
+    }
+
+    /**
+     * @throws DeadlineExceededException if the deadline passes while waiting for another caller's call
+     */
+    public V execute(K key, Supplier<V> loader, Deadline deadline) {
+        while (true) {
+            InFlight<V> leader = new InFlight<>(deadline);
+            InFlight<V> existing = inFlight.putIfAbsent(key, leader);
+            if (existing == null) {
+                return lead(key, leader, loader);
+            }
+            try {
+                return await(existing.result, deadline);
+            } catch (RuntimeException e) {
+                if (!existing.result.isCompletedExceptionally() || !existing.deadline.isExpired()
+                        || deadline.isExpired()) {
+                    throw e;
+                }
+                // the leader ran out of its own time, this caller still has some and takes over
+                inFlight.remove(key, existing);
+            }
+        }
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private V lead(K key, InFlight<V> leader, Supplier<V> loader) {
+        try {
+            V value = loader.get();
+            leader.result.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            leader.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, leader);
+        }
+    }
+
+    private V await(CompletableFuture<V> leader, Deadline deadline) {
+        long remainingMillis = deadline.remainingMillis();
+        try {
+            return leader.get(Math.min(maxWaitMillis, remainingMillis), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (remainingMillis < maxWaitMillis) {
+                throw new DeadlineExceededException("Deadline passed waiting for an in-flight request.", e);
+            }
+            throw new PolicyAssumptionException("Timed out waiting for an in-flight request.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PolicyAssumptionException("Interrupted waiting for an in-flight request.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new PolicyAssumptionException("In-flight request failed.", cause);
+        }
+    }
+
+    /**
+     * The call of the first caller for a key, with the deadline it was made under.
+     */
+    private static final class InFlight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private final Deadline deadline;
+
+        private InFlight(Deadline deadline) {
+            this.deadline = deadline;
+        }
+    }
+
+    public static final class RequestCoalescerBuilder {
+        private long maxWaitMillis = 10_000;
+
+        private RequestCoalescerBuilder() {
+        }
+
+        public RequestCoalescerBuilder maxWaitMillis(long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        public <K, V> RequestCoalescer<K, V> build() {
+            return new RequestCoalescer<>(this);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for the blocking STS, Cognito and JWKS calls made while vending. On Java 8 to 20 these are cached pools
+ * of daemon platform threads. The multi-release jar replaces this class on Java 21 and later with a variant that
+ * runs every task on its own virtual thread.
+ * <p>
+ * A single vend stays on the thread that asked for it, which waits for the result either way. These executors run the
+ * work a vend fans out, such as the identity pool calls, JWKS fetches and hedged STS attempts, and every vend of a
+ * bulk stream.
+ */
+public final class VendingExecutors {
+
+    private VendingExecutors() {
+    }
+
+    /**
+     * @param name prefix for the names of the threads created by the executor
+     * @return an unbounded executor, callers bound their own concurrency
+     */
+    public static ExecutorService newVendingExecutor(String name) {
+        return Executors.newCachedThreadPool(daemonThreadFactory(name));
+    }
+
+    /**
+     * @param name          prefix for the names of the threads created by the executor
+     * @param threads       tasks running at the same time
+     * @param queueCapacity tasks waiting for a thread, further tasks are rejected
+     * @return an executor that rejects work with a {@link java.util.concurrent.RejectedExecutionException} once full
+     */
+    public static ThreadPoolExecutor newBoundedVendingExecutor(String name, int threads, int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), daemonThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static boolean usesVirtualThreads() {
+        return false;
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
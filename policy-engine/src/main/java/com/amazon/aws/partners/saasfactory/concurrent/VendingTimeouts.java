@@ -0,0 +1,122 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.concurrent;
+
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Timeouts for the remote calls made while vending. Every phase has an optional timeout of its own and the time it is
+ * expected to need at least. A phase is only started when the time left before the {@link Deadline} covers that
+ * expected latency, and its timeout never extends past the deadline, so a vend that cannot finish in time fails fast
+ * instead of running the Lambda into its own timeout.
+ */
+public class VendingTimeouts {
+
+    public enum Phase {
+        JWKS,
+        COGNITO,
+        STS
+    }
+
+    private static final VendingTimeouts DEFAULTS = VendingTimeouts.builder().build();
+
+    private final Map<Phase, Duration> timeouts;
+    private final Map<Phase, Duration> expectedLatencies;
+
+    public VendingTimeouts(VendingTimeoutsBuilder builder) {
+        this.timeouts = new EnumMap<>(builder.timeouts);
+        this.expectedLatencies = new EnumMap<>(builder.expectedLatencies);
+    }
+
+    public static VendingTimeouts defaults() {
+        return DEFAULTS;
+    }
+
+    public static VendingTimeoutsBuilder builder() {
+        return new VendingTimeoutsBuilder();
+    }
+
+    /**
+     * @return the timeout for the phase, or null when neither the phase nor the deadline limits it
+     * @throws DeadlineExceededException if the time left cannot cover the phase's expected latency
+     */
+    public Duration timeoutFor(Phase phase, Deadline deadline) {
+        Duration timeout = timeouts.get(phase);
+        if (!deadline.isBounded()) {
+            return timeout;
+        }
+        long remaining = deadline.remainingMillis();
+        Duration expected = expectedLatencies.getOrDefault(phase, Duration.ZERO);
+        if (remaining <= 0 || remaining < expected.toMillis()) {
+            throw new DeadlineExceededException("Not enough time left for " + phase + ": " + remaining
+                    + " ms remaining, " + expected.toMillis() + " ms expected.");
+        }
+        Duration left = Duration.ofMillis(remaining);
+        return timeout == null || left.compareTo(timeout) < 0 ? left : timeout;
+    }
+
+    /**
+     * Request override for an AWS SDK call of the phase. The timeout is worked out when the request is built, so every
+     * call, and every attempt of a hedged or retried call, gets the time that is left at that point.
+     */
+    public Consumer<AwsRequestOverrideConfiguration.Builder> overrideFor(Phase phase, Deadline deadline) {
+        return config -> {
+            Duration timeout = timeoutFor(phase, deadline);
+            if (timeout != null) {
+                config.apiCallTimeout(timeout);
+            }
+        };
+    }
+
+    public static final class VendingTimeoutsBuilder {
+        private final Map<Phase, Duration> timeouts = new EnumMap<>(Phase.class);
+        private final Map<Phase, Duration> expectedLatencies = new EnumMap<>(Phase.class);
+
+        private VendingTimeoutsBuilder() {
+            expectedLatencies.put(Phase.JWKS, Duration.ofMillis(100));
+            expectedLatencies.put(Phase.COGNITO, Duration.ofMillis(100));
+            expectedLatencies.put(Phase.STS, Duration.ofMillis(200));
+        }
+
+        /**
+         * Longest a single call of the phase may take, retries included.
+         */
+        public VendingTimeoutsBuilder timeout(Phase phase, Duration timeout) {
+            this.timeouts.put(phase, timeout);
+            return this;
+        }
+
+        /**
+         * Time the phase needs at least, it is not started with less time left.
+         */
+        public VendingTimeoutsBuilder expectedLatency(Phase phase, Duration expectedLatency) {
+            this.expectedLatencies.put(phase, expectedLatency);
+            return this;
+        }
+
+        public VendingTimeouts build() {
+            return new VendingTimeouts(this);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.credentials;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Picks the session duration from the tenant's recent request rate. Busy tenants get sessions up to the role's
+ * maximum, so their cached credentials are refreshed from STS less often, while tenants that only make the odd request
+ * get the 15 minute minimum and do not hold credentials longer than they need.
+ * <p>
+ * The rate is an exponentially decaying count of requests per role and tenant, so a tenant that goes quiet drops back
+ * to short sessions after a few half lives. Below a hundredth of {@code busyRate} a tenant counts as idle, so the
+ * residue of a request long ago does not stretch its session. Above that the duration grows linearly with the rate
+ * until {@code busyRate} is reached. Roles are assumed with role chaining from the Lambda's own role, which STS caps at one hour, so that is the
+ * default maximum.
+ */
+public class AdaptiveDurationPolicy implements DurationPolicy {
+
+    private static final double LN_2 = Math.log(2);
+
+    private final ConcurrentMap<CredentialsKey, Usage> usage = new ConcurrentHashMap<>();
+    private final int minDurationSeconds;
+    private final int defaultMaxDurationSeconds;
+    private final Map<String, Integer> maxDurationSeconds;
+    private final double busyRatePerMinute;
+    private final long halfLifeMillis;
+    private final int maxTenants;
+    private final Clock clock;
+
+    public AdaptiveDurationPolicy(AdaptiveDurationPolicyBuilder builder) {
+        this.minDurationSeconds = builder.minDurationSeconds;
+        this.defaultMaxDurationSeconds = builder.defaultMaxDurationSeconds;
+        this.maxDurationSeconds = new HashMap<>(builder.maxDurationSeconds);
+        this.busyRatePerMinute = builder.busyRatePerMinute;
+        this.halfLifeMillis = builder.halfLife.toMillis();
+        this.maxTenants = builder.maxTenants;
+        this.clock = builder.clock;
+    }
+
+    public static AdaptiveDurationPolicyBuilder builder() {
+        return new AdaptiveDurationPolicyBuilder();
+    }
+
+    @Override
+    public int durationSeconds(String role, String tenant) {
+        CredentialsKey key = new CredentialsKey(role, tenant, null);
+        Usage tenantUsage = usage.get(key);
+        if (tenantUsage == null) {
+            if (usage.size() >= maxTenants) {
+                evict();
+            }
+            tenantUsage = usage.computeIfAbsent(key, ignored -> new Usage());
+        }
+        return durationSeconds(role, tenantUsage.record(clock.millis()));
+    }
+
+    @Override
+    public int currentDurationSeconds(String role, String tenant) {
+        return durationSeconds(role, requestRate(role, tenant));
+    }
+
+    private int durationSeconds(String role, double rate) {
+        int max = Math.max(minDurationSeconds, maxDurationSeconds.getOrDefault(role, defaultMaxDurationSeconds));
+        double busyness = rate < idleRatePerMinute() ? 0 : Math.min(1.0, rate / busyRatePerMinute);
+        return (int) Math.round(minDurationSeconds + busyness * (max - minDurationSeconds));
+    }
+
+    /**
+     * @return the current request rate of the tenant for the role, in requests per minute
+     */
+    public double requestRate(String role, String tenant) {
+        Usage tenantUsage = usage.get(new CredentialsKey(role, tenant, null));
+        return tenantUsage == null ? 0 : tenantUsage.rate(clock.millis());
+    }
+
+    private double idleRatePerMinute() {
+        return busyRatePerMinute / 100;
+    }
+
+    private void evict() {
+        long now = clock.millis();
+        usage.values().removeIf(tenantUsage -> tenantUsage.rate(now) < idleRatePerMinute());
+        Iterator<CredentialsKey> iterator = usage.keySet().iterator();
+        while (usage.size() >= maxTenants && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private final class Usage {
+        private double score;
+        private long lastMillis = -1;
+
+        /**
+         * @return the request rate per minute before this request, so a tenant's first request counts as idle
+         */
+        synchronized double record(long now) {
+            double previous = decayed(now);
+            score = previous + 1;
+            lastMillis = now;
+            return perMinute(previous);
+        }
+
+        synchronized double rate(long now) {
+            return perMinute(decayed(now));
+        }
+
+        private double decayed(long now) {
+            if (lastMillis < 0) {
+                return 0;
+            }
+            return score * Math.pow(2, -(double) Math.max(0, now - lastMillis) / halfLifeMillis);
+        }
+
+        private double perMinute(double decayedScore) {
+            // a steady rate r per millisecond settles at a score of r * halfLife / ln 2
+            return decayedScore * LN_2 / halfLifeMillis * 60_000;
+        }
+    }
+
+    public static final class AdaptiveDurationPolicyBuilder {
+        private int minDurationSeconds = MIN_DURATION_SECONDS;
+        private int defaultMaxDurationSeconds = 3600;
+        private final Map<String, Integer> maxDurationSeconds = new HashMap<>();
+        private double busyRatePerMinute = 1.0;
+        private Duration halfLife = Duration.ofMinutes(10);
+        private int maxTenants = 10_000;
+        private Clock clock = Clock.systemUTC();
+
+        private AdaptiveDurationPolicyBuilder() {
+        }
+
+        public AdaptiveDurationPolicyBuilder minDuration(Duration minDuration) {
+            this.minDurationSeconds = Math.max(MIN_DURATION_SECONDS, (int) minDuration.getSeconds());
+            return this;
+        }
+
+        /**
+         * Longest session for roles without their own maximum, one hour unless the roles are assumed without role
+         * chaining and allow more.
+         */
+        public AdaptiveDurationPolicyBuilder defaultMaxDuration(Duration maxDuration) {
+            this.defaultMaxDurationSeconds = (int) maxDuration.getSeconds();
+            return this;
+        }
+
+        /**
+         * Longest session for the role, which must not exceed the role's maximum session duration.
+         */
+        public AdaptiveDurationPolicyBuilder maxDuration(String role, Duration maxDuration) {
+            this.maxDurationSeconds.put(role, (int) maxDuration.getSeconds());
+            return this;
+        }
+
+        /**
+         * Request rate at and above which a tenant gets the maximum duration.
+         */
+        public AdaptiveDurationPolicyBuilder busyRatePerMinute(double busyRatePerMinute) {
+            this.busyRatePerMinute = busyRatePerMinute;
+            return this;
+        }
+
+        /**
+         * How quickly past requests stop counting towards the rate.
+         */
+        public AdaptiveDurationPolicyBuilder halfLife(Duration halfLife) {
+            this.halfLife = halfLife;
+            return this;
+        }
+
+        public AdaptiveDurationPolicyBuilder maxTenants(int maxTenants) {
+            this.maxTenants = maxTenants;
+            return this;
+        }
+
+        public AdaptiveDurationPolicyBuilder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public AdaptiveDurationPolicy build() {
+            return new AdaptiveDurationPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.credentials;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory cache of vended credentials. Entries are served until they are within the refresh skew of their
+ * expiration, after which the next request goes back to STS. An optional {@link CredentialsStore} acts as a second
+ * level: misses are looked up there and promoted, and new entries are written through to it.
+ */
+public class CredentialsCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialsCache.class);
+
+    private final ConcurrentMap<CredentialsKey, Credentials> entries = new ConcurrentHashMap<>();
+    private final Duration refreshSkew;
+    private final int maxEntries;
+    private final Clock clock;
+    private final CredentialsStore secondLevel;
+
+    public CredentialsCache(CredentialsCacheBuilder builder) {
+        this.refreshSkew = builder.refreshSkew;
+        this.maxEntries = builder.maxEntries;
+        this.clock = builder.clock;
+        this.secondLevel = builder.secondLevel;
+    }
+
+    public static CredentialsCacheBuilder builder() {
+        return new CredentialsCacheBuilder();
+    }
+
+    /**
+     * @return the cached credentials if they are not yet due for refresh, otherwise null
+     */
+    public Credentials get(CredentialsKey key) {
+        return get(key, Duration.ZERO);
+    }
+
+    /**
+     * @param ahead how much earlier than the refresh skew the credentials are already due for refresh
+     * @return the cached credentials if they are not due for refresh within the given time, otherwise null
+     */
+    public Credentials get(CredentialsKey key, Duration ahead) {
+        Duration skew = refreshSkew.plus(ahead);
+        Credentials credentials = entries.get(key);
+        if (credentials == null) {
+            credentials = fromSecondLevel(key);
+            if (credentials == null || isExpired(credentials, skew)) {
+                return null;
+            }
+            putLocal(key, credentials);
+            return credentials;
+        }
+        if (isExpired(credentials, skew)) {
+            if (isExpired(credentials, Duration.ZERO)) {
+                entries.remove(key, credentials);
+            }
+            return null;
+        }
+        return credentials;
+    }
+
+    /**
+     * @return the cached credentials as long as they have not expired, even if they are due for refresh
+     */
+    public Credentials getIfValid(CredentialsKey key) {
+        Credentials credentials = entries.get(key);
+        if (credentials == null) {
+            credentials = fromSecondLevel(key);
+        }
+        if (credentials == null || isExpired(credentials, Duration.ZERO)) {
+            return null;
+        }
+        return credentials;
+    }
+
+    public void put(CredentialsKey key, Credentials credentials) {
+        if (credentials == null || isExpired(credentials, refreshSkew)) {
+            return;
+        }
+        putLocal(key, credentials);
+        if (secondLevel != null) {
+            try {
+                secondLevel.put(key, credentials);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Unable to write credentials for {} to the second level store", key, e);
+            }
+        }
+    }
+
+    public void invalidate(CredentialsKey key) {
+        entries.remove(key);
+        if (secondLevel != null) {
+            try {
+                secondLevel.remove(key);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Unable to remove credentials for {} from the second level store", key, e);
+            }
+        }
+    }
+
+    /**
+     * Drops every entry of the tenant, from this cache and from the second level store.
+     */
+    public void invalidateTenant(String tenant) {
+        entries.keySet().removeIf(key -> Objects.equals(tenant, key.getTenant()));
+        if (secondLevel != null) {
+            try {
+                secondLevel.removeTenant(tenant);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Unable to remove the credentials of tenant {} from the second level store", tenant, e);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void putLocal(CredentialsKey key, Credentials credentials) {
+        if (entries.size() >= maxEntries) {
+            evict();
+        }
+        entries.put(key, credentials);
+    }
+
+    private Credentials fromSecondLevel(CredentialsKey key) {
+        if (secondLevel == null) {
+            return null;
+        }
+        try {
+            return secondLevel.get(key);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to read credentials for {} from the second level store", key, e);
+            return null;
+        }
+    }
+
+    private void evict() {
+        entries.values().removeIf(credentials -> isExpired(credentials, refreshSkew));
+        Iterator<Map.Entry<CredentialsKey, Credentials>> iterator = entries.entrySet().iterator();
+        while (entries.size() >= maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private boolean isExpired(Credentials credentials, Duration skew) {
+        Instant expiration = credentials.expiration();
+        return expiration == null || !clock.instant().plus(skew).isBefore(expiration);
+    }
+
+    public static final class CredentialsCacheBuilder {
+        private Duration refreshSkew = Duration.ofMinutes(5);
+        private int maxEntries = 10_000;
+        private Clock clock = Clock.systemUTC();
+        private CredentialsStore secondLevel;
+
+        private CredentialsCacheBuilder() {
+        }
+
+        /**
+         * How long before expiration cached credentials stop being served and are refreshed from STS.
+         */
+        public CredentialsCacheBuilder refreshSkew(Duration refreshSkew) {
+            this.refreshSkew = refreshSkew;
+            return this;
+        }
+
+        public CredentialsCacheBuilder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public CredentialsCacheBuilder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Store consulted on in-memory misses and written through on every put, for example an
+         * {@link EncryptedFileCredentialsStore} shared by the processes of a host.
+         */
+        public CredentialsCacheBuilder secondLevel(CredentialsStore secondLevel) {
+            this.secondLevel = secondLevel;
+            return this;
+        }
+
+        public CredentialsCache build() {
+            return new CredentialsCache(this);
+        }
+    }
+}
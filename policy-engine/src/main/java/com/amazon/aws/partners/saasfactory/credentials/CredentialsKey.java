@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.credentials;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+
+/**
+ * Identifies a set of vended credentials. Two requests with the same role, tenant and scoped policy are served by
+ * equivalent credentials, so they can share a single STS call. The generation of the tenant is part of the key, so
+ * credentials vended before the tenant was invalidated are no longer found. Credentials assumed with a web identity
+ * belong to that identity, policies and CloudTrail can tell its users apart, so the identity is part of their key.
+ */
+public final class CredentialsKey {
+
+    private final String role;
+    private final String tenant;
+    private final String policy;
+    private final long generation;
+    private final String identity;
+
+    public CredentialsKey(String role, String tenant, String policy) {
+        this(role, tenant, policy, 0);
+    }
+
+    /**
+     * @param generation the generation of the tenant when the credentials are vended, see
+     *                   {@link com.amazon.aws.partners.saasfactory.policy.PolicyGenerations}
+     */
+    public CredentialsKey(String role, String tenant, String policy, long generation) {
+        this(role, tenant, policy, generation, null);
+    }
+
+    /**
+     * @param identity the web identity the role is assumed with, null when it is assumed with the caller's own
+     *                 credentials
+     */
+    public CredentialsKey(String role, String tenant, String policy, long generation, String identity) {
+        this.role = role;
+        this.tenant = tenant;
+        this.policy = policy;
+        this.generation = generation;
+        this.identity = identity;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public String getIdentity() {
+        return identity;
+    }
+
+    /**
+     * @return a SHA-256 digest identifying this key, stable across processes
+     */
+    public byte[] digest() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{role, tenant, policy}) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                digest.update((byte) (generation >>> shift));
+            }
+            if (identity != null) {
+                digest.update((byte) 0);
+                digest.update(identity.getBytes(StandardCharsets.UTF_8));
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CredentialsKey)) {
+            return false;
+        }
+        CredentialsKey that = (CredentialsKey) o;
+        return generation == that.generation
+                && Objects.equals(role, that.role)
+                && Objects.equals(tenant, that.tenant)
+                && Objects.equals(policy, that.policy)
+                && Objects.equals(identity, that.identity);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(role, tenant, policy, generation, identity);
+    }
+
+    @Override
+    public String toString() {
+        return "CredentialsKey{role=" + role + ", tenant=" + tenant + ", generation=" + generation + "}";
+    }
+}
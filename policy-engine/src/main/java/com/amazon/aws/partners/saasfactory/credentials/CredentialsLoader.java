@@ -0,0 +1,257 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.credentials;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.concurrent.FairShareScheduler;
+import com.amazon.aws.partners.saasfactory.concurrent.NegativeCache;
+import com.amazon.aws.partners.saasfactory.concurrent.RequestCoalescer;
+import com.amazon.aws.partners.saasfactory.exception.StsThrottledException;
+import com.amazon.aws.partners.saasfactory.sts.StsGuard;
+import com.amazon.aws.partners.saasfactory.sts.StsRequestHedger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Shared acquisition path for tenant credentials. The vendors hand over the STS call they would make and the loader
+ * decides how it is executed. Concurrent requests for the same {@link CredentialsKey} are coalesced so that only one
+ * STS call is in flight per key, and when a {@link CredentialsCache} is configured still-fresh credentials are served
+ * without calling STS at all. With a {@link StsGuard} the STS calls are rate limited and circuit broken, and while STS
+ * is throttling or the circuit is open, cached credentials that have not yet expired are served instead. With a
+ * {@link StsRequestHedger} slow calls are hedged and failed calls retried, every attempt passing through the guard.
+ * With a {@link FairShareScheduler} the calls that do reach STS are shared fairly between tenants. With a
+ * {@link NegativeCache} for denied assumptions, a role STS refused to let a tenant assume is refused again without
+ * calling STS until the entry expires. Prewarm loads refresh cached credentials a prewarm window ahead of the
+ * cache's refresh skew, so that requests for prewarmed tenants find fresh credentials.
+ */
+public class CredentialsLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialsLoader.class);
+
+    private static final CredentialsLoader DEFAULT_LOADER = CredentialsLoader.builder().build();
+
+    private final RequestCoalescer<CredentialsKey, Credentials> coalescer;
+    private final CredentialsCache cache;
+    private final StsGuard stsGuard;
+    private final StsRequestHedger hedger;
+    private final FairShareScheduler scheduler;
+    private final NegativeCache<CredentialsKey, AwsServiceException> deniedAssumptions;
+    private final Duration prewarmWindow;
+
+    public CredentialsLoader(CredentialsLoaderBuilder builder) {
+        this.cache = builder.cache;
+        this.prewarmWindow = builder.prewarmWindow;
+        this.deniedAssumptions = builder.deniedAssumptions;
+        this.stsGuard = builder.stsGuard;
+        this.hedger = builder.hedger;
+        this.scheduler = builder.scheduler;
+        this.coalescer = RequestCoalescer.builder()
+                .maxWaitMillis(builder.maxWaitMillis)
+                .build();
+    }
+
+    /**
+     * The process wide loader used by the vendors when none is configured, so vendors created per request still
+     * coalesce with each other.
+     */
+    public static CredentialsLoader defaultLoader() {
+        return DEFAULT_LOADER;
+    }
+
+    public static CredentialsLoaderBuilder builder() {
+        return new CredentialsLoaderBuilder();
+    }
+
+    public Credentials load(CredentialsKey key, Supplier<Credentials> stsCall) {
+        return load(key, stsCall, Deadline.none());
+    }
+
+    /**
+     * Loads the credentials, waiting on other callers, for a scheduling slot and between STS retries no longer than
+     * the deadline allows.
+     */
+    public Credentials load(CredentialsKey key, Supplier<Credentials> stsCall, Deadline deadline) {
+        return load(key, stsCall, deadline, false);
+    }
+
+    /**
+     * @param prewarm true for a load made ahead of demand, which already refreshes the cached credentials that will
+     *                be due for refresh within the prewarm window, before any request has to wait for STS
+     */
+    public Credentials load(CredentialsKey key, Supplier<Credentials> stsCall, Deadline deadline, boolean prewarm) {
+        if (cache == null) {
+            return coalescer.execute(key, () -> callSts(key, stsCall, deadline), deadline);
+        }
+        Duration ahead = prewarm ? prewarmWindow : Duration.ZERO;
+        Credentials cached = cache.get(key, ahead);
+        if (cached != null) {
+            return cached;
+        }
+        return coalescer.execute(key, () -> {
+            Credentials refreshed = cache.get(key, ahead);
+            if (refreshed == null) {
+                refreshed = callSts(key, stsCall, deadline);
+                cache.put(key, refreshed);
+            }
+            return refreshed;
+        }, deadline);
+    }
+
+    public CredentialsCache getCache() {
+        return cache;
+    }
+
+    public StsGuard getStsGuard() {
+        return stsGuard;
+    }
+
+    public StsRequestHedger getHedger() {
+        return hedger;
+    }
+
+    public FairShareScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public NegativeCache<CredentialsKey, AwsServiceException> getDeniedAssumptions() {
+        return deniedAssumptions;
+    }
+
+    public static boolean isAccessDenied(Throwable error) {
+        return error instanceof AwsServiceException
+                && ((AwsServiceException) error).awsErrorDetails() != null
+                && "AccessDenied".equals(((AwsServiceException) error).awsErrorDetails().errorCode());
+    }
+
+    private Credentials callSts(CredentialsKey key, Supplier<Credentials> stsCall, Deadline deadline) {
+        if (deniedAssumptions == null) {
+            return callGuarded(key, stsCall, deadline);
+        }
+        // the denial is about the role, the tenant and the identity, whatever policy the session was scoped down to
+        CredentialsKey assumption = new CredentialsKey(key.getRole(), key.getTenant(), null, key.getGeneration(),
+                key.getIdentity());
+        AwsServiceException denied = deniedAssumptions.get(assumption);
+        if (denied != null) {
+            throw denied.toBuilder().build();
+        }
+        try {
+            return callGuarded(key, stsCall, deadline);
+        } catch (AwsServiceException e) {
+            if (isAccessDenied(e)) {
+                LOGGER.warn("STS denied {}, refusing it without calling STS for a while", assumption);
+                deniedAssumptions.put(assumption, e);
+            }
+            throw e;
+        }
+    }
+
+    private Credentials callGuarded(CredentialsKey key, Supplier<Credentials> stsCall, Deadline deadline) {
+        Supplier<Credentials> guarded = stsGuard == null ? stsCall : () -> stsGuard.call(key, stsCall);
+        Supplier<Credentials> hedged = hedger == null ? guarded : () -> hedger.execute(guarded, deadline);
+        Supplier<Credentials> scheduled = scheduler == null
+                ? hedged
+                : () -> scheduler.execute(key.getTenant(), hedged, deadline);
+        if (stsGuard == null && hedger == null && scheduler == null) {
+            return stsCall.get();
+        }
+        try {
+            return scheduled.get();
+        } catch (RuntimeException e) {
+            if (cache != null && (e instanceof StsThrottledException || StsGuard.isThrottling(e))) {
+                Credentials stillValid = cache.getIfValid(key);
+                if (stillValid != null) {
+                    LOGGER.warn("STS is unavailable for {}, serving cached credentials until they expire", key);
+                    return stillValid;
+                }
+            }
+            throw e;
+        }
+    }
+
+    public static final class CredentialsLoaderBuilder {
+        private long maxWaitMillis = 10_000;
+        private Duration prewarmWindow = Duration.ofMinutes(8);
+        private CredentialsCache cache;
+        private StsGuard stsGuard;
+        private StsRequestHedger hedger;
+        private FairShareScheduler scheduler;
+        private NegativeCache<CredentialsKey, AwsServiceException> deniedAssumptions;
+
+        private CredentialsLoaderBuilder() {
+        }
+
+        public CredentialsLoaderBuilder cache(CredentialsCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        public CredentialsLoaderBuilder stsGuard(StsGuard stsGuard) {
+            this.stsGuard = stsGuard;
+            return this;
+        }
+
+        public CredentialsLoaderBuilder hedger(StsRequestHedger hedger) {
+            this.hedger = hedger;
+            return this;
+        }
+
+        /**
+         * Shares the STS calls between tenants, applied after the cache and coalescing so that only calls that
+         * actually go to STS wait for a slot.
+         */
+        public CredentialsLoaderBuilder scheduler(FairShareScheduler scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Remembers the roles STS denied to a tenant, keyed by role, tenant and tenant generation, so invalidating
+         * the tenant also forgets its denials.
+         */
+        public CredentialsLoaderBuilder deniedAssumptions(NegativeCache<CredentialsKey, AwsServiceException> deniedAssumptions) {
+            this.deniedAssumptions = deniedAssumptions;
+            return this;
+        }
+
+        /**
+         * How long a coalesced caller waits for the in-flight STS call before giving up.
+         */
+        public CredentialsLoaderBuilder maxWaitMillis(long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        /**
+         * How long before the cache's refresh skew a prewarm load already refreshes the cached credentials. Covers
+         * the time until the next prewarm run, so that requests find the credentials refreshed before they fall due.
+         */
+        public CredentialsLoaderBuilder prewarmWindow(Duration prewarmWindow) {
+            this.prewarmWindow = prewarmWindow;
+            return this;
+        }
+
+        public CredentialsLoader build() {
+            return new CredentialsLoader(this);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.credentials;
+
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+/**
+ * Second level storage for vended credentials behind the in-memory {@link CredentialsCache}. Implementations may be
+ * shared with other processes, so that a restarted or sibling process can reuse credentials that are still valid.
+ * Implementations must be thread safe and should treat storage errors as misses rather than failing the vend.
+ */
+public interface CredentialsStore {
+
+    /**
+     * @return the stored credentials, or null if there are none. Expired credentials may be returned.
+     */
+    Credentials get(CredentialsKey key);
+
+    void put(CredentialsKey key, Credentials credentials);
+
+    void remove(CredentialsKey key);
+
+    /**
+     * Removes every entry of the tenant, whatever its role, policy and generation, so that no process sharing the
+     * store serves credentials vended before the tenant was invalidated.
+     */
+    void removeTenant(String tenant);
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.credentials;
+
+/**
+ * Decides the session duration of the credentials vended for a tenant. The vendors ask once per vend request, before
+ * the credentials are looked up, so implementations also see requests that are served from the cache. Vends the
+ * container makes on its own, such as prewarming, ask {@link #currentDurationSeconds(String, String)} instead so that
+ * they do not count as requests by the tenant. Implementations must be thread safe.
+ */
+public interface DurationPolicy {
+
+    /**
+     * STS does not accept sessions shorter than 15 minutes.
+     */
+    int MIN_DURATION_SECONDS = 900;
+
+    /**
+     * @return the session duration in seconds for a request by the tenant for the role
+     */
+    int durationSeconds(String role, String tenant);
+
+    /**
+     * Like {@link #durationSeconds(String, String)}, for a vend that was not requested by the tenant. Policies that
+     * track usage must not count it.
+     *
+     * @return the session duration in seconds for the tenant and role as things stand
+     */
+    default int currentDurationSeconds(String role, String tenant) {
+        return durationSeconds(role, tenant);
+    }
+}
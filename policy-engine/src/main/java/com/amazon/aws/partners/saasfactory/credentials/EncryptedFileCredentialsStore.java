@@ -0,0 +1,360 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.credentials;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link CredentialsStore} backed by a memory-mapped file, for example in /tmp or on a volume shared by the processes
+ * of a host. The file is a fixed size hash table of slots. Each slot holds one AES-GCM encrypted entry, so the file
+ * never contains credentials in the clear. Slots are locked with file locks, so several processes can use the same file
+ * as long as they share the encryption key. Entries also carry a digest of their tenant, so that invalidating a tenant
+ * can find and remove all of them.
+ */
+public class EncryptedFileCredentialsStore implements CredentialsStore, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EncryptedFileCredentialsStore.class);
+
+    private static final int MAGIC = 0x54564d43;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int IV_LENGTH = 12;
+    private static final int DIGEST_LENGTH = 32;
+    private static final int TAG_BITS = 128;
+    private static final int PROBES = 4;
+    private static final byte[] AAD = ("tvm-credentials-v" + VERSION).getBytes(StandardCharsets.UTF_8);
+
+    private final SecretKey key;
+    private final int slotCount;
+    private final int slotSize;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final ReentrantLock[] slotLocks;
+    private final SecureRandom random = new SecureRandom();
+
+    public EncryptedFileCredentialsStore(EncryptedFileCredentialsStoreBuilder builder) {
+        if (builder.key == null || builder.path == null) {
+            throw new IllegalArgumentException("An encryption key and a file path are required.");
+        }
+        this.key = builder.key;
+        this.slotCount = builder.slotCount;
+        this.slotSize = builder.slotSize;
+        this.slotLocks = new ReentrantLock[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slotLocks[i] = new ReentrantLock();
+        }
+        long size = HEADER_SIZE + (long) slotCount * slotSize;
+        try {
+            this.file = new RandomAccessFile(builder.path.toFile(), "rw");
+            this.channel = file.getChannel();
+            try (FileLock ignored = channel.lock(0, HEADER_SIZE, false)) {
+                if (file.length() != size || !hasValidHeader()) {
+                    LOGGER.info("Initializing credentials store {}", builder.path);
+                    file.setLength(0);
+                    file.setLength(size);
+                    file.seek(0);
+                    file.writeInt(MAGIC);
+                    file.writeInt(VERSION);
+                    file.writeInt(slotCount);
+                    file.writeInt(slotSize);
+                }
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open credentials store " + builder.path, e);
+        }
+    }
+
+    public static EncryptedFileCredentialsStoreBuilder builder() {
+        return new EncryptedFileCredentialsStoreBuilder();
+    }
+
+    @Override
+    public Credentials get(CredentialsKey credentialsKey) {
+        byte[] digest = credentialsKey.digest();
+        int first = firstSlot(digest);
+        for (int probe = 0; probe < PROBES; probe++) {
+            int slot = (first + probe) % slotCount;
+            Entry entry = withSlotLock(slot, true, () -> read(slot));
+            if (entry != null && MessageDigest.isEqual(digest, entry.digest)) {
+                return entry.credentials;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void put(CredentialsKey credentialsKey, Credentials credentials) {
+        byte[] digest = credentialsKey.digest();
+        byte[] encrypted = encrypt(digest, tenantDigest(credentialsKey.getTenant()), credentials);
+        if (encrypted == null) {
+            return;
+        }
+        int slot = targetSlot(digest);
+        withSlotLock(slot, false, () -> {
+            write(slot, encrypted);
+            return null;
+        });
+    }
+
+    @Override
+    public void remove(CredentialsKey credentialsKey) {
+        byte[] digest = credentialsKey.digest();
+        int first = firstSlot(digest);
+        for (int probe = 0; probe < PROBES; probe++) {
+            int slot = (first + probe) % slotCount;
+            withSlotLock(slot, false, () -> {
+                Entry entry = read(slot);
+                if (entry != null && MessageDigest.isEqual(digest, entry.digest)) {
+                    write(slot, new byte[0]);
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Visits every slot, so it costs a decryption per slot in use.
+     */
+    @Override
+    public void removeTenant(String tenant) {
+        byte[] tenantDigest = tenantDigest(tenant);
+        for (int i = 0; i < slotCount; i++) {
+            int slot = i;
+            withSlotLock(slot, false, () -> {
+                Entry entry = read(slot);
+                if (entry != null && MessageDigest.isEqual(tenantDigest, entry.tenantDigest)) {
+                    write(slot, new byte[0]);
+                }
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+
+    /**
+     * The slot holding this key, else the first empty or expired slot, else the first slot of the probe sequence.
+     */
+    private int targetSlot(byte[] digest) {
+        int first = firstSlot(digest);
+        int free = -1;
+        for (int probe = 0; probe < PROBES; probe++) {
+            int slot = (first + probe) % slotCount;
+            Entry entry = withSlotLock(slot, true, () -> read(slot));
+            if (entry != null && MessageDigest.isEqual(digest, entry.digest)) {
+                return slot;
+            }
+            if (free < 0 && (entry == null || !Instant.now().isBefore(entry.credentials.expiration()))) {
+                free = slot;
+            }
+        }
+        return free >= 0 ? free : first;
+    }
+
+    private int firstSlot(byte[] digest) {
+        return Math.floorMod(ByteBuffer.wrap(digest).getInt(), slotCount);
+    }
+
+    private Entry read(int slot) {
+        ByteBuffer view = slotView(slot);
+        int length = view.getInt();
+        if (length <= IV_LENGTH || length > slotSize - Integer.BYTES) {
+            return null;
+        }
+        byte[] iv = new byte[IV_LENGTH];
+        byte[] ciphertext = new byte[length - IV_LENGTH];
+        view.get(iv).get(ciphertext);
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(AAD);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(cipher.doFinal(ciphertext)));
+            byte[] digest = new byte[DIGEST_LENGTH];
+            in.readFully(digest);
+            byte[] tenantDigest = new byte[DIGEST_LENGTH];
+            in.readFully(tenantDigest);
+            Instant expiration = Instant.ofEpochMilli(in.readLong());
+            Credentials credentials = Credentials.builder()
+                    .accessKeyId(in.readUTF())
+                    .secretAccessKey(in.readUTF())
+                    .sessionToken(in.readUTF())
+                    .expiration(expiration)
+                    .build();
+            return new Entry(digest, tenantDigest, credentials);
+        } catch (GeneralSecurityException | IOException e) {
+            LOGGER.warn("Ignoring unreadable credentials store slot {}", slot);
+            return null;
+        }
+    }
+
+    private void write(int slot, byte[] encrypted) {
+        ByteBuffer view = slotView(slot);
+        view.putInt(encrypted.length).put(encrypted);
+    }
+
+    private byte[] encrypt(byte[] digest, byte[] tenantDigest, Credentials credentials) {
+        try {
+            ByteArrayOutputStream plaintext = new ByteArrayOutputStream(2048);
+            DataOutputStream out = new DataOutputStream(plaintext);
+            out.write(digest);
+            out.write(tenantDigest);
+            out.writeLong(credentials.expiration().toEpochMilli());
+            out.writeUTF(credentials.accessKeyId());
+            out.writeUTF(credentials.secretAccessKey());
+            out.writeUTF(credentials.sessionToken());
+            out.flush();
+
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(AAD);
+            byte[] ciphertext = cipher.doFinal(plaintext.toByteArray());
+            if (Integer.BYTES + IV_LENGTH + ciphertext.length > slotSize) {
+                LOGGER.warn("Credentials do not fit a {} byte slot, not storing them", slotSize);
+                return null;
+            }
+            return ByteBuffer.allocate(IV_LENGTH + ciphertext.length).put(iv).put(ciphertext).array();
+        } catch (GeneralSecurityException | IOException e) {
+            LOGGER.error("Unable to encrypt credentials for the credentials store", e);
+            return null;
+        }
+    }
+
+    private ByteBuffer slotView(int slot) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(HEADER_SIZE + slot * slotSize);
+        return view;
+    }
+
+    private <T> T withSlotLock(int slot, boolean shared, SlotOperation<T> operation) {
+        ReentrantLock lock = slotLocks[slot];
+        lock.lock();
+        try (FileLock ignored = channel.lock(HEADER_SIZE + (long) slot * slotSize, slotSize, shared)) {
+            return operation.run();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to lock credentials store slot {}", slot, e);
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static byte[] tenantDigest(String tenant) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(String.valueOf(tenant).getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private boolean hasValidHeader() throws IOException {
+        file.seek(0);
+        return file.readInt() == MAGIC && file.readInt() == VERSION
+                && file.readInt() == slotCount && file.readInt() == slotSize;
+    }
+
+    private interface SlotOperation<T> {
+        T run();
+    }
+
+    private static final class Entry {
+        private final byte[] digest;
+        private final byte[] tenantDigest;
+        private final Credentials credentials;
+
+        private Entry(byte[] digest, byte[] tenantDigest, Credentials credentials) {
+            this.digest = digest;
+            this.tenantDigest = tenantDigest;
+            this.credentials = credentials;
+        }
+    }
+
+    public static final class EncryptedFileCredentialsStoreBuilder {
+        private Path path;
+        private SecretKey key;
+        private int slotCount = 1024;
+        private int slotSize = 4096;
+
+        private EncryptedFileCredentialsStoreBuilder() {
+        }
+
+        public EncryptedFileCredentialsStoreBuilder path(Path path) {
+            this.path = path;
+            return this;
+        }
+
+        /**
+         * AES key, 16 or 32 bytes, shared by every process using the file.
+         */
+        public EncryptedFileCredentialsStoreBuilder key(byte[] key) {
+            this.key = new SecretKeySpec(key, "AES");
+            return this;
+        }
+
+        public EncryptedFileCredentialsStoreBuilder key(SecretKey key) {
+            this.key = key;
+            return this;
+        }
+
+        public EncryptedFileCredentialsStoreBuilder slotCount(int slotCount) {
+            this.slotCount = slotCount;
+            return this;
+        }
+
+        public EncryptedFileCredentialsStoreBuilder slotSize(int slotSize) {
+            this.slotSize = slotSize;
+            return this;
+        }
+
+        public EncryptedFileCredentialsStore build() {
+            return new EncryptedFileCredentialsStore(this);
+        }
+    }
+}
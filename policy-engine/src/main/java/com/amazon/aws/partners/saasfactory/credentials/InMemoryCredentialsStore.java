@@ -0,0 +1,56 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.credentials;
+
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process local {@link CredentialsStore}, a stand-in for a shared store in tests and local runs.
+ */
+public class InMemoryCredentialsStore implements CredentialsStore {
+
+    private final ConcurrentMap<CredentialsKey, Credentials> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public Credentials get(CredentialsKey key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public void put(CredentialsKey key, Credentials credentials) {
+        entries.put(key, credentials);
+    }
+
+    @Override
+    public void remove(CredentialsKey key) {
+        entries.remove(key);
+    }
+
+    @Override
+    public void removeTenant(String tenant) {
+        entries.keySet().removeIf(key -> Objects.equals(tenant, key.getTenant()));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
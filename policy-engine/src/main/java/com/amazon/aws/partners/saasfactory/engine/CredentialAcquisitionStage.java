@@ -0,0 +1,284 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+import com.amazon.aws.partners.saasfactory.cluster.ClusterVendRequest;
+import com.amazon.aws.partners.saasfactory.cluster.VendingCluster;
+import com.amazon.aws.partners.saasfactory.cognito.JwtClaimsReader;
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingTimeouts;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsCache;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsKey;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsLoader;
+import com.amazon.aws.partners.saasfactory.credentials.DurationPolicy;
+import com.amazon.aws.partners.saasfactory.credentials.FixedDurationPolicy;
+import com.amazon.aws.partners.saasfactory.exception.ClusterForwardingException;
+import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
+import com.amazon.aws.partners.saasfactory.exception.PolicyAssumptionException;
+import com.amazon.aws.partners.saasfactory.policy.PolicyGenerations;
+import com.amazon.aws.partners.saasfactory.sts.StsEndpointSelector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.util.function.Supplier;
+
+/**
+ * Assumes the role with the scoped policy, through the credentials loader so that cached credentials are reused.
+ * Without an {@link StsEndpointSelector} the STS client for the region is only built on the first call that needs it.
+ * In a {@link VendingCluster} the role is assumed by the node that owns the tenant. Credentials assumed with a web
+ * identity are only reused for that identity.
+ */
+public class CredentialAcquisitionStage implements VendingStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialAcquisitionStage.class);
+
+    private final Region region;
+    private final CredentialsLoader credentialsLoader;
+    private final DurationPolicy durationPolicy;
+    private final VendingTimeouts timeouts;
+    private final VendingCluster cluster;
+    private final PolicyGenerations generations;
+    private volatile StsEndpointSelector stsEndpoints;
+
+    public CredentialAcquisitionStage(CredentialAcquisitionStageBuilder builder) {
+        this.region = builder.region;
+        this.credentialsLoader = builder.credentialsLoader;
+        this.durationPolicy = builder.durationPolicy;
+        this.timeouts = builder.timeouts;
+        this.cluster = builder.cluster;
+        this.generations = builder.generations;
+        this.stsEndpoints = builder.stsEndpointSelector;
+    }
+
+    public static CredentialAcquisitionStageBuilder builder() {
+        return new CredentialAcquisitionStageBuilder();
+    }
+
+    @Override
+    public void process(VendingContext context) {
+        context.setCredentials(acquire(context.getRole(), context.getTenant(), context.getPolicy(),
+                context.getWebIdentityToken(), context.getRequest().getDeadline(), context.getRequest().isPrewarm()));
+    }
+
+    /**
+     * @param webIdentityToken token to assume the role with, null to assume it with the caller's own credentials
+     */
+    public Credentials acquire(String role, String tenant, String scopedPolicy, String webIdentityToken,
+                               Deadline deadline) {
+        return acquire(role, tenant, scopedPolicy, webIdentityToken, deadline, false);
+    }
+
+    /**
+     * @param prewarm true for a vend made ahead of demand, which does not count towards the tenant's usage and
+     *                refreshes the tenant's credentials before they fall due
+     */
+    public Credentials acquire(String role, String tenant, String scopedPolicy, String webIdentityToken,
+                               Deadline deadline, boolean prewarm) {
+        checkPolicy(scopedPolicy);
+        Supplier<Credentials> stsCall = stsCall(role, tenant, scopedPolicy, webIdentityToken, deadline, prewarm);
+        long generation = generations.tenant(tenant);
+        CredentialsKey key = new CredentialsKey(role, tenant, scopedPolicy, generation, identity(webIdentityToken));
+        if (cluster != null && !cluster.isOwner(tenant)) {
+            ClusterVendRequest request = new ClusterVendRequest(role, tenant, scopedPolicy, webIdentityToken,
+                    generation, deadline, prewarm);
+            return credentialsLoader.load(key, () -> {
+                try {
+                    return cluster.forward(request);
+                } catch (ClusterForwardingException e) {
+                    LOGGER.warn("Vending tenant {} locally, its owner is unavailable", tenant, e);
+                    return stsCall.get();
+                }
+            }, deadline, prewarm);
+        }
+        return credentialsLoader.load(key, stsCall, deadline, prewarm);
+    }
+
+    /**
+     * Serves a role assumption forwarded by another node of the cluster, for a tenant this node owns.
+     */
+    public Credentials acquireForwarded(ClusterVendRequest request) {
+        checkPolicy(request.getPolicy());
+        // either node may have seen the tenant invalidated
+        long generation = Math.max(request.getGeneration(), generations.tenant(request.getTenant()));
+        return credentialsLoader.load(
+                new CredentialsKey(request.getRole(), request.getTenant(), request.getPolicy(), generation,
+                        identity(request.getWebIdentityToken())),
+                stsCall(request.getRole(), request.getTenant(), request.getPolicy(), request.getWebIdentityToken(),
+                        request.getDeadline(), request.isPrewarm()),
+                request.getDeadline(), request.isPrewarm());
+    }
+
+    /**
+     * Stops serving the policies and credentials vended for the tenant so far: moves its generation on, drops its
+     * entries from the credentials cache and its second level store, and in a cluster has every other node do the
+     * same.
+     */
+    public void invalidateTenant(String tenant) {
+        invalidateForwarded(tenant);
+        if (cluster != null) {
+            cluster.invalidateTenant(tenant);
+        }
+    }
+
+    /**
+     * Serves an invalidation sent by another node of the cluster, on this node only.
+     */
+    public void invalidateForwarded(String tenant) {
+        generations.invalidateTenant(tenant);
+        CredentialsCache cache = credentialsLoader.getCache();
+        if (cache != null) {
+            cache.invalidateTenant(tenant);
+        }
+    }
+
+    /**
+     * The identity credentials assumed with the web identity token belong to: the token's subject, the Cognito
+     * identity id. A token without one is its own identity, its credentials are not shared with any other token.
+     */
+    private static String identity(String webIdentityToken) {
+        if (webIdentityToken == null) {
+            return null;
+        }
+        try {
+            String subject = JwtClaimsReader.readString(webIdentityToken, "sub");
+            if (subject != null) {
+                return subject;
+            }
+        } catch (JwtProcessingException e) {
+            LOGGER.warn("Unable to read the subject of the web identity token", e);
+        }
+        return webIdentityToken;
+    }
+
+    private static void checkPolicy(String scopedPolicy) {
+        if (scopedPolicy == null || scopedPolicy.trim().isEmpty()) {
+            LOGGER.info("CredentialAcquisitionStage::Attempting to assumeRole with empty policy, should not happen!");
+            throw new PolicyAssumptionException("Missing or empty policy, cannot allow access.");
+        }
+    }
+
+    private Supplier<Credentials> stsCall(String role, String tenant, String scopedPolicy, String webIdentityToken,
+                                          Deadline deadline, boolean prewarm) {
+        int durationSeconds = prewarm
+                ? durationPolicy.currentDurationSeconds(role, tenant)
+                : durationPolicy.durationSeconds(role, tenant);
+        if (webIdentityToken == null) {
+            return () -> stsEndpoints().execute(sts -> sts.assumeRole(assumeRoleReq -> assumeRoleReq
+                    .durationSeconds(durationSeconds)
+                    .policy(scopedPolicy)
+                    .roleArn(role)
+                    .roleSessionName(tenant)
+                    .overrideConfiguration(timeouts.overrideFor(VendingTimeouts.Phase.STS, deadline))
+            ).credentials());
+        }
+        return () -> stsEndpoints().execute(sts -> sts.assumeRoleWithWebIdentity(assumeRoleReq -> assumeRoleReq
+                .webIdentityToken(webIdentityToken)
+                .durationSeconds(durationSeconds)
+                .policy(scopedPolicy)
+                .roleArn(role)
+                .roleSessionName(tenant)
+                .overrideConfiguration(timeouts.overrideFor(VendingTimeouts.Phase.STS, deadline))
+        ).credentials());
+    }
+
+    private StsEndpointSelector stsEndpoints() {
+        StsEndpointSelector endpoints = stsEndpoints;
+        if (endpoints == null) {
+            synchronized (this) {
+                endpoints = stsEndpoints;
+                if (endpoints == null) {
+                    endpoints = StsEndpointSelector.single(StsClient.builder()
+                            .region(region)
+                            .httpClientBuilder(UrlConnectionHttpClient.builder())
+                            .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                            .build());
+                    stsEndpoints = endpoints;
+                }
+            }
+        }
+        return endpoints;
+    }
+
+    public static final class CredentialAcquisitionStageBuilder {
+        private Region region;
+        private CredentialsLoader credentialsLoader = CredentialsLoader.defaultLoader();
+        private StsEndpointSelector stsEndpointSelector;
+        private DurationPolicy durationPolicy = new FixedDurationPolicy(DurationPolicy.MIN_DURATION_SECONDS);
+        private VendingTimeouts timeouts = VendingTimeouts.defaults();
+        private VendingCluster cluster;
+        private PolicyGenerations generations = PolicyGenerations.global();
+
+        private CredentialAcquisitionStageBuilder() {
+        }
+
+        public CredentialAcquisitionStageBuilder region(Region region) {
+            this.region = region;
+            return this;
+        }
+
+        public CredentialAcquisitionStageBuilder credentialsLoader(CredentialsLoader credentialsLoader) {
+            this.credentialsLoader = credentialsLoader;
+            return this;
+        }
+
+        /**
+         * STS endpoints to route the role assumption to. Without one a client for the region is used.
+         */
+        public CredentialAcquisitionStageBuilder stsEndpointSelector(StsEndpointSelector stsEndpointSelector) {
+            this.stsEndpointSelector = stsEndpointSelector;
+            return this;
+        }
+
+        public CredentialAcquisitionStageBuilder durationPolicy(DurationPolicy durationPolicy) {
+            this.durationPolicy = durationPolicy;
+            return this;
+        }
+
+        public CredentialAcquisitionStageBuilder timeouts(VendingTimeouts timeouts) {
+            this.timeouts = timeouts;
+            return this;
+        }
+
+        /**
+         * Forwards the role assumption for tenants owned by another node of the cluster to that node. Start the
+         * cluster with {@link #acquireForwarded(ClusterVendRequest)} and {@link #invalidateForwarded(String)} so that
+         * this node serves the tenants it owns and the invalidations of the other nodes.
+         */
+        public CredentialAcquisitionStageBuilder cluster(VendingCluster cluster) {
+            this.cluster = cluster;
+            return this;
+        }
+
+        /**
+         * Generations of the tenants, credentials vended before a tenant was invalidated are not reused.
+         */
+        public CredentialAcquisitionStageBuilder generations(PolicyGenerations generations) {
+            this.generations = generations;
+            return this;
+        }
+
+        public CredentialAcquisitionStage build() {
+            return new CredentialAcquisitionStage(this);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+import com.amazon.aws.partners.saasfactory.cognito.CognitoIdentity;
+import com.amazon.aws.partners.saasfactory.cognito.CognitoWebIdentityManager;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingTimeouts;
+import software.amazon.awssdk.regions.Region;
+
+/**
+ * Decides the role to assume. That is the role of the request, except for the Cognito identity pool flow where the
+ * identity pool gives both the role and the web identity token to assume it with.
+ */
+public class IdentityResolutionStage implements VendingStage {
+
+    private final Region region;
+    private final VendingTimeouts timeouts;
+
+    public IdentityResolutionStage(Region region, VendingTimeouts timeouts) {
+        this.region = region;
+        this.timeouts = timeouts;
+    }
+
+    @Override
+    public void process(VendingContext context) {
+        VendingRequest request = context.getRequest();
+        if (request.getFlow() != VendingFlow.COGNITO_IDENTITY_POOL) {
+            context.setRole(request.getRole());
+            return;
+        }
+        CognitoWebIdentityManager cognitoWebIdentityManager = CognitoWebIdentityManager.builder()
+                .region(region)
+                .identityPool(context.getIdentityPool())
+                .providerLogins(context.getProviderLogins())
+                .subject(context.getSubject())
+                .deadline(request.getDeadline())
+                .timeouts(timeouts)
+                .build();
+
+        CognitoIdentity identity = cognitoWebIdentityManager.resolve();
+        context.setWebIdentityToken(identity.getOpenIdToken());
+        context.setRole(identity.getRole());
+    }
+}
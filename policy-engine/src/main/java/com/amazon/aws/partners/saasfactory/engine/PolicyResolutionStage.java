@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+import com.amazon.aws.partners.saasfactory.policy.PolicyGenerator;
+
+import java.util.function.Supplier;
+
+/**
+ * Generates the policy scoped to the tenant. Policy generators hold the tenant, so every vend gets its own.
+ */
+public class PolicyResolutionStage implements VendingStage {
+
+    private final Supplier<? extends PolicyGenerator> policyGenerator;
+
+    public PolicyResolutionStage(Supplier<? extends PolicyGenerator> policyGenerator) {
+        this.policyGenerator = policyGenerator;
+    }
+
+    @Override
+    public void process(VendingContext context) {
+        context.setPolicy(policyGenerator.get()
+                .tenant(context.getTenant())
+                .generatePolicy());
+    }
+}
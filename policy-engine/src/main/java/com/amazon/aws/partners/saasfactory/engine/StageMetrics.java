@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+/**
+ * Point in time view of a single stage of a {@link VendingEngine}.
+ */
+public final class StageMetrics {
+
+    private final StageName stage;
+    private final long completed;
+    private final long failed;
+    private final long rejected;
+    private final double averageLatencyMillis;
+    private final int queued;
+
+    public StageMetrics(StageName stage, long completed, long failed, long rejected, double averageLatencyMillis,
+                        int queued) {
+        this.stage = stage;
+        this.completed = completed;
+        this.failed = failed;
+        this.rejected = rejected;
+        this.averageLatencyMillis = averageLatencyMillis;
+        this.queued = queued;
+    }
+
+    public StageName getStage() {
+        return stage;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return vends turned away because the queue of the stage was full
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the average time spent in the stage by completed and failed vends, in milliseconds
+     */
+    public double getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    /**
+     * @return vends waiting for a thread of the stage, always 0 for a stage that runs on the caller's thread
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    @Override
+    public String toString() {
+        return "StageMetrics{stage=" + stage + ", completed=" + completed + ", failed=" + failed + ", rejected="
+                + rejected + ", averageLatencyMillis=" + averageLatencyMillis + ", queued=" + queued + "}";
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+import com.amazon.aws.partners.saasfactory.cognito.CognitoClaims;
+import com.amazon.aws.partners.saasfactory.cognito.IssuerRegistry;
+import com.amazon.aws.partners.saasfactory.cognito.JwtClaimsExtractor;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingTimeouts;
+import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * Finds the tenant, and for the Cognito identity pool flow the identity pool and provider logins, in the request.
+ */
+public class TokenParsingStage implements VendingStage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenParsingStage.class);
+
+    private final VendingTimeouts timeouts;
+    private final IssuerRegistry issuers;
+
+    public TokenParsingStage(VendingTimeouts timeouts) {
+        this(timeouts, IssuerRegistry.defaultRegistry());
+    }
+
+    /**
+     * @param issuers the issuers whose tokens are accepted
+     */
+    public TokenParsingStage(VendingTimeouts timeouts, IssuerRegistry issuers) {
+        this.timeouts = timeouts;
+        this.issuers = issuers;
+    }
+
+    @Override
+    public void process(VendingContext context) {
+        VendingRequest request = context.getRequest();
+        switch (request.getFlow()) {
+            case TENANT:
+                context.setTenant(request.getTenant());
+                break;
+            case AUTHORIZER:
+                context.setTenant(authorizerTenant(request));
+                break;
+            default:
+                parseToken(context);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String authorizerTenant(VendingRequest request) {
+        Object claims = request.getAuthorizer() == null ? null : request.getAuthorizer().get("claims");
+        Object tenant = claims instanceof Map ? ((Map<String, Object>) claims).get(request.getTenantClaim()) : null;
+        if (tenant == null) {
+            throw new JwtProcessingException("No tenant id in authorizer claims");
+        }
+        return tenant.toString();
+    }
+
+    private void parseToken(VendingContext context) {
+        VendingRequest request = context.getRequest();
+        JwtClaimsExtractor jwtClaimsExtractor = new JwtClaimsExtractor(request.getDeadline(), timeouts, issuers);
+        if (request.getFlow() == VendingFlow.COGNITO_IDENTITY_POOL) {
+            CognitoClaims cognitoClaims = jwtClaimsExtractor.getClaims(request.getHeaders(),
+                    request.getTenantClaim(), request.getIdentityPoolClaim());
+            context.setIdentityPool(cognitoClaims.getIdentityPool());
+            context.setProviderLogins(cognitoClaims.getProviderLogins());
+            context.setSubject(cognitoClaims.getSubject());
+            context.setTenant(cognitoClaims.getTenant());
+        } else {
+            boolean validateToken = request.getFlow() != VendingFlow.JWT_UNVERIFIED;
+            context.setTenant(jwtClaimsExtractor.getTenantId(request.getHeaders(), request.getTenantClaim(),
+                    validateToken));
+        }
+        LOGGER.info("Injecting tenant {} from JWT.", context.getTenant());
+    }
+}
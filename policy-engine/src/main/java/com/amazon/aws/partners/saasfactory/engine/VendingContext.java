@@ -0,0 +1,155 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * State of a single vend as it moves through the stages. The engine hands a context from one stage to the next, except
+ * in the Cognito identity pool flow where the identity and policy stages work on it at the same time. Those two set
+ * different fields, the identity stage the role and web identity token and the policy stage the policy, and only read
+ * what the parsing stage set before them. The fields are volatile so a stage replacing either of them still sees the
+ * latest values, and the timings are synchronized.
+ */
+public class VendingContext {
+
+    private final VendingRequest request;
+    private final long startNanos = System.nanoTime();
+    private final Map<StageName, Duration> timings = new EnumMap<>(StageName.class);
+    private volatile String tenant;
+    private volatile String role;
+    private volatile String identityPool;
+    private volatile Map<String, String> providerLogins;
+    private volatile String subject;
+    private volatile String webIdentityToken;
+    private volatile String policy;
+    private volatile Credentials credentials;
+    private volatile VendingResult result;
+
+    public VendingContext(VendingRequest request) {
+        this.request = request;
+    }
+
+    public VendingRequest getRequest() {
+        return request;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public void setRole(String role) {
+        this.role = role;
+    }
+
+    public String getIdentityPool() {
+        return identityPool;
+    }
+
+    public void setIdentityPool(String identityPool) {
+        this.identityPool = identityPool;
+    }
+
+    public Map<String, String> getProviderLogins() {
+        return providerLogins;
+    }
+
+    public void setProviderLogins(Map<String, String> providerLogins) {
+        this.providerLogins = providerLogins;
+    }
+
+    /**
+     * @return the subject of the verified token, which identifies the user to the identity pool
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+
+    /**
+     * @return the token to assume the role with, null to assume it with the caller's own credentials
+     */
+    public String getWebIdentityToken() {
+        return webIdentityToken;
+    }
+
+    public void setWebIdentityToken(String webIdentityToken) {
+        this.webIdentityToken = webIdentityToken;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(String policy) {
+        this.policy = policy;
+    }
+
+    public Credentials getCredentials() {
+        return credentials;
+    }
+
+    public void setCredentials(Credentials credentials) {
+        this.credentials = credentials;
+    }
+
+    public VendingResult getResult() {
+        return result;
+    }
+
+    public void setResult(VendingResult result) {
+        this.result = result;
+    }
+
+    /**
+     * @return the time since the vend started
+     */
+    public Duration elapsed() {
+        return Duration.ofNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the time spent in each stage that has completed so far
+     */
+    public synchronized Map<StageName, Duration> getTimings() {
+        return Collections.unmodifiableMap(new EnumMap<>(timings));
+    }
+
+    /**
+     * Synchronized, the identity and policy stages of the Cognito flow run at the same time.
+     */
+    synchronized void recordTiming(StageName stage, Duration duration) {
+        timings.put(stage, duration);
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+import com.amazon.aws.partners.saasfactory.cognito.IssuerRegistry;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingExecutors;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingTimeouts;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsLoader;
+import com.amazon.aws.partners.saasfactory.credentials.DurationPolicy;
+import com.amazon.aws.partners.saasfactory.credentials.FixedDurationPolicy;
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import com.amazon.aws.partners.saasfactory.exception.PolicyAssumptionException;
+import com.amazon.aws.partners.saasfactory.policy.PolicyGenerator;
+import com.amazon.aws.partners.saasfactory.sts.StsEndpointSelector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.regions.Region;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Vends credentials by running a {@link VendingRequest} through the stages named in {@link StageName}, in order.
+ * A stage runs on the thread that completed the previous one unless it is given its own executor, in which case the
+ * executor's queue bounds how many vends can wait for the stage and vends beyond that are turned away instead of
+ * piling up. The deadline of the request is checked before every stage. In the Cognito identity pool flow the
+ * identity and policy stages run at the same time, as neither depends on the other.
+ */
+public class VendingEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VendingEngine.class);
+
+    private static final ExecutorService IDENTITY_EXECUTOR = VendingExecutors.newVendingExecutor("vending-identity");
+
+    private final Map<StageName, VendingStage> stages;
+    private final Map<StageName, ThreadPoolExecutor> executors;
+    private final Map<StageName, StageCounters> counters = new EnumMap<>(StageName.class);
+
+    public VendingEngine(VendingEngineBuilder builder) {
+        // the built in stages are only created for the stages that were not replaced
+        Map<StageName, VendingStage> stages = new EnumMap<>(builder.stages);
+        stages.computeIfAbsent(StageName.PARSE,
+                name -> new TokenParsingStage(builder.timeouts, builder.issuerRegistry));
+        stages.computeIfAbsent(StageName.IDENTITY,
+                name -> new IdentityResolutionStage(builder.region, builder.timeouts));
+        stages.computeIfAbsent(StageName.POLICY, name -> new PolicyResolutionStage(builder.policyGenerator));
+        stages.computeIfAbsent(StageName.CREDENTIALS, name -> CredentialAcquisitionStage.builder()
+                .region(builder.region)
+                .credentialsLoader(builder.credentialsLoader)
+                .stsEndpointSelector(builder.stsEndpointSelector)
+                .durationPolicy(builder.durationPolicy)
+                .timeouts(builder.timeouts)
+                .build());
+        stages.computeIfAbsent(StageName.RESPONSE, name -> new ResponseStage());
+        this.stages = stages;
+
+        Map<StageName, ThreadPoolExecutor> executors = new EnumMap<>(StageName.class);
+        builder.executors.forEach((stage, size) -> executors.put(stage, VendingExecutors.newBoundedVendingExecutor(
+                "vending-" + stage.name().toLowerCase(), size[0], size[1])));
+        this.executors = executors;
+
+        for (StageName stage : StageName.values()) {
+            counters.put(stage, new StageCounters());
+        }
+    }
+
+    public static VendingEngineBuilder builder() {
+        return new VendingEngineBuilder();
+    }
+
+    /**
+     * Vends and waits for the result.
+     */
+    public VendingResult vend(VendingRequest request) {
+        try {
+            return vendAsync(request).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new PolicyAssumptionException("Unable to vend credentials.", cause);
+        }
+    }
+
+    /**
+     * @return completes with the result, or exceptionally with the exception thrown by the stage that failed
+     */
+    public CompletableFuture<VendingResult> vendAsync(VendingRequest request) {
+        CompletableFuture<VendingContext> vend = CompletableFuture.completedFuture(new VendingContext(request));
+        boolean identityAlongsidePolicy = request.getFlow() == VendingFlow.COGNITO_IDENTITY_POOL;
+        for (StageName stage : StageName.values()) {
+            if (identityAlongsidePolicy && stage == StageName.IDENTITY) {
+                vend = vend.thenCompose(this::identityAlongsidePolicy);
+            } else if (!identityAlongsidePolicy || stage != StageName.POLICY) {
+                vend = vend.thenCompose(context -> submit(stage, context));
+            }
+        }
+        return vend.thenApply(VendingContext::getResult);
+    }
+
+    /**
+     * The policy only depends on the tenant, so in the Cognito flow it is generated while the identity pool calls
+     * are in flight. Without an executor of its own the identity stage runs on a shared one for this.
+     */
+    private CompletableFuture<VendingContext> identityAlongsidePolicy(VendingContext context) {
+        CompletableFuture<VendingContext> identity = executors.containsKey(StageName.IDENTITY)
+                ? submit(StageName.IDENTITY, context)
+                : CompletableFuture.supplyAsync(() -> submit(StageName.IDENTITY, context), IDENTITY_EXECUTOR)
+                        .thenCompose(Function.identity());
+        CompletableFuture<VendingContext> policy = submit(StageName.POLICY, context);
+        return identity.thenCombine(policy, (identified, scoped) -> context);
+    }
+
+    private CompletableFuture<VendingContext> submit(StageName stage, VendingContext context) {
+        CompletableFuture<VendingContext> done = new CompletableFuture<>();
+        ThreadPoolExecutor executor = executors.get(stage);
+        if (executor == null) {
+            run(stage, context, done);
+            return done;
+        }
+        try {
+            executor.execute(() -> run(stage, context, done));
+        } catch (RejectedExecutionException e) {
+            counters.get(stage).rejected.incrementAndGet();
+            LOGGER.warn("Vending stage {} is saturated, turning the vend away", stage);
+            done.completeExceptionally(new PolicyAssumptionException("Vending stage " + stage + " is saturated.", e));
+        }
+        return done;
+    }
+
+    private void run(StageName stage, VendingContext context, CompletableFuture<VendingContext> done) {
+        if (context.getRequest().getDeadline().isExpired()) {
+            done.completeExceptionally(new DeadlineExceededException(
+                    "The deadline passed before the " + stage + " stage of the vend."));
+            return;
+        }
+        StageCounters stageCounters = counters.get(stage);
+        long start = System.nanoTime();
+        try {
+            stages.get(stage).process(context);
+            long elapsed = System.nanoTime() - start;
+            context.recordTiming(stage, Duration.ofNanos(elapsed));
+            stageCounters.record(elapsed, false);
+            done.complete(context);
+        } catch (RuntimeException | Error e) {
+            stageCounters.record(System.nanoTime() - start, true);
+            done.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return throughput, latency and queue depth of every stage
+     */
+    public List<StageMetrics> metrics() {
+        List<StageMetrics> metrics = new ArrayList<>();
+        counters.forEach((stage, stageCounters) -> {
+            long completed = stageCounters.completed.get();
+            long failed = stageCounters.failed.get();
+            long calls = completed + failed;
+            ThreadPoolExecutor executor = executors.get(stage);
+            metrics.add(new StageMetrics(stage, completed, failed, stageCounters.rejected.get(),
+                    calls == 0 ? 0 : stageCounters.totalNanos.get() / (calls * 1_000_000d),
+                    executor == null ? 0 : executor.getQueue().size()));
+        });
+        return metrics;
+    }
+
+    /**
+     * Stops the threads of the stages that have their own executor. Vends already queued still complete.
+     */
+    public void shutdown() {
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
+    }
+
+    private static final class StageCounters {
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private void record(long nanos, boolean failure) {
+            (failure ? failed : completed).incrementAndGet();
+            totalNanos.addAndGet(nanos);
+        }
+    }
+
+    public static final class VendingEngineBuilder {
+        private final Map<StageName, VendingStage> stages = new EnumMap<>(StageName.class);
+        private final Map<StageName, int[]> executors = new EnumMap<>(StageName.class);
+        private Region region;
+        private CredentialsLoader credentialsLoader = CredentialsLoader.defaultLoader();
+        private StsEndpointSelector stsEndpointSelector;
+        private DurationPolicy durationPolicy = new FixedDurationPolicy(DurationPolicy.MIN_DURATION_SECONDS);
+        private IssuerRegistry issuerRegistry = IssuerRegistry.defaultRegistry();
+        private VendingTimeouts timeouts = VendingTimeouts.defaults();
+        private Supplier<? extends PolicyGenerator> policyGenerator;
+
+        private VendingEngineBuilder() {
+        }
+
+        public VendingEngineBuilder region(Region region) {
+            this.region = region;
+            return this;
+        }
+
+        public VendingEngineBuilder credentialsLoader(CredentialsLoader credentialsLoader) {
+            this.credentialsLoader = credentialsLoader;
+            return this;
+        }
+
+        /**
+         * STS endpoints to route the role assumption to. Without one a client for the region is used.
+         */
+        public VendingEngineBuilder stsEndpointSelector(StsEndpointSelector stsEndpointSelector) {
+            this.stsEndpointSelector = stsEndpointSelector;
+            return this;
+        }
+
+        public VendingEngineBuilder durationPolicy(DurationPolicy durationPolicy) {
+            this.durationPolicy = durationPolicy;
+            return this;
+        }
+
+        /**
+         * The issuers whose tokens are accepted. Without them every token is rejected.
+         */
+        public VendingEngineBuilder issuerRegistry(IssuerRegistry issuerRegistry) {
+            this.issuerRegistry = issuerRegistry;
+            return this;
+        }
+
+        public VendingEngineBuilder timeouts(VendingTimeouts timeouts) {
+            this.timeouts = timeouts;
+            return this;
+        }
+
+        /**
+         * Creates the policy generator for a vend, the policy stage sets its tenant.
+         */
+        public VendingEngineBuilder policyGenerator(Supplier<? extends PolicyGenerator> policyGenerator) {
+            this.policyGenerator = policyGenerator;
+            return this;
+        }
+
+        /**
+         * Replaces one of the built in stages, for example to add caching or batching around it.
+         */
+        public VendingEngineBuilder stage(StageName name, VendingStage stage) {
+            this.stages.put(name, stage);
+            return this;
+        }
+
+        /**
+         * Runs the stage on its own threads instead of the thread that completed the previous stage.
+         *
+         * @param threads       vends processed by the stage at the same time
+         * @param queueCapacity vends that can wait for the stage, further vends fail with a
+         *                      {@link PolicyAssumptionException}
+         */
+        public VendingEngineBuilder executor(StageName name, int threads, int queueCapacity) {
+            if (threads < 1 || queueCapacity < 1) {
+                throw new IllegalArgumentException("A stage needs at least one thread and room for one queued vend");
+            }
+            this.executors.put(name, new int[]{threads, queueCapacity});
+            return this;
+        }
+
+        public VendingEngine build() {
+            if (policyGenerator == null && !stages.containsKey(StageName.POLICY)) {
+                throw new IllegalStateException("A policy generator or a policy stage is required");
+            }
+            return new VendingEngine(this);
+        }
+    }
+}
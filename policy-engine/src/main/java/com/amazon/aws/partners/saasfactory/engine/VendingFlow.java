@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+/**
+ * Where a {@link VendingRequest} takes the tenant and the role from.
+ */
+public enum VendingFlow {
+    /**
+     * Tenant and role given by the caller.
+     */
+    TENANT,
+    /**
+     * Tenant in the claims of an API Gateway authorizer, role given by the caller.
+     */
+    AUTHORIZER,
+    /**
+     * Tenant in a verified JWT in the authorization header, role given by the caller.
+     */
+    JWT,
+    /**
+     * Like {@link #JWT}, without verifying the token.
+     */
+    JWT_UNVERIFIED,
+    /**
+     * Tenant and identity pool in a verified JWT, role and web identity token from the Cognito identity pool.
+     */
+    COGNITO_IDENTITY_POOL
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+/**
+ * What came of one request of a bulk vend: either the result or the exception the vend failed with. A failed vend
+ * does not end the stream, the remaining requests are still vended.
+ */
+public final class VendingOutcome {
+
+    private final VendingRequest request;
+    private final VendingResult result;
+    private final Throwable error;
+
+    private VendingOutcome(VendingRequest request, VendingResult result, Throwable error) {
+        this.request = request;
+        this.result = result;
+        this.error = error;
+    }
+
+    public static VendingOutcome success(VendingRequest request, VendingResult result) {
+        return new VendingOutcome(request, result, null);
+    }
+
+    public static VendingOutcome failure(VendingRequest request, Throwable error) {
+        return new VendingOutcome(request, null, error);
+    }
+
+    public VendingRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the result, null when the vend failed
+     */
+    public VendingResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return the exception the vend failed with, null when it succeeded
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
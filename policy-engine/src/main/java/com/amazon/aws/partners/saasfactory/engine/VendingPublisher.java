@@ -0,0 +1,281 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+import com.amazon.aws.partners.saasfactory.concurrent.VendingExecutors;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Vends a stream of requests through a {@link VendingEngine} and publishes an outcome for each of them, in the order
+ * the vends complete. At most {@code maxInFlight} requests are taken from the upstream publisher and not yet
+ * delivered at any time, whether they are still being vended or are waiting for the subscriber to request them, so
+ * a slow subscriber holds back the upstream rather than filling memory. Each subscription subscribes to the upstream
+ * publisher anew.
+ */
+public class VendingPublisher implements Publisher<VendingOutcome> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VendingPublisher.class);
+
+    private static final Executor DEFAULT_EXECUTOR = VendingExecutors.newVendingExecutor("bulk-vend");
+
+    private final VendingEngine engine;
+    private final Publisher<VendingRequest> requests;
+    private final int maxInFlight;
+    private final Executor executor;
+
+    public VendingPublisher(VendingPublisherBuilder builder) {
+        if (builder.engine == null || builder.requests == null) {
+            throw new IllegalArgumentException("A bulk vend needs an engine and the requests to vend.");
+        }
+        if (builder.maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1.");
+        }
+        this.engine = builder.engine;
+        this.requests = builder.requests;
+        this.maxInFlight = builder.maxInFlight;
+        this.executor = builder.executor;
+    }
+
+    public static VendingPublisherBuilder builder() {
+        return new VendingPublisherBuilder();
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super VendingOutcome> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        BulkVend bulkVend = new BulkVend(subscriber);
+        subscriber.onSubscribe(bulkVend);
+        requests.subscribe(bulkVend);
+    }
+
+    /**
+     * Subscribes to the requests and is the subscription of the outcomes. Every signal to the subscriber is sent
+     * from {@link #drain()}, which only ever runs on one thread at a time.
+     */
+    private final class BulkVend implements Subscription, Subscriber<VendingRequest> {
+        private final Subscriber<? super VendingOutcome> downstream;
+        private final Queue<VendingOutcome> ready = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger readyCount = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile Subscription upstream;
+        private volatile boolean upstreamDone;
+        private volatile Throwable upstreamError;
+        private volatile Throwable invalidRequest;
+        private volatile boolean cancelled;
+        private boolean terminated;
+
+        private BulkVend(Subscriber<? super VendingOutcome> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            if (upstream != null || cancelled) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            drain();
+        }
+
+        @Override
+        public void onNext(VendingRequest request) {
+            if (cancelled) {
+                return;
+            }
+            inFlight.incrementAndGet();
+            pending.decrementAndGet();
+            CompletableFuture.supplyAsync(() -> engine.vendAsync(request), executor)
+                    .thenCompose(Function.identity())
+                    .whenComplete((result, error) -> {
+                        ready.offer(error == null
+                                ? VendingOutcome.success(request, result)
+                                : VendingOutcome.failure(request, unwrap(error)));
+                        readyCount.incrementAndGet();
+                        inFlight.decrementAndGet();
+                        drain();
+                    });
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            upstreamError = error;
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested " + n + " outcomes, expected a positive number.");
+            } else {
+                requested.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Subscription subscription = upstream;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                if (terminated || cancelled) {
+                    ready.clear();
+                } else if (invalidRequest != null) {
+                    terminate(invalidRequest);
+                } else {
+                    emit();
+                    if (upstreamDone && inFlight.get() == 0 && readyCount.get() == 0) {
+                        terminate(upstreamError);
+                    } else {
+                        requestMore();
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            long demand = requested.get();
+            long emitted = 0;
+            while (emitted < demand && !cancelled) {
+                VendingOutcome outcome = ready.poll();
+                if (outcome == null) {
+                    break;
+                }
+                readyCount.decrementAndGet();
+                downstream.onNext(outcome);
+                emitted++;
+            }
+            if (emitted > 0 && demand != Long.MAX_VALUE) {
+                requested.addAndGet(-emitted);
+            }
+        }
+
+        private void requestMore() {
+            Subscription subscription = upstream;
+            if (subscription == null || upstreamDone) {
+                return;
+            }
+            // a request moves from pending to in flight to ready, each count is raised before the previous one is
+            // lowered, so the sum never undercounts and more than maxInFlight are never requested
+            int free = maxInFlight - pending.get() - inFlight.get() - readyCount.get();
+            if (free > 0) {
+                pending.addAndGet(free);
+                subscription.request(free);
+            }
+        }
+
+        private void terminate(Throwable error) {
+            terminated = true;
+            ready.clear();
+            if (error == null) {
+                downstream.onComplete();
+                return;
+            }
+            if (error == invalidRequest) {
+                cancel();
+            } else {
+                LOGGER.error("The requests of the bulk vend failed", error);
+            }
+            downstream.onError(error);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    public static final class VendingPublisherBuilder {
+        private VendingEngine engine;
+        private Publisher<VendingRequest> requests;
+        private int maxInFlight = 16;
+        private Executor executor = DEFAULT_EXECUTOR;
+
+        private VendingPublisherBuilder() {
+        }
+
+        public VendingPublisherBuilder engine(VendingEngine engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        public VendingPublisherBuilder requests(Publisher<VendingRequest> requests) {
+            this.requests = requests;
+            return this;
+        }
+
+        /**
+         * Requests taken from upstream and not yet delivered, which bounds both the concurrent vends and the
+         * outcomes held for the subscriber. The STS calls of those vends still pass through the credentials loader,
+         * so its guard and scheduler keep them within the STS quota.
+         */
+        public VendingPublisherBuilder maxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Starts the vends. Defaults to a {@link VendingExecutors#newVendingExecutor(String)}, which runs each vend
+         * on its own virtual thread on Java 21 and later.
+         */
+        public VendingPublisherBuilder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public VendingPublisher build() {
+            return new VendingPublisher(this);
+        }
+    }
+}
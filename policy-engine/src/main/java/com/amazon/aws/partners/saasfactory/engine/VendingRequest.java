@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * What to vend credentials for. Which of the fields are used depends on the {@link VendingFlow}.
+ */
+public final class VendingRequest {
+
+    private final VendingFlow flow;
+    private final Map<String, String> headers;
+    private final Map<String, Object> authorizer;
+    private final String role;
+    private final String tenant;
+    private final String tenantClaim;
+    private final String identityPoolClaim;
+    private final Deadline deadline;
+    private final boolean prewarm;
+
+    public VendingRequest(VendingRequestBuilder builder) {
+        this.flow = builder.flow;
+        this.headers = builder.headers;
+        this.authorizer = builder.authorizer;
+        this.role = builder.role;
+        this.tenant = builder.tenant;
+        this.tenantClaim = builder.tenantClaim;
+        this.identityPoolClaim = builder.identityPoolClaim;
+        this.deadline = builder.deadline;
+        this.prewarm = builder.prewarm;
+    }
+
+    public static VendingRequestBuilder builder() {
+        return new VendingRequestBuilder();
+    }
+
+    public VendingFlow getFlow() {
+        return flow;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public Map<String, Object> getAuthorizer() {
+        return authorizer;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public String getTenantClaim() {
+        return tenantClaim;
+    }
+
+    public String getIdentityPoolClaim() {
+        return identityPoolClaim;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return true for a vend made ahead of demand rather than for a request by the tenant
+     */
+    public boolean isPrewarm() {
+        return prewarm;
+    }
+
+    public static final class VendingRequestBuilder {
+        private VendingFlow flow = VendingFlow.JWT;
+        private Map<String, String> headers = Collections.emptyMap();
+        private Map<String, Object> authorizer = Collections.emptyMap();
+        private String role;
+        private String tenant;
+        private String tenantClaim = "custom:tenant_id";
+        private String identityPoolClaim = "custom:identity_pool";
+        private Deadline deadline = Deadline.none();
+        private boolean prewarm;
+
+        private VendingRequestBuilder() {
+        }
+
+        public VendingRequestBuilder flow(VendingFlow flow) {
+            this.flow = flow;
+            return this;
+        }
+
+        /**
+         * HTTP headers with the authorization header, for the JWT and Cognito identity pool flows.
+         */
+        public VendingRequestBuilder headers(Map<String, String> headers) {
+            this.headers = headers;
+            return this;
+        }
+
+        /**
+         * The API Gateway authorizer context, for the {@link VendingFlow#AUTHORIZER} flow.
+         */
+        public VendingRequestBuilder authorizer(Map<String, Object> authorizer) {
+            this.authorizer = authorizer;
+            return this;
+        }
+
+        public VendingRequestBuilder role(String role) {
+            this.role = role;
+            return this;
+        }
+
+        /**
+         * The tenant, for the {@link VendingFlow#TENANT} flow.
+         */
+        public VendingRequestBuilder tenant(String tenant) {
+            this.tenant = tenant;
+            return this;
+        }
+
+        public VendingRequestBuilder tenantClaim(String tenantClaim) {
+            this.tenantClaim = tenantClaim;
+            return this;
+        }
+
+        public VendingRequestBuilder identityPoolClaim(String identityPoolClaim) {
+            this.identityPoolClaim = identityPoolClaim;
+            return this;
+        }
+
+        public VendingRequestBuilder deadline(Deadline deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * Marks a vend made ahead of demand, which does not count towards the tenant's usage.
+         */
+        public VendingRequestBuilder prewarm(boolean prewarm) {
+            this.prewarm = prewarm;
+            return this;
+        }
+
+        public VendingRequest build() {
+            return new VendingRequest(this);
+        }
+    }
+}
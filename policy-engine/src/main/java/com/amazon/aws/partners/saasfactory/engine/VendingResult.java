@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The outcome of a vend: the scoped credentials and who they were vended for.
+ */
+public final class VendingResult {
+
+    private final AwsCredentialsProvider credentialsProvider;
+    private final String tenant;
+    private final String role;
+    private final Instant expiration;
+    private final Map<StageName, Duration> timings;
+    private final Duration elapsed;
+
+    public VendingResult(AwsCredentialsProvider credentialsProvider, String tenant, String role, Instant expiration,
+                         Map<StageName, Duration> timings, Duration elapsed) {
+        this.credentialsProvider = credentialsProvider;
+        this.tenant = tenant;
+        this.role = role;
+        this.expiration = expiration;
+        this.timings = timings.isEmpty()
+                ? Collections.emptyMap()
+                : Collections.unmodifiableMap(new EnumMap<>(timings));
+        this.elapsed = elapsed;
+    }
+
+    public AwsCredentialsProvider getCredentialsProvider() {
+        return credentialsProvider;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public Instant getExpiration() {
+        return expiration;
+    }
+
+    /**
+     * @return the time spent in each stage before the response stage
+     */
+    public Map<StageName, Duration> getTimings() {
+        return timings;
+    }
+
+    public Duration getElapsed() {
+        return elapsed;
+    }
+}
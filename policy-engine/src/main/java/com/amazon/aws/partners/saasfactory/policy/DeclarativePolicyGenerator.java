@@ -36,6 +36,8 @@ public class DeclarativePolicyGenerator implements PolicyGenerator {
 
     private final Map<String, String> data = new HashMap<>();
 
+    private PolicyCache cache = PolicyCache.global();
+
     public static DeclarativePolicyGenerator generator() {
         return new DeclarativePolicyGenerator();
     }
@@ -49,6 +51,14 @@ public class DeclarativePolicyGenerator implements PolicyGenerator {
         return this;
     }
 
+    /**
+     * Cache of rendered policies, {@link PolicyCache#global()} by default. Null renders the policy on every call.
+     */
+    public DeclarativePolicyGenerator cache(PolicyCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
     public DeclarativePolicyGenerator s3FolderPerTenant(String bucket) {
         templates.add("S3FolderPerTenantTemplate.json");
         data.put("bucket", bucket);
@@ -90,6 +100,13 @@ public class DeclarativePolicyGenerator implements PolicyGenerator {
         if(tenant == null || tenant.trim().equals("")) {
             throw new PolicyAssumptionException("A scoped policy must contain a tenant.");
         }
+        if (cache == null) {
+            return render();
+        }
+        return cache.get(templates, data, this::render);
+    }
+
+    private String render() {
         String statements = PolicyTemplateLoader.assemblePolicyTemplates(templates);
         PolicyTemplateProcessor policyTemplateProcessor = PolicyTemplateProcessor.builder()
                 .data(data)
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.policy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Rendered policies keyed by their templates, the values they were hydrated with and the {@link PolicyGenerations}
+ * generation of those templates and the tenant. Entries of an earlier generation are never returned again and are the
+ * first to go when the cache is full.
+ */
+public class PolicyCache {
+
+    private static final PolicyCache GLOBAL = PolicyCache.builder().build();
+
+    private final ConcurrentMap<Key, String> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final PolicyGenerations generations;
+
+    public PolicyCache(PolicyCacheBuilder builder) {
+        this.maxEntries = builder.maxEntries;
+        this.generations = builder.generations;
+    }
+
+    /**
+     * @return the cache used by policy generators that are not given one
+     */
+    public static PolicyCache global() {
+        return GLOBAL;
+    }
+
+    public static PolicyCacheBuilder builder() {
+        return new PolicyCacheBuilder();
+    }
+
+    /**
+     * @param templates the template sets the policy is rendered from
+     * @param data      the values the templates are hydrated with, including the tenant
+     * @param render    renders the policy on a miss
+     */
+    public String get(List<String> templates, Map<String, String> data, Supplier<String> render) {
+        Key key = new Key(new ArrayList<>(templates), new HashMap<>(data), generations.of(templates, data.get("tenant")));
+        String policy = entries.get(key);
+        if (policy == null) {
+            policy = render.get();
+            if (entries.size() >= maxEntries) {
+                evict();
+            }
+            entries.put(key, policy);
+        }
+        return policy;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void evict() {
+        entries.keySet().removeIf(key -> key.generation < generations.of(key.templates, key.data.get("tenant")));
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while (entries.size() >= maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static final class Key {
+        private final List<String> templates;
+        private final Map<String, String> data;
+        private final long generation;
+
+        private Key(List<String> templates, Map<String, String> data, long generation) {
+            this.templates = templates;
+            this.data = data;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return generation == that.generation && templates.equals(that.templates) && data.equals(that.data);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(templates, data, generation);
+        }
+    }
+
+    public static final class PolicyCacheBuilder {
+        private int maxEntries = 10_000;
+        private PolicyGenerations generations = PolicyGenerations.global();
+
+        private PolicyCacheBuilder() {
+        }
+
+        public PolicyCacheBuilder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public PolicyCacheBuilder generations(PolicyGenerations generations) {
+            this.generations = generations;
+            return this;
+        }
+
+        public PolicyCache build() {
+            return new PolicyCache(this);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.policy;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generation counters that let long lived caches of policies and credentials drop entries once the templates or the
+ * tenant's permissions they were built from change. Cache keys carry the generation current when the entry was built;
+ * invalidating a template set or tenant moves its generation on, so the old entries are simply no longer looked up
+ * and age out of their caches, without a flush.
+ *
+ * <p>Every invalidation takes its generation from one sequence, so the highest generation among the template sets and
+ * tenant an entry depends on changes whenever any of them is invalidated. That single number is all a key needs.
+ */
+public final class PolicyGenerations {
+
+    private static final PolicyGenerations GLOBAL = new PolicyGenerations();
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, Long> templateSets = new ConcurrentHashMap<>();
+    private final Map<String, Long> tenants = new ConcurrentHashMap<>();
+    private final AtomicLong all = new AtomicLong();
+
+    /**
+     * @return the generations used by the vendors and policy generators of this process
+     */
+    public static PolicyGenerations global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @return the generation of entries built for the tenant
+     */
+    public long tenant(String tenant) {
+        return Math.max(all.get(), tenant == null ? 0 : tenants.getOrDefault(tenant, 0L));
+    }
+
+    /**
+     * @return the generation of entries built from the template sets for the tenant
+     */
+    public long of(Collection<String> templateSets, String tenant) {
+        long generation = tenant(tenant);
+        for (String templateSet : templateSets) {
+            generation = Math.max(generation, this.templateSets.getOrDefault(templateSet, 0L));
+        }
+        return generation;
+    }
+
+    /**
+     * Drops the policies rendered from a template set, for example {@code S3FolderPerTenantTemplate.json}.
+     */
+    public void invalidateTemplateSet(String templateSet) {
+        templateSets.merge(templateSet, sequence.incrementAndGet(), Math::max);
+    }
+
+    /**
+     * Drops the policies and credentials of a tenant whose permissions changed.
+     */
+    public void invalidateTenant(String tenant) {
+        tenants.merge(tenant, sequence.incrementAndGet(), Math::max);
+    }
+
+    public void invalidateAll() {
+        all.accumulateAndGet(sequence.incrementAndGet(), Math::max);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.sts;
+
+import java.time.Clock;
+
+/**
+ * Token bucket whose refill rate adapts to throttling: every throttled call halves the rate and drains the bucket,
+ * every successful call raises the rate by a fixed step until the configured maximum is reached again.
+ */
+public class AdaptiveRateLimiter {
+
+    private final double minRate;
+    private final double maxRate;
+    private final double increaseStep;
+    private final double decreaseFactor;
+    private final double burst;
+    private final Clock clock;
+
+    private double rate;
+    private double tokens;
+    private long lastRefillMillis;
+
+    public AdaptiveRateLimiter(AdaptiveRateLimiterBuilder builder) {
+        this.minRate = builder.minRate;
+        this.maxRate = builder.maxRate;
+        this.increaseStep = builder.increaseStep;
+        this.decreaseFactor = builder.decreaseFactor;
+        this.burst = builder.burst;
+        this.clock = builder.clock;
+        this.rate = builder.maxRate;
+        this.tokens = builder.burst;
+        this.lastRefillMillis = clock.millis();
+    }
+
+    public static AdaptiveRateLimiterBuilder builder() {
+        return new AdaptiveRateLimiterBuilder();
+    }
+
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Waits for a permit for at most the given time.
+     *
+     * @return false if no permit became available in time
+     */
+    public boolean acquire(long maxWaitMillis) {
+        long deadline = clock.millis() + maxWaitMillis;
+        while (true) {
+            long waitMillis;
+            synchronized (this) {
+                refill();
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return true;
+                }
+                waitMillis = (long) Math.ceil((1 - tokens) / rate * 1000);
+            }
+            if (clock.millis() + waitMillis > deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(Math.max(1, waitMillis));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    public synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + increaseStep);
+    }
+
+    public synchronized void onThrottle() {
+        refill();
+        rate = Math.max(minRate, rate * decreaseFactor);
+        tokens = Math.min(tokens, 0);
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized double getAvailableTokens() {
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        long now = clock.millis();
+        long elapsed = now - lastRefillMillis;
+        if (elapsed > 0) {
+            tokens = Math.min(burst, tokens + elapsed * rate / 1000);
+            lastRefillMillis = now;
+        }
+    }
+
+    public static final class AdaptiveRateLimiterBuilder {
+        private double minRate = 1;
+        private double maxRate = 50;
+        private double increaseStep = 1;
+        private double decreaseFactor = 0.5;
+        private double burst = 50;
+        private Clock clock = Clock.systemUTC();
+
+        private AdaptiveRateLimiterBuilder() {
+        }
+
+        /**
+         * Floor, in permits per second, the rate never drops below however often STS throttles.
+         */
+        public AdaptiveRateLimiterBuilder minRate(double minRate) {
+            this.minRate = minRate;
+            return this;
+        }
+
+        /**
+         * Starting and highest rate, in permits per second.
+         */
+        public AdaptiveRateLimiterBuilder maxRate(double maxRate) {
+            this.maxRate = maxRate;
+            return this;
+        }
+
+        public AdaptiveRateLimiterBuilder increaseStep(double increaseStep) {
+            this.increaseStep = increaseStep;
+            return this;
+        }
+
+        public AdaptiveRateLimiterBuilder decreaseFactor(double decreaseFactor) {
+            this.decreaseFactor = decreaseFactor;
+            return this;
+        }
+
+        public AdaptiveRateLimiterBuilder burst(double burst) {
+            this.burst = burst;
+            return this;
+        }
+
+        public AdaptiveRateLimiterBuilder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public AdaptiveRateLimiter build() {
+            return new AdaptiveRateLimiter(this);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.sts;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window over the most recent latency samples, used to derive percentiles such as the hedging delay.
+ */
+public class LatencyWindow {
+
+    private final long[] samples;
+    private long count;
+
+    public LatencyWindow(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The window needs room for at least one sample.");
+        }
+        this.samples = new long[size];
+    }
+
+    public synchronized void record(long millis) {
+        samples[(int) (count % samples.length)] = millis;
+        count++;
+    }
+
+    /**
+     * @return the total number of samples recorded, including those that have left the window
+     */
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return the latency at the given percentile of the samples in the window, or 0 if there are none
+     */
+    public long percentile(double percentile) {
+        long[] window;
+        synchronized (this) {
+            window = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+        }
+        if (window.length == 0) {
+            return 0;
+        }
+        Arrays.sort(window);
+        int index = (int) Math.ceil(percentile * window.length) - 1;
+        return window[Math.max(0, Math.min(index, window.length - 1))];
+    }
+}
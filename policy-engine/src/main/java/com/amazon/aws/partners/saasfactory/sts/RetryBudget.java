@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.sts;
+
+import java.time.Clock;
+
+/**
+ * Caps the extra load that hedged and retried calls put on STS. Every original call deposits a fraction of a token,
+ * every hedge or retry withdraws a whole one, so extra calls stay within that fraction of the traffic. A small fixed
+ * allowance per second keeps retries possible while traffic is low.
+ */
+public class RetryBudget {
+
+    private final double ratio;
+    private final double maxBalance;
+    private final int minPerSecond;
+    private final Clock clock;
+
+    private double balance;
+    private int reserve;
+    private long reserveSecond;
+
+    public RetryBudget(RetryBudgetBuilder builder) {
+        this.ratio = builder.ratio;
+        this.maxBalance = builder.maxBalance;
+        this.minPerSecond = builder.minPerSecond;
+        this.clock = builder.clock;
+    }
+
+    public static RetryBudgetBuilder builder() {
+        return new RetryBudgetBuilder();
+    }
+
+    public synchronized void onRequest() {
+        balance = Math.min(maxBalance, balance + ratio);
+    }
+
+    /**
+     * @return true if an extra call may be made, in which case its cost has been withdrawn
+     */
+    public synchronized boolean tryWithdraw() {
+        long second = clock.millis() / 1000;
+        if (second != reserveSecond) {
+            reserveSecond = second;
+            reserve = minPerSecond;
+        }
+        if (reserve > 0) {
+            reserve--;
+            return true;
+        }
+        if (balance >= 1) {
+            balance -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized double getBalance() {
+        return balance;
+    }
+
+    public static final class RetryBudgetBuilder {
+        private double ratio = 0.1;
+        private double maxBalance = 100;
+        private int minPerSecond = 10;
+        private Clock clock = Clock.systemUTC();
+
+        private RetryBudgetBuilder() {
+        }
+
+        /**
+         * Extra calls allowed per original call, 0.1 allows one hedge or retry for every ten calls.
+         */
+        public RetryBudgetBuilder ratio(double ratio) {
+            this.ratio = ratio;
+            return this;
+        }
+
+        public RetryBudgetBuilder maxBalance(double maxBalance) {
+            this.maxBalance = maxBalance;
+            return this;
+        }
+
+        /**
+         * Extra calls allowed every second regardless of the traffic.
+         */
+        public RetryBudgetBuilder minPerSecond(int minPerSecond) {
+            this.minPerSecond = minPerSecond;
+            return this;
+        }
+
+        public RetryBudgetBuilder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public RetryBudget build() {
+            return new RetryBudget(this);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.sts;
+
+/**
+ * Point in time view of the calls made by a {@link StsRequestHedger} for one kind of attempt.
+ */
+public final class StsAttemptMetrics {
+
+    private final String attempt;
+    private final long count;
+    private final long failures;
+    private final long p50Millis;
+    private final long p95Millis;
+    private final long p99Millis;
+
+    public StsAttemptMetrics(String attempt, long count, long failures, long p50Millis, long p95Millis, long p99Millis) {
+        this.attempt = attempt;
+        this.count = count;
+        this.failures = failures;
+        this.p50Millis = p50Millis;
+        this.p95Millis = p95Millis;
+        this.p99Millis = p99Millis;
+    }
+
+    /**
+     * @return primary, hedge or retry
+     */
+    public String getAttempt() {
+        return attempt;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getP50Millis() {
+        return p50Millis;
+    }
+
+    public long getP95Millis() {
+        return p95Millis;
+    }
+
+    public long getP99Millis() {
+        return p99Millis;
+    }
+
+    @Override
+    public String toString() {
+        return "StsAttemptMetrics{attempt=" + attempt + ", count=" + count + ", failures=" + failures
+                + ", p50Millis=" + p50Millis + ", p95Millis=" + p95Millis + ", p99Millis=" + p99Millis + "}";
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.sts;
+
+/**
+ * Point in time view of a single endpoint of a {@link StsEndpointSelector}.
+ */
+public final class StsEndpointMetrics {
+
+    private final String name;
+    private final double latencyMillis;
+    private final double errorRate;
+    private final boolean healthy;
+
+    public StsEndpointMetrics(String name, double latencyMillis, double errorRate, boolean healthy) {
+        this.name = name;
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.healthy = healthy;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the moving average of the call latency, in milliseconds
+     */
+    public double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * @return the moving average of the share of failed calls, between 0 and 1
+     */
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    @Override
+    public String toString() {
+        return "StsEndpointMetrics{name=" + name + ", latencyMillis=" + latencyMillis + ", errorRate=" + errorRate
+                + ", healthy=" + healthy + "}";
+    }
+}
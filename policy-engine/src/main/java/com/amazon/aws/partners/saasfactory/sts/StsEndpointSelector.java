@@ -0,0 +1,301 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.sts;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sts.StsClient;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Routes STS calls to the best of several regional endpoints. Every endpoint keeps an exponentially weighted moving
+ * average of its latency and error rate, calls go to the healthy endpoint with the lowest score and fail over to the
+ * next one on server, throttling or network errors. An endpoint that fails repeatedly is taken out of rotation and
+ * receives a single probe call once its cooldown has passed, which puts it back on success.
+ */
+public class StsEndpointSelector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StsEndpointSelector.class);
+
+    private final List<Endpoint> endpoints;
+    private final double alpha;
+    private final int failureThreshold;
+    private final long cooldownMillis;
+    private final double explorationRatio;
+    private final Clock clock;
+
+    public StsEndpointSelector(StsEndpointSelectorBuilder builder) {
+        if (builder.clients.isEmpty()) {
+            throw new IllegalArgumentException("At least one STS endpoint is required.");
+        }
+        this.endpoints = builder.clients.entrySet().stream()
+                .map(entry -> new Endpoint(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+        this.alpha = builder.alpha;
+        this.failureThreshold = builder.failureThreshold;
+        this.cooldownMillis = builder.cooldown.toMillis();
+        this.explorationRatio = builder.explorationRatio;
+        this.clock = builder.clock;
+    }
+
+    public static StsEndpointSelectorBuilder builder() {
+        return new StsEndpointSelectorBuilder();
+    }
+
+    /**
+     * A selector over a single client, which keeps the metrics but has nothing to fail over to.
+     */
+    public static StsEndpointSelector single(StsClient sts) {
+        return builder().endpoint("default", sts).build();
+    }
+
+    public <T> T execute(Function<StsClient, T> call) {
+        RuntimeException lastError = null;
+        for (Endpoint endpoint : ranked()) {
+            long start = System.nanoTime();
+            try {
+                T result = call.apply(endpoint.client);
+                endpoint.onSuccess(elapsedMillis(start));
+                return result;
+            } catch (SdkServiceException e) {
+                if (!isFailover(e)) {
+                    endpoint.onSuccess(elapsedMillis(start));
+                    throw e;
+                }
+                endpoint.onFailure();
+                lastError = e;
+            } catch (SdkClientException e) {
+                endpoint.onFailure();
+                lastError = e;
+            } finally {
+                // any other exception, a deadline running out for one, leaves the endpoint's health as it was
+                endpoint.releaseProbe();
+            }
+            LOGGER.warn("STS endpoint {} failed, failing over", endpoint.name, lastError);
+        }
+        throw lastError;
+    }
+
+    public List<StsEndpointMetrics> metrics() {
+        return endpoints.stream()
+                .map(Endpoint::metrics)
+                .collect(Collectors.toList());
+    }
+
+    List<Endpoint> ranked() {
+        long now = clock.millis();
+        List<Endpoint> healthy = new ArrayList<>();
+        List<Endpoint> unhealthy = new ArrayList<>();
+        Endpoint probe = null;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isHealthy()) {
+                healthy.add(endpoint);
+            } else if (probe == null && endpoint.tryStartProbe(now)) {
+                probe = endpoint;
+            } else {
+                unhealthy.add(endpoint);
+            }
+        }
+        healthy.sort(Comparator.comparingDouble(Endpoint::score));
+        if (healthy.size() > 1 && ThreadLocalRandom.current().nextDouble() < explorationRatio) {
+            healthy.add(0, healthy.remove(1 + ThreadLocalRandom.current().nextInt(healthy.size() - 1)));
+        }
+        unhealthy.sort(Comparator.comparingLong(Endpoint::failedAt));
+        List<Endpoint> ranked = new ArrayList<>(endpoints.size());
+        if (probe != null) {
+            ranked.add(probe);
+        }
+        ranked.addAll(healthy);
+        ranked.addAll(unhealthy);
+        return ranked;
+    }
+
+    private static boolean isFailover(SdkServiceException e) {
+        return e.statusCode() >= 500 || e.isThrottlingException();
+    }
+
+    private static double elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000.0;
+    }
+
+    final class Endpoint {
+        private final String name;
+        private final StsClient client;
+        private double latencyMillis;
+        private double errorRate;
+        private int consecutiveFailures;
+        private long failedAtMillis;
+        private boolean probing;
+
+        Endpoint(String name, StsClient client) {
+            this.name = name;
+            this.client = client;
+        }
+
+        synchronized boolean isHealthy() {
+            return consecutiveFailures < failureThreshold;
+        }
+
+        synchronized boolean tryStartProbe(long now) {
+            if (probing || now - failedAtMillis < cooldownMillis) {
+                return false;
+            }
+            probing = true;
+            return true;
+        }
+
+        synchronized double score() {
+            return latencyMillis * (1 + 10 * errorRate);
+        }
+
+        synchronized long failedAt() {
+            return failedAtMillis;
+        }
+
+        synchronized void onSuccess(double elapsedMillis) {
+            latencyMillis = latencyMillis == 0 ? elapsedMillis : alpha * elapsedMillis + (1 - alpha) * latencyMillis;
+            errorRate = (1 - alpha) * errorRate;
+            if (consecutiveFailures >= failureThreshold) {
+                LOGGER.info("STS endpoint {} is healthy again", name);
+            }
+            consecutiveFailures = 0;
+            probing = false;
+        }
+
+        synchronized void onFailure() {
+            errorRate = alpha + (1 - alpha) * errorRate;
+            consecutiveFailures++;
+            failedAtMillis = clock.millis();
+            probing = false;
+        }
+
+        synchronized void releaseProbe() {
+            probing = false;
+        }
+
+        synchronized StsEndpointMetrics metrics() {
+            return new StsEndpointMetrics(name, latencyMillis, errorRate, isHealthy());
+        }
+    }
+
+    public static final class StsEndpointSelectorBuilder {
+        private final Map<String, StsClient> clients = new LinkedHashMap<>();
+        private final List<Region> regions = new ArrayList<>();
+        private RetryPolicy retryPolicy;
+        private double alpha = 0.2;
+        private int failureThreshold = 3;
+        private Duration cooldown = Duration.ofSeconds(30);
+        private double explorationRatio = 0.05;
+        private Clock clock = Clock.systemUTC();
+
+        private StsEndpointSelectorBuilder() {
+        }
+
+        public StsEndpointSelectorBuilder endpoint(String name, StsClient client) {
+            clients.put(name, client);
+            return this;
+        }
+
+        /**
+         * Adds the regional STS endpoint of every region, with the same client configuration the vendors use.
+         */
+        public StsEndpointSelectorBuilder regions(Collection<Region> regions) {
+            this.regions.addAll(regions);
+            return this;
+        }
+
+        /**
+         * Retry policy of the clients created for {@link #regions(Collection)}, the SDK default when not set. Use
+         * {@link RetryPolicy#none()} when a {@link StsRequestHedger} does the retrying.
+         */
+        public StsEndpointSelectorBuilder retryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Weight of the newest sample in the latency and error rate averages.
+         */
+        public StsEndpointSelectorBuilder alpha(double alpha) {
+            this.alpha = alpha;
+            return this;
+        }
+
+        /**
+         * Consecutive failures after which an endpoint is taken out of rotation.
+         */
+        public StsEndpointSelectorBuilder failureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * How long an unhealthy endpoint waits before it is probed again.
+         */
+        public StsEndpointSelectorBuilder cooldown(Duration cooldown) {
+            this.cooldown = cooldown;
+            return this;
+        }
+
+        /**
+         * Share of calls sent to a healthy endpoint other than the best one, to keep its latency estimate current.
+         */
+        public StsEndpointSelectorBuilder explorationRatio(double explorationRatio) {
+            this.explorationRatio = explorationRatio;
+            return this;
+        }
+
+        public StsEndpointSelectorBuilder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public StsEndpointSelector build() {
+            for (Region region : regions) {
+                clients.putIfAbsent(region.id(), StsClient.builder()
+                        .region(region)
+                        .httpClientBuilder(UrlConnectionHttpClient.builder())
+                        .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                        .overrideConfiguration(config -> {
+                            if (retryPolicy != null) {
+                                config.retryPolicy(retryPolicy);
+                            }
+                        })
+                        .build());
+            }
+            return new StsEndpointSelector(this);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.sts;
+
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsKey;
+import com.amazon.aws.partners.saasfactory.exception.StsThrottledException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Client side protection for STS. Every role ARN, which names both the account and the role, gets its own
+ * {@link AdaptiveRateLimiter} and {@link CircuitBreaker}. Throttling responses slow the limiter down, throttling,
+ * server and network errors count against the breaker, and while a breaker is open calls fail fast with a
+ * {@link StsThrottledException} instead of adding to the load.
+ */
+public class StsGuard {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StsGuard.class);
+
+    private final ConcurrentMap<String, RoleGuard> guards = new ConcurrentHashMap<>();
+    private final Supplier<AdaptiveRateLimiter> rateLimiterFactory;
+    private final Supplier<CircuitBreaker> circuitBreakerFactory;
+    private final long maxWaitMillis;
+
+    public StsGuard(StsGuardBuilder builder) {
+        this.rateLimiterFactory = builder.rateLimiterFactory;
+        this.circuitBreakerFactory = builder.circuitBreakerFactory;
+        this.maxWaitMillis = builder.maxWaitMillis;
+    }
+
+    public static StsGuardBuilder builder() {
+        return new StsGuardBuilder();
+    }
+
+    public Credentials call(CredentialsKey key, Supplier<Credentials> stsCall) {
+        RoleGuard guard = guards.computeIfAbsent(key.getRole(), role -> new RoleGuard(role,
+                rateLimiterFactory.get(), circuitBreakerFactory.get()));
+        // the breaker goes first, so a call it turns away neither waits for nor spends a rate limiter token
+        if (!guard.breaker.allowRequest()) {
+            guard.rejected.incrementAndGet();
+            throw new StsThrottledException("STS circuit is open for role " + key.getRole());
+        }
+        if (!guard.limiter.acquire(maxWaitMillis)) {
+            guard.breaker.releaseProbe();
+            guard.rejected.incrementAndGet();
+            throw new StsThrottledException("STS rate limit exceeded for role " + key.getRole());
+        }
+        try {
+            Credentials credentials = stsCall.get();
+            guard.limiter.onSuccess();
+            guard.breaker.onSuccess();
+            return credentials;
+        } catch (SdkServiceException e) {
+            if (isThrottling(e)) {
+                guard.throttled.incrementAndGet();
+                guard.limiter.onThrottle();
+                onFailure(guard);
+            } else if (e.statusCode() >= 500) {
+                onFailure(guard);
+            } else {
+                // the request was rejected on its own merits, STS itself is healthy
+                guard.breaker.onSuccess();
+            }
+            throw e;
+        } catch (SdkClientException e) {
+            onFailure(guard);
+            throw e;
+        } catch (RuntimeException | Error e) {
+            // STS was not reached, or did not answer with an error, so this says nothing about its health
+            guard.breaker.releaseProbe();
+            throw e;
+        }
+    }
+
+    public List<StsGuardMetrics> metrics() {
+        return guards.values().stream()
+                .map(guard -> new StsGuardMetrics(guard.role, guard.breaker.getState(), guard.limiter.getRate(),
+                        guard.limiter.getAvailableTokens(), guard.throttled.get(), guard.rejected.get()))
+                .collect(Collectors.toList());
+    }
+
+    public static boolean isThrottling(Throwable error) {
+        return error instanceof SdkServiceException && ((SdkServiceException) error).isThrottlingException();
+    }
+
+    private void onFailure(RoleGuard guard) {
+        CircuitBreaker.State before = guard.breaker.getState();
+        guard.breaker.onFailure();
+        if (before != CircuitBreaker.State.OPEN && guard.breaker.getState() == CircuitBreaker.State.OPEN) {
+            LOGGER.error("STS circuit opened for role {}", guard.role);
+        }
+    }
+
+    private static final class RoleGuard {
+        private final String role;
+        private final AdaptiveRateLimiter limiter;
+        private final CircuitBreaker breaker;
+        private final AtomicLong throttled = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+
+        private RoleGuard(String role, AdaptiveRateLimiter limiter, CircuitBreaker breaker) {
+            this.role = role;
+            this.limiter = limiter;
+            this.breaker = breaker;
+        }
+    }
+
+    public static final class StsGuardBuilder {
+        private Supplier<AdaptiveRateLimiter> rateLimiterFactory = () -> AdaptiveRateLimiter.builder().build();
+        private Supplier<CircuitBreaker> circuitBreakerFactory = () -> CircuitBreaker.builder().build();
+        private long maxWaitMillis = 1_000;
+
+        private StsGuardBuilder() {
+        }
+
+        /**
+         * Creates the rate limiter for each newly seen role.
+         */
+        public StsGuardBuilder rateLimiter(Supplier<AdaptiveRateLimiter> rateLimiterFactory) {
+            this.rateLimiterFactory = rateLimiterFactory;
+            return this;
+        }
+
+        /**
+         * Creates the circuit breaker for each newly seen role.
+         */
+        public StsGuardBuilder circuitBreaker(Supplier<CircuitBreaker> circuitBreakerFactory) {
+            this.circuitBreakerFactory = circuitBreakerFactory;
+            return this;
+        }
+
+        /**
+         * How long a call may wait for a rate limiter permit before it is rejected.
+         */
+        public StsGuardBuilder maxWaitMillis(long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        public StsGuard build() {
+            return new StsGuard(this);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.sts;
+
+/**
+ * Point in time view of the {@link StsGuard} state for a single role.
+ */
+public final class StsGuardMetrics {
+
+    private final String role;
+    private final CircuitBreaker.State circuitState;
+    private final double rate;
+    private final double availableTokens;
+    private final long throttledCount;
+    private final long rejectedCount;
+
+    public StsGuardMetrics(String role, CircuitBreaker.State circuitState, double rate, double availableTokens,
+                           long throttledCount, long rejectedCount) {
+        this.role = role;
+        this.circuitState = circuitState;
+        this.rate = rate;
+        this.availableTokens = availableTokens;
+        this.throttledCount = throttledCount;
+        this.rejectedCount = rejectedCount;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public CircuitBreaker.State getCircuitState() {
+        return circuitState;
+    }
+
+    /**
+     * @return the current refill rate of the rate limiter, in calls per second
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    public double getAvailableTokens() {
+        return availableTokens;
+    }
+
+    /**
+     * @return the number of calls STS answered with a throttling error
+     */
+    public long getThrottledCount() {
+        return throttledCount;
+    }
+
+    /**
+     * @return the number of calls failed fast by the rate limiter or circuit breaker
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    @Override
+    public String toString() {
+        return "StsGuardMetrics{role=" + role + ", circuitState=" + circuitState + ", rate=" + rate
+                + ", availableTokens=" + availableTokens + ", throttledCount=" + throttledCount
+                + ", rejectedCount=" + rejectedCount + "}";
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.sts;
+
+import java.util.List;
+
+/**
+ * Point in time view of a {@link StsRequestHedger}.
+ */
+public final class StsHedgingMetrics {
+
+    private final long hedgeDelayMillis;
+    private final long hedges;
+    private final long hedgeWins;
+    private final long retries;
+    private final long budgetExhausted;
+    private final List<StsAttemptMetrics> attempts;
+
+    public StsHedgingMetrics(long hedgeDelayMillis, long hedges, long hedgeWins, long retries, long budgetExhausted,
+                             List<StsAttemptMetrics> attempts) {
+        this.hedgeDelayMillis = hedgeDelayMillis;
+        this.hedges = hedges;
+        this.hedgeWins = hedgeWins;
+        this.retries = retries;
+        this.budgetExhausted = budgetExhausted;
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return how long the next call will wait for its first attempt before sending a hedge
+     */
+    public long getHedgeDelayMillis() {
+        return hedgeDelayMillis;
+    }
+
+    public long getHedges() {
+        return hedges;
+    }
+
+    /**
+     * @return the number of hedges that returned before the attempt they were hedging
+     */
+    public long getHedgeWins() {
+        return hedgeWins;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return the number of hedges and retries skipped because the retry budget was used up
+     */
+    public long getBudgetExhausted() {
+        return budgetExhausted;
+    }
+
+    public List<StsAttemptMetrics> getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public String toString() {
+        return "StsHedgingMetrics{hedgeDelayMillis=" + hedgeDelayMillis + ", hedges=" + hedges
+                + ", hedgeWins=" + hedgeWins + ", retries=" + retries + ", budgetExhausted=" + budgetExhausted
+                + ", attempts=" + attempts + "}";
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.sts;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingExecutors;
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import com.amazon.aws.partners.saasfactory.exception.PolicyAssumptionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cuts the tail latency of STS calls. When an attempt has not returned within the recent p95 latency a second, hedged
+ * attempt is sent and whichever returns first wins. Attempts that fail with a server, throttling or network error are
+ * retried with full jitter exponential backoff. Hedges and retries both draw from a {@link RetryBudget}, so they cannot
+ * multiply the load on STS while it is struggling.
+ * <p>
+ * The losing attempt is not interrupted, as that would be counted as a network failure by the endpoint selector and
+ * the circuit breaker. Its result is discarded.
+ */
+public class StsRequestHedger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StsRequestHedger.class);
+
+    private final ExecutorService executor;
+    private final RetryBudget retryBudget;
+    private final double percentile;
+    private final long initialDelayMillis;
+    private final long minDelayMillis;
+    private final long maxDelayMillis;
+    private final int minSamples;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private final LatencyWindow latencies;
+    private final Attempt primary;
+    private final Attempt hedge;
+    private final Attempt retry;
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    public StsRequestHedger(StsRequestHedgerBuilder builder) {
+        this.executor = builder.executor != null
+                ? builder.executor
+                : VendingExecutors.newVendingExecutor("sts-hedge");
+        this.retryBudget = builder.retryBudget != null ? builder.retryBudget : RetryBudget.builder().build();
+        this.percentile = builder.percentile;
+        this.initialDelayMillis = builder.initialDelay.toMillis();
+        this.minDelayMillis = builder.minDelay.toMillis();
+        this.maxDelayMillis = builder.maxDelay.toMillis();
+        this.minSamples = builder.minSamples;
+        this.maxAttempts = builder.maxAttempts;
+        this.baseBackoffMillis = builder.baseBackoff.toMillis();
+        this.maxBackoffMillis = builder.maxBackoff.toMillis();
+        this.latencies = new LatencyWindow(builder.windowSize);
+        this.primary = new Attempt("primary", builder.windowSize);
+        this.hedge = new Attempt("hedge", builder.windowSize);
+        this.retry = new Attempt("retry", builder.windowSize);
+    }
+
+    public static StsRequestHedgerBuilder builder() {
+        return new StsRequestHedgerBuilder();
+    }
+
+    public <T> T execute(Supplier<T> call) {
+        return execute(call, Deadline.none());
+    }
+
+    /**
+     * @throws DeadlineExceededException if a retry is due but the deadline passes before its backoff is over
+     */
+    public <T> T execute(Supplier<T> call, Deadline deadline) {
+        retryBudget.onRequest();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return hedged(call, attempt == 1 ? primary : retry);
+            } catch (RuntimeException e) {
+                if (!isRetryable(e) || attempt >= maxAttempts) {
+                    throw e;
+                }
+                if (!retryBudget.tryWithdraw()) {
+                    budgetExhausted.incrementAndGet();
+                    throw e;
+                }
+                long backoff = backoffMillis(attempt);
+                if (backoff >= deadline.remainingMillis()) {
+                    throw new DeadlineExceededException("No time left to retry the STS call.", e);
+                }
+                retries.incrementAndGet();
+                LOGGER.warn("STS call failed, retrying in {} ms", backoff, e);
+                sleep(backoff);
+            }
+        }
+    }
+
+    /**
+     * @return how long an attempt may take before it is hedged, the configured percentile of recent latencies once
+     * enough calls have been seen
+     */
+    public long hedgeDelayMillis() {
+        if (latencies.count() < minSamples) {
+            return initialDelayMillis;
+        }
+        return Math.max(minDelayMillis, Math.min(maxDelayMillis, latencies.percentile(percentile)));
+    }
+
+    public StsHedgingMetrics metrics() {
+        List<StsAttemptMetrics> attempts = new ArrayList<>();
+        attempts.add(primary.metrics());
+        attempts.add(hedge.metrics());
+        attempts.add(retry.metrics());
+        return new StsHedgingMetrics(hedgeDelayMillis(), hedges.get(), hedgeWins.get(), retries.get(),
+                budgetExhausted.get(), attempts);
+    }
+
+    private <T> T hedged(Supplier<T> call, Attempt first) {
+        CompletableFuture<Outcome<T>> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        List<Future<?>> attempts = new ArrayList<>(2);
+        attempts.add(submit(call, first, result, pending));
+        try {
+            Outcome<T> outcome;
+            try {
+                outcome = result.get(hedgeDelayMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (retryBudget.tryWithdraw()) {
+                    hedges.incrementAndGet();
+                    pending.incrementAndGet();
+                    attempts.add(submit(call, hedge, result, pending));
+                } else {
+                    budgetExhausted.incrementAndGet();
+                }
+                outcome = result.get();
+            }
+            if (outcome.attempt == hedge) {
+                hedgeWins.incrementAndGet();
+            }
+            return outcome.value;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new PolicyAssumptionException("STS call failed.", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PolicyAssumptionException("Interrupted while waiting for STS.", e);
+        } finally {
+            attempts.forEach(attempt -> attempt.cancel(false));
+        }
+    }
+
+    private <T> Future<?> submit(Supplier<T> call, Attempt attempt, CompletableFuture<Outcome<T>> result,
+                                 AtomicInteger pending) {
+        return executor.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                T value = call.get();
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                attempt.onSuccess(elapsed);
+                latencies.record(elapsed);
+                result.complete(new Outcome<>(value, attempt));
+            } catch (RuntimeException | Error e) {
+                attempt.onFailure();
+                if (pending.decrementAndGet() == 0) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    private long backoffMillis(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static boolean isRetryable(Throwable e) {
+        if (e instanceof SdkServiceException) {
+            SdkServiceException serviceException = (SdkServiceException) e;
+            return serviceException.statusCode() >= 500 || serviceException.isThrottlingException();
+        }
+        return e instanceof SdkClientException;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PolicyAssumptionException("Interrupted while backing off from STS.", e);
+        }
+    }
+
+    private static final class Outcome<T> {
+        private final T value;
+        private final Attempt attempt;
+
+        private Outcome(T value, Attempt attempt) {
+            this.value = value;
+            this.attempt = attempt;
+        }
+    }
+
+    private static final class Attempt {
+        private final String name;
+        private final LatencyWindow latencies;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+
+        private Attempt(String name, int windowSize) {
+            this.name = name;
+            this.latencies = new LatencyWindow(windowSize);
+        }
+
+        private void onSuccess(long elapsedMillis) {
+            count.incrementAndGet();
+            latencies.record(elapsedMillis);
+        }
+
+        private void onFailure() {
+            count.incrementAndGet();
+            failures.incrementAndGet();
+        }
+
+        private StsAttemptMetrics metrics() {
+            return new StsAttemptMetrics(name, count.get(), failures.get(), latencies.percentile(0.5),
+                    latencies.percentile(0.95), latencies.percentile(0.99));
+        }
+    }
+
+    public static final class StsRequestHedgerBuilder {
+        private ExecutorService executor;
+        private RetryBudget retryBudget;
+        private double percentile = 0.95;
+        private Duration initialDelay = Duration.ofSeconds(1);
+        private Duration minDelay = Duration.ofMillis(20);
+        private Duration maxDelay = Duration.ofSeconds(5);
+        private int minSamples = 20;
+        private int windowSize = 512;
+        private int maxAttempts = 3;
+        private Duration baseBackoff = Duration.ofMillis(50);
+        private Duration maxBackoff = Duration.ofSeconds(2);
+
+        private StsRequestHedgerBuilder() {
+        }
+
+        /**
+         * Executor the attempts run on, by default one from {@link VendingExecutors}.
+         */
+        public StsRequestHedgerBuilder executor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public StsRequestHedgerBuilder retryBudget(RetryBudget retryBudget) {
+            this.retryBudget = retryBudget;
+            return this;
+        }
+
+        /**
+         * Latency percentile after which an attempt is hedged.
+         */
+        public StsRequestHedgerBuilder percentile(double percentile) {
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * Hedging delay used until {@code minSamples} calls have been measured.
+         */
+        public StsRequestHedgerBuilder initialDelay(Duration initialDelay) {
+            this.initialDelay = initialDelay;
+            return this;
+        }
+
+        public StsRequestHedgerBuilder minDelay(Duration minDelay) {
+            this.minDelay = minDelay;
+            return this;
+        }
+
+        public StsRequestHedgerBuilder maxDelay(Duration maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        public StsRequestHedgerBuilder minSamples(int minSamples) {
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * Number of recent calls the latency percentiles are computed over.
+         */
+        public StsRequestHedgerBuilder windowSize(int windowSize) {
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        /**
+         * Attempts per call including the first one, hedges are not counted.
+         */
+        public StsRequestHedgerBuilder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Backoff ceiling of the first retry, doubled for every further retry.
+         */
+        public StsRequestHedgerBuilder baseBackoff(Duration baseBackoff) {
+            this.baseBackoff = baseBackoff;
+            return this;
+        }
+
+        public StsRequestHedgerBuilder maxBackoff(Duration maxBackoff) {
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        public StsRequestHedger build() {
+            return new StsRequestHedger(this);
+        }
+    }
+}
@@ -18,25 +18,30 @@
 package com.amazon.aws.partners.saasfactory.token;
 
 import com.amazon.aws.partners.saasfactory.cognito.CognitoClaims;
+import com.amazon.aws.partners.saasfactory.cognito.CognitoIdentity;
 import com.amazon.aws.partners.saasfactory.cognito.CognitoWebIdentityManager;
+import com.amazon.aws.partners.saasfactory.cognito.IssuerRegistry;
 import com.amazon.aws.partners.saasfactory.cognito.JwtClaimsExtractor;
-import com.amazon.aws.partners.saasfactory.exception.PolicyAssumptionException;
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.concurrent.Futures;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingTimeouts;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsLoader;
+import com.amazon.aws.partners.saasfactory.credentials.DurationPolicy;
+import com.amazon.aws.partners.saasfactory.credentials.FixedDurationPolicy;
+import com.amazon.aws.partners.saasfactory.engine.CredentialAcquisitionStage;
 import com.amazon.aws.partners.saasfactory.policy.PolicyGenerator;
-import io.jsonwebtoken.ExpiredJwtException;
+import com.amazon.aws.partners.saasfactory.sts.StsEndpointSelector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
-import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.core.exception.SdkServiceException;
-import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.sts.StsClient;
-import software.amazon.awssdk.services.sts.model.AssumeRoleWithWebIdentityResponse;
 import software.amazon.awssdk.services.sts.model.Credentials;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class CognitoTokenVendor {
 
@@ -45,43 +50,40 @@ public class CognitoTokenVendor {
     private static final String TENANT_CLAIM = "custom:tenant_id";
     private static final String COGNITO_IDENTITY_POOL_CLAIM = "custom:identity_pool";
 
-    private final StsClient sts;
+    private final CredentialAcquisitionStage credentialAcquisition;
     private String tenant;
     private final Region region;
-    private final int durationSeconds;
     private final PolicyGenerator policyGenerator;
+    private final Deadline deadline;
+    private final VendingTimeouts timeouts;
+    private final IssuerRegistry issuerRegistry;
     private final Map<String, String> headers;
 
     public CognitoTokenVendor(CognitoTokenVendorBuilder builder) {
-        this.durationSeconds = builder.durationSeconds;
         this.policyGenerator = builder.policyGenerator;
+        this.deadline = builder.deadline;
+        this.timeouts = builder.timeouts;
         this.region = builder.region;
+        this.issuerRegistry = builder.issuerRegistry;
         this.headers = builder.headers;
 
-        this.sts = StsClient.builder()
+        this.credentialAcquisition = CredentialAcquisitionStage.builder()
                 .region(region)
-                .httpClientBuilder(UrlConnectionHttpClient.builder())
-                .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .credentialsLoader(builder.credentialsLoader)
+                .stsEndpointSelector(builder.stsEndpointSelector)
+                .durationPolicy(builder.durationPolicy)
+                .timeouts(builder.timeouts)
                 .build();
     }
 
     public AwsCredentialsProvider vendToken() {
 
-        JwtClaimsExtractor jwtClaimsExtractor = new JwtClaimsExtractor();
+        JwtClaimsExtractor jwtClaimsExtractor = new JwtClaimsExtractor(deadline, timeouts, issuerRegistry);
         CognitoClaims cognitoClaims = jwtClaimsExtractor.getClaims(headers, TENANT_CLAIM, COGNITO_IDENTITY_POOL_CLAIM);
 
-        String identityPool;
-        Map<String, String> providerLogins;
-
-        try {
-            identityPool = cognitoClaims.getIdentityPool();
-            providerLogins = cognitoClaims.getProviderLogins();
-            this.tenant = cognitoClaims.getTenant();
-            LOGGER.info("Injecting tenant {} from JWT.", tenant);
-        } catch (ExpiredJwtException e) {
-            LOGGER.info("Using an expired JWT Token.", e);
-            throw new PolicyAssumptionException("Unable to verify your identity.");
-        }
+        String identityPool = cognitoClaims.getIdentityPool();
+        Map<String, String> providerLogins = cognitoClaims.getProviderLogins();
+        this.tenant = cognitoClaims.getTenant();
 
         LOGGER.info("Injecting tenant {} from JWT.", tenant);
 
@@ -89,14 +91,21 @@ public class CognitoTokenVendor {
                 .region(region)
                 .identityPool(identityPool)
                 .providerLogins(providerLogins)
+                .subject(cognitoClaims.getSubject())
+                .deadline(deadline)
+                .timeouts(timeouts)
                 .build();
 
-        String openIdToken = cognitoWebIdentityManager.getOpenIdToken();
-        String role = cognitoWebIdentityManager.getIdentityPoolAuthRole();
+        // the identity pool calls and the policy do not depend on each other
+        CompletableFuture<CognitoIdentity> identity = cognitoWebIdentityManager.resolveAsync();
 
         policyGenerator.tenant(this.tenant);
         String scopedPolicy = policyGenerator.generatePolicy();
 
+        CognitoIdentity resolved = Futures.join(identity);
+        String openIdToken = resolved.getOpenIdToken();
+        String role = resolved.getRole();
+
         return getCredentialsForTenant(scopedPolicy, role, tenant, openIdToken);
     }
 
@@ -107,20 +116,9 @@ public class CognitoTokenVendor {
 
         StaticCredentialsProvider credentialsProvider;
         Credentials scopedCredentials;
-        if(scopedPolicy == null || scopedPolicy.trim().isEmpty()) {
-            LOGGER.info("CognitoTokenVendor::Attempting to assumeRole with empty policy, should not happen!");
-            throw new PolicyAssumptionException("Missing or empty policy, cannot allow access.");
-        }
         try {
-            AssumeRoleWithWebIdentityResponse assumeRoleResponse = sts.assumeRoleWithWebIdentity(assumeRoleReq -> assumeRoleReq
-                    .webIdentityToken(openIdToken)
-                    .durationSeconds(durationSeconds)
-                    .policy(scopedPolicy)
-                    .roleArn(role)
-                    .roleSessionName(tenant)
-            );
+            scopedCredentials = credentialAcquisition.acquire(role, tenant, scopedPolicy, openIdToken, deadline);
 
-            scopedCredentials = assumeRoleResponse.credentials();
             credentialsProvider = StaticCredentialsProvider.create(
                     AwsSessionCredentials.create(scopedCredentials.accessKeyId(), scopedCredentials.secretAccessKey(), scopedCredentials.sessionToken())
             );
@@ -142,8 +140,13 @@ public class CognitoTokenVendor {
 
     public static final class CognitoTokenVendorBuilder {
         private Region region;
-        private int durationSeconds;
+        private DurationPolicy durationPolicy = new FixedDurationPolicy(DurationPolicy.MIN_DURATION_SECONDS);
         private PolicyGenerator policyGenerator;
+        private CredentialsLoader credentialsLoader = CredentialsLoader.defaultLoader();
+        private StsEndpointSelector stsEndpointSelector;
+        private Deadline deadline = Deadline.none();
+        private VendingTimeouts timeouts = VendingTimeouts.defaults();
+        private IssuerRegistry issuerRegistry = IssuerRegistry.defaultRegistry();
         private Map<String, String> headers;
 
         private CognitoTokenVendorBuilder() {
@@ -160,7 +163,15 @@ public class CognitoTokenVendor {
         }
 
         public CognitoTokenVendorBuilder durationSeconds(int durationSeconds) {
-            this.durationSeconds = durationSeconds;
+            this.durationPolicy = new FixedDurationPolicy(durationSeconds);
+            return this;
+        }
+
+        /**
+         * Decides the session duration per tenant, replaces a fixed {@link #durationSeconds(int)}.
+         */
+        public CognitoTokenVendorBuilder durationPolicy(DurationPolicy durationPolicy) {
+            this.durationPolicy = durationPolicy;
             return this;
         }
 
@@ -169,6 +180,40 @@ public class CognitoTokenVendor {
             return this;
         }
 
+        public CognitoTokenVendorBuilder credentialsLoader(CredentialsLoader credentialsLoader) {
+            this.credentialsLoader = credentialsLoader;
+            return this;
+        }
+
+        /**
+         * STS endpoints to route the role assumption to. Without one the vendor uses a client for its region.
+         */
+        public CognitoTokenVendorBuilder stsEndpointSelector(StsEndpointSelector stsEndpointSelector) {
+            this.stsEndpointSelector = stsEndpointSelector;
+            return this;
+        }
+
+        /**
+         * Time by which the vend has to complete. Phases that cannot complete in time are not started.
+         */
+        public CognitoTokenVendorBuilder deadline(Deadline deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * The user pools whose tokens are accepted. Without them every token is rejected.
+         */
+        public CognitoTokenVendorBuilder issuerRegistry(IssuerRegistry issuerRegistry) {
+            this.issuerRegistry = issuerRegistry;
+            return this;
+        }
+
+        public CognitoTokenVendorBuilder timeouts(VendingTimeouts timeouts) {
+            this.timeouts = timeouts;
+            return this;
+        }
+
         public CognitoTokenVendor build() {
             return new CognitoTokenVendor(this);
         }
@@ -17,22 +17,23 @@
 
 package com.amazon.aws.partners.saasfactory.token;
 
+import com.amazon.aws.partners.saasfactory.cognito.IssuerRegistry;
 import com.amazon.aws.partners.saasfactory.cognito.JwtClaimsExtractor;
-import com.amazon.aws.partners.saasfactory.exception.PolicyAssumptionException;
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingTimeouts;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsLoader;
+import com.amazon.aws.partners.saasfactory.credentials.DurationPolicy;
+import com.amazon.aws.partners.saasfactory.credentials.FixedDurationPolicy;
+import com.amazon.aws.partners.saasfactory.engine.CredentialAcquisitionStage;
 import com.amazon.aws.partners.saasfactory.policy.PolicyGenerator;
-import com.auth0.jwt.exceptions.JWTVerificationException;
-import com.auth0.jwt.interfaces.Claim;
+import com.amazon.aws.partners.saasfactory.sts.StsEndpointSelector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
-import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.core.exception.SdkServiceException;
-import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.sts.StsClient;
-import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
 import software.amazon.awssdk.services.sts.model.Credentials;
 
 import java.util.Map;
@@ -43,38 +44,38 @@ public class JwtTokenVendor {
 
     private static final String TENANT_CLAIM = "custom:tenant_id";
 
-    private final StsClient sts;
+    private final CredentialAcquisitionStage credentialAcquisition;
     private String tenant;
     private final String role;
-    private final int durationSeconds;
     private final Map<String, String> headers;
     private final PolicyGenerator policyGenerator;
+    private final Deadline deadline;
+    private final VendingTimeouts timeouts;
+    private final IssuerRegistry issuerRegistry;
     private final boolean validateToken;
 
     public JwtTokenVendor(TokenVendorBuilder builder) {
-        this.durationSeconds = builder.durationSeconds;
         this.policyGenerator = builder.policyGenerator;
+        this.deadline = builder.deadline;
+        this.timeouts = builder.timeouts;
         Region region = builder.region;
         this.role = builder.role;
         this.headers = builder.headers;
         this.validateToken = builder.validateToken;
+        this.issuerRegistry = builder.issuerRegistry;
 
-        this.sts = StsClient.builder()
+        this.credentialAcquisition = CredentialAcquisitionStage.builder()
                 .region(region)
-                .httpClientBuilder(UrlConnectionHttpClient.builder())
-                .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .credentialsLoader(builder.credentialsLoader)
+                .stsEndpointSelector(builder.stsEndpointSelector)
+                .durationPolicy(builder.durationPolicy)
+                .timeouts(builder.timeouts)
                 .build();
     }
 
     public AwsCredentialsProvider vendToken() {
-        try {
-            JwtClaimsExtractor jwtClaimsExtractor = new JwtClaimsExtractor();
-            Map<String, Claim> claims = jwtClaimsExtractor.getClaims(headers, validateToken);
-            tenant = jwtClaimsExtractor.getTenantId(claims, TENANT_CLAIM);
-        } catch (JWTVerificationException e) {
-            LOGGER.info("Using an expired JWT Token.", e);
-            throw new PolicyAssumptionException("Unable to verify your identity.");
-        }
+        JwtClaimsExtractor jwtClaimsExtractor = new JwtClaimsExtractor(deadline, timeouts, issuerRegistry);
+        tenant = jwtClaimsExtractor.getTenantId(headers, TENANT_CLAIM, validateToken);
 
         policyGenerator.tenant(this.tenant);
         String scopedPolicy = policyGenerator.generatePolicy();
@@ -86,19 +87,9 @@ public class JwtTokenVendor {
 
         StaticCredentialsProvider credentialsProvider;
         Credentials scopedCredentials;
-        if (scopedPolicy == null || scopedPolicy.trim().isEmpty()) {
-            LOGGER.info("CognitoTokenVendor::Attempting to assumeRole with empty policy, should not happen!");
-            throw new PolicyAssumptionException("Missing or empty policy, cannot allow access.");
-        }
         try {
-            AssumeRoleResponse assumeRoleResponse = sts.assumeRole(assumeRoleReq -> assumeRoleReq
-                    .durationSeconds(durationSeconds)
-                    .policy(scopedPolicy)
-                    .roleArn(role)
-                    .roleSessionName(tenant)
-            );
+            scopedCredentials = credentialAcquisition.acquire(role, tenant, scopedPolicy, null, deadline);
 
-            scopedCredentials = assumeRoleResponse.credentials();
             credentialsProvider = StaticCredentialsProvider.create(
                     AwsSessionCredentials.create(scopedCredentials.accessKeyId(), scopedCredentials.secretAccessKey(), scopedCredentials.sessionToken())
             );
@@ -121,10 +112,15 @@ public class JwtTokenVendor {
     public static class TokenVendorBuilder {
         private String role;
         private Region region;
-        private int durationSeconds;
+        private DurationPolicy durationPolicy = new FixedDurationPolicy(DurationPolicy.MIN_DURATION_SECONDS);
         private PolicyGenerator policyGenerator;
+        private CredentialsLoader credentialsLoader = CredentialsLoader.defaultLoader();
+        private StsEndpointSelector stsEndpointSelector;
+        private Deadline deadline = Deadline.none();
+        private VendingTimeouts timeouts = VendingTimeouts.defaults();
         private Map<String, String> headers;
         private boolean validateToken = true;
+        private IssuerRegistry issuerRegistry = IssuerRegistry.defaultRegistry();
 
         public TokenVendorBuilder() {
         }
@@ -140,7 +136,15 @@ public class JwtTokenVendor {
         }
 
         public TokenVendorBuilder durationSeconds(int durationSeconds) {
-            this.durationSeconds = durationSeconds;
+            this.durationPolicy = new FixedDurationPolicy(durationSeconds);
+            return this;
+        }
+
+        /**
+         * Decides the session duration per tenant, replaces a fixed {@link #durationSeconds(int)}.
+         */
+        public TokenVendorBuilder durationPolicy(DurationPolicy durationPolicy) {
+            this.durationPolicy = durationPolicy;
             return this;
         }
 
@@ -154,11 +158,45 @@ public class JwtTokenVendor {
             return this;
         }
 
+        public TokenVendorBuilder credentialsLoader(CredentialsLoader credentialsLoader) {
+            this.credentialsLoader = credentialsLoader;
+            return this;
+        }
+
+        /**
+         * STS endpoints to route the role assumption to. Without one the vendor uses a client for its region.
+         */
+        public TokenVendorBuilder stsEndpointSelector(StsEndpointSelector stsEndpointSelector) {
+            this.stsEndpointSelector = stsEndpointSelector;
+            return this;
+        }
+
         public TokenVendorBuilder validateToken(boolean validateToken) {
             this.validateToken = validateToken;
             return this;
         }
 
+        /**
+         * The user pools whose tokens are accepted when tokens are validated. Without them every token is rejected.
+         */
+        public TokenVendorBuilder issuerRegistry(IssuerRegistry issuerRegistry) {
+            this.issuerRegistry = issuerRegistry;
+            return this;
+        }
+
+        /**
+         * Time by which the vend has to complete. Phases that cannot complete in time are not started.
+         */
+        public TokenVendorBuilder deadline(Deadline deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        public TokenVendorBuilder timeouts(VendingTimeouts timeouts) {
+            this.timeouts = timeouts;
+            return this;
+        }
+
         public JwtTokenVendor build() {
             return new JwtTokenVendor(this);
         }
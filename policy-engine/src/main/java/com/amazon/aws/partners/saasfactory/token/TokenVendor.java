@@ -17,40 +17,44 @@
 
 package com.amazon.aws.partners.saasfactory.token;
 
-import com.amazon.aws.partners.saasfactory.exception.PolicyAssumptionException;
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingTimeouts;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsLoader;
+import com.amazon.aws.partners.saasfactory.credentials.DurationPolicy;
+import com.amazon.aws.partners.saasfactory.credentials.FixedDurationPolicy;
+import com.amazon.aws.partners.saasfactory.engine.CredentialAcquisitionStage;
 import com.amazon.aws.partners.saasfactory.policy.PolicyGenerator;
+import com.amazon.aws.partners.saasfactory.sts.StsEndpointSelector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
-import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.core.exception.SdkServiceException;
-import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.sts.StsClient;
-import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
 import software.amazon.awssdk.services.sts.model.Credentials;
 
 public class TokenVendor {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TokenVendor.class);
 
-    private final StsClient sts;
+    private final CredentialAcquisitionStage credentialAcquisition;
     private final String role;
-    private final int durationSeconds;
     private final PolicyGenerator policyGenerator;
+    private final Deadline deadline;
 
     public TokenVendor(TokenVendorBuilder builder) {
-        this.durationSeconds = builder.durationSeconds;
         this.policyGenerator = builder.policyGenerator;
+        this.deadline = builder.deadline;
         Region region = builder.region;
         this.role = builder.role;
 
-        this.sts = StsClient.builder()
+        this.credentialAcquisition = CredentialAcquisitionStage.builder()
                 .region(region)
-                .httpClientBuilder(UrlConnectionHttpClient.builder())
-                .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .credentialsLoader(builder.credentialsLoader)
+                .stsEndpointSelector(builder.stsEndpointSelector)
+                .durationPolicy(builder.durationPolicy)
+                .timeouts(builder.timeouts)
                 .build();
     }
 
@@ -65,19 +69,9 @@ public class TokenVendor {
 
         StaticCredentialsProvider credentialsProvider;
         Credentials scopedCredentials;
-        if (scopedPolicy == null || scopedPolicy.trim().isEmpty()) {
-            LOGGER.info("CognitoTokenVendor::Attempting to assumeRole with empty policy, should not happen!");
-            throw new PolicyAssumptionException("Missing or empty policy, cannot allow access.");
-        }
         try {
-            AssumeRoleResponse assumeRoleResponse = sts.assumeRole(assumeRoleReq -> assumeRoleReq
-                    .durationSeconds(durationSeconds)
-                    .policy(scopedPolicy)
-                    .roleArn(role)
-                    .roleSessionName(tenant)
-            );
+            scopedCredentials = credentialAcquisition.acquire(role, tenant, scopedPolicy, null, deadline);
 
-            scopedCredentials = assumeRoleResponse.credentials();
             credentialsProvider = StaticCredentialsProvider.create(
                     AwsSessionCredentials.create(scopedCredentials.accessKeyId(), scopedCredentials.secretAccessKey(), scopedCredentials.sessionToken())
             );
@@ -96,8 +90,12 @@ public class TokenVendor {
     public static class TokenVendorBuilder {
         private String role;
         private Region region;
-        private int durationSeconds;
+        private DurationPolicy durationPolicy = new FixedDurationPolicy(DurationPolicy.MIN_DURATION_SECONDS);
         private PolicyGenerator policyGenerator;
+        private CredentialsLoader credentialsLoader = CredentialsLoader.defaultLoader();
+        private StsEndpointSelector stsEndpointSelector;
+        private Deadline deadline = Deadline.none();
+        private VendingTimeouts timeouts = VendingTimeouts.defaults();
 
         public TokenVendorBuilder() {}
 
@@ -112,7 +110,15 @@ public class TokenVendor {
         }
 
         public TokenVendorBuilder durationSeconds(int durationSeconds) {
-            this.durationSeconds = durationSeconds;
+            this.durationPolicy = new FixedDurationPolicy(durationSeconds);
+            return this;
+        }
+
+        /**
+         * Decides the session duration per tenant, replaces a fixed {@link #durationSeconds(int)}.
+         */
+        public TokenVendorBuilder durationPolicy(DurationPolicy durationPolicy) {
+            this.durationPolicy = durationPolicy;
             return this;
         }
 
@@ -121,6 +127,32 @@ public class TokenVendor {
             return this;
         }
 
+        public TokenVendorBuilder credentialsLoader(CredentialsLoader credentialsLoader) {
+            this.credentialsLoader = credentialsLoader;
+            return this;
+        }
+
+        /**
+         * STS endpoints to route the role assumption to. Without one the vendor uses a client for its region.
+         */
+        public TokenVendorBuilder stsEndpointSelector(StsEndpointSelector stsEndpointSelector) {
+            this.stsEndpointSelector = stsEndpointSelector;
+            return this;
+        }
+
+        /**
+         * Time by which the vend has to complete. Phases that cannot complete in time are not started.
+         */
+        public TokenVendorBuilder deadline(Deadline deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        public TokenVendorBuilder timeouts(VendingTimeouts timeouts) {
+            this.timeouts = timeouts;
+            return this;
+        }
+
         public TokenVendor build() {
             return new TokenVendor(this);
         }
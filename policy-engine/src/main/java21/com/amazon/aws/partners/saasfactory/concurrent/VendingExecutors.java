@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java 21 variant of the vending executors, packaged under META-INF/versions/21 of the multi-release jar. Every task
+ * runs on its own virtual thread, so blocking STS, Cognito and JWKS calls no longer pin a platform thread.
+ */
+public final class VendingExecutors {
+
+    private VendingExecutors() {
+    }
+
+    /**
+     * @param name prefix for the names of the threads created by the executor
+     * @return an unbounded executor, callers bound their own concurrency
+     */
+    public static ExecutorService newVendingExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+    }
+
+    /**
+     * Bounded like its Java 8 counterpart, but the threads are virtual. Idle threads are not kept past the keep-alive,
+     * which has to be positive for core threads to time out.
+     */
+    public static ThreadPoolExecutor newBoundedVendingExecutor(String name, int threads, int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), Thread.ofVirtual().name(name + "-", 1).factory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static boolean usesVirtualThreads() {
+        return true;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cluster;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import org.junit.Test;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+
+import static org.junit.Assert.*;
+
+public class ClusterCodecTest {
+
+    private final ClusterCodec codec = new ClusterCodec(new SecretKeySpec(new byte[16], "AES"));
+
+    @Test
+    public void readResponse_acceptsTheAnswerToItsOwnRequest() throws IOException {
+        ClusterCodec.InboundRequest inbound = codec.readRequest(input(out -> codec.writeRequest(out, request())));
+        assertEquals("t1", inbound.getRequest().getTenant());
+        assertTrue(inbound.getRequest().isPrewarm());
+
+        Credentials credentials = codec.readResponse(
+                input(out -> codec.writeCredentials(out, inbound.getIv(), credentials())), inbound.getIv());
+        assertEquals("AKIA", credentials.accessKeyId());
+    }
+
+    @Test
+    public void readResponse_refusesTheAnswerToAnotherRequest() throws IOException {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        byte[] firstIv = codec.writeRequest(new DataOutputStream(first), request());
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        byte[] secondIv = codec.writeRequest(new DataOutputStream(second), request());
+
+        try {
+            codec.readResponse(input(out -> codec.writeCredentials(out, firstIv, credentials())), secondIv);
+            fail("Expected the response to the first request to be refused as the answer to the second");
+        } catch (IOException expected) {
+            // the response is bound to the IV of the first request
+        }
+    }
+
+    private static ClusterVendRequest request() {
+        return new ClusterVendRequest("arn:aws:iam::123456789012:role/tenant", "t1", "{}", null, 0,
+                Deadline.none(), true);
+    }
+
+    private static Credentials credentials() {
+        return Credentials.builder()
+                .accessKeyId("AKIA")
+                .secretAccessKey("secret")
+                .sessionToken("token")
+                .expiration(Instant.parse("2030-01-01T00:00:00Z"))
+                .build();
+    }
+
+    private static DataInputStream input(Writer writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.write(new DataOutputStream(bytes));
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
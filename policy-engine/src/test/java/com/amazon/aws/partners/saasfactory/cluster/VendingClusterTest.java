@@ -0,0 +1,198 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cluster;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsCache;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsLoader;
+import com.amazon.aws.partners.saasfactory.engine.CredentialAcquisitionStage;
+import com.amazon.aws.partners.saasfactory.policy.PolicyGenerations;
+import com.amazon.aws.partners.saasfactory.sts.StsEndpointSelector;
+import com.amazon.aws.partners.saasfactory.sts.StubStsServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class VendingClusterTest {
+
+    private static final String ROLE = "arn:aws:iam::123456789012:role/tenant";
+    private static final String POLICY = "{\"Version\":\"2012-10-17\"}";
+    private static final byte[] KEY = new byte[32];
+
+    private final Map<String, StubStsServer> sts = new LinkedHashMap<>();
+    private final Map<String, VendingCluster> clusters = new LinkedHashMap<>();
+    private final Map<String, CredentialAcquisitionStage> stages = new LinkedHashMap<>();
+
+    @Before
+    public void startNodes() throws IOException {
+        List<ClusterNode> nodes = new ArrayList<>();
+        for (String id : Arrays.asList("a", "b", "c")) {
+            nodes.add(new ClusterNode(id, "localhost", freePort()));
+        }
+        for (ClusterNode node : nodes) {
+            StubStsServer stub = new StubStsServer(node.getId());
+            VendingCluster cluster = VendingCluster.builder()
+                    .self(node.getId())
+                    .nodes(nodes)
+                    .key(KEY)
+                    .build();
+            CredentialAcquisitionStage stage = CredentialAcquisitionStage.builder()
+                    .credentialsLoader(CredentialsLoader.builder()
+                            .cache(CredentialsCache.builder().build())
+                            .build())
+                    .stsEndpointSelector(StsEndpointSelector.single(stub.client()))
+                    .cluster(cluster)
+                    .generations(new PolicyGenerations())
+                    .build();
+            cluster.start(stage::acquireForwarded, stage::invalidateForwarded);
+            sts.put(node.getId(), stub);
+            clusters.put(node.getId(), cluster);
+            stages.put(node.getId(), stage);
+        }
+    }
+
+    @After
+    public void stopNodes() {
+        clusters.values().forEach(VendingCluster::close);
+        sts.values().forEach(StubStsServer::close);
+    }
+
+    @Test
+    public void acquire_vendsEveryTenantOnItsOwnerOnly() {
+        for (int i = 0; i < 20; i++) {
+            String tenant = "tenant-" + i;
+            String owner = clusters.get("a").owner(tenant).getId();
+            for (String node : stages.keySet()) {
+                assertEquals(owner, stages.get(node).acquire(ROLE, tenant, POLICY, null, Deadline.none()).accessKeyId());
+            }
+        }
+        assertEquals(20, sts.values().stream().mapToInt(StubStsServer::requests).sum());
+        for (StubStsServer stub : sts.values()) {
+            assertTrue("every node owns some of the tenants", stub.requests() > 0);
+        }
+    }
+
+    @Test
+    public void acquire_vendsLocallyWhenTheOwnerIsDown() {
+        String tenant = tenantOwnedBy("b");
+        clusters.get("b").close();
+
+        assertEquals("a", stages.get("a").acquire(ROLE, tenant, POLICY, null, Deadline.none()).accessKeyId());
+        assertEquals(0, sts.get("b").requests());
+    }
+
+    @Test
+    public void invalidateTenant_dropsTheCredentialsCachedByEveryNode() {
+        String tenant = tenantOwnedBy("b");
+        assertEquals("b", stages.get("a").acquire(ROLE, tenant, POLICY, null, Deadline.none()).accessKeyId());
+        stages.get("a").acquire(ROLE, tenant, POLICY, null, Deadline.none());
+        assertEquals(1, sts.get("b").requests());
+
+        // invalidated on the owner, node a must not serve what it cached before
+        stages.get("b").invalidateTenant(tenant);
+
+        assertEquals("b", stages.get("a").acquire(ROLE, tenant, POLICY, null, Deadline.none()).accessKeyId());
+        assertEquals(2, sts.get("b").requests());
+    }
+
+    @Test
+    public void start_capsAndTimesOutTheConnectionsOfOtherNodes() throws Exception {
+        ClusterNode node = new ClusterNode("guarded", "127.0.0.1", freePort());
+        VendingCluster cluster = VendingCluster.builder()
+                .self(node.getId())
+                .node(node)
+                .key(KEY)
+                .maxInboundConnections(2)
+                .serverIdleTimeoutMillis(300)
+                .bindAddress(InetAddress.getLoopbackAddress())
+                .build();
+        cluster.start(request -> null, tenant -> { });
+        try (Socket first = connect(node); Socket second = connect(node)) {
+            waitForInboundConnections(cluster, 2);
+            try (Socket refused = connect(node)) {
+                assertEquals("closed without being served", -1, refused.getInputStream().read());
+            }
+            assertEquals("closed once idle", -1, first.getInputStream().read());
+            assertEquals(-1, second.getInputStream().read());
+            waitForInboundConnections(cluster, 0);
+        } finally {
+            cluster.close();
+        }
+    }
+
+    @Test
+    public void close_closesTheConnectionsOfOtherNodes() throws Exception {
+        ClusterNode node = new ClusterNode("closing", "localhost", freePort());
+        VendingCluster cluster = VendingCluster.builder()
+                .self(node.getId())
+                .node(node)
+                .key(KEY)
+                .build();
+        cluster.start(request -> null, tenant -> { });
+        try (Socket idle = connect(node)) {
+            waitForInboundConnections(cluster, 1);
+
+            cluster.close();
+
+            assertEquals(-1, idle.getInputStream().read());
+            waitForInboundConnections(cluster, 0);
+        }
+    }
+
+    private static Socket connect(ClusterNode node) throws IOException {
+        Socket socket = new Socket();
+        socket.connect(node.address(), 1_000);
+        socket.setSoTimeout(5_000);
+        return socket;
+    }
+
+    private static void waitForInboundConnections(VendingCluster cluster, int connections)
+            throws InterruptedException {
+        long giveUp = System.currentTimeMillis() + 5_000;
+        while (cluster.inboundConnectionCount() != connections && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(10);
+        }
+        assertEquals(connections, cluster.inboundConnectionCount());
+    }
+
+    private String tenantOwnedBy(String node) {
+        for (int i = 0; ; i++) {
+            if (clusters.get(node).isOwner("tenant-" + i)) {
+                return "tenant-" + i;
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
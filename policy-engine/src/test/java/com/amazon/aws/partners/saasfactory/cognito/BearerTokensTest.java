@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class BearerTokensTest {
+
+    @Test
+    public void fromHeaders_findsTheAuthorizationHeaderInAnyCase() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        headers.put("AUTHORIZATION", "Bearer abc.def.ghi");
+
+        assertEquals("abc.def.ghi", BearerTokens.fromHeaders(headers));
+        assertEquals("abc.def.ghi", BearerTokens.fromHeaders(Collections.singletonMap("authorization",
+                "bearer abc.def.ghi")));
+        assertNull(BearerTokens.fromHeaders(Collections.singletonMap("X-Authorization", "Bearer abc.def.ghi")));
+        assertNull(BearerTokens.fromHeaders(null));
+    }
+
+    @Test
+    public void fromHeader_slicesTheTokenOutOfTheValue() {
+        assertEquals("abc.def.ghi", BearerTokens.fromHeader("BEARER   abc.def.ghi \r\n"));
+        CharBuffer buffer = CharBuffer.wrap("xxBearer abc.def.ghi".toCharArray(), 2, 18);
+        assertEquals("abc.def.ghi", BearerTokens.fromHeader(buffer));
+        assertNull(BearerTokens.fromHeader("Bearer"));
+        assertNull(BearerTokens.fromHeader("Bearer   "));
+        assertNull(BearerTokens.fromHeader("Bearerabc.def.ghi"));
+        assertNull(BearerTokens.fromHeader("|earer abc.def.ghi"));
+        assertNull(BearerTokens.fromHeader("Basic dXNlcjpwYXNz"));
+    }
+}
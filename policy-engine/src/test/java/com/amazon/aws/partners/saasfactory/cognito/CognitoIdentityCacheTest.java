@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CognitoIdentityCacheTest {
+
+    private static final String POOL = "us-west-2:11111111-2222-3333-4444-555555555555";
+    private static final String PROVIDER = "cognito-idp.us-west-2.amazonaws.com/us-west-2_abc";
+
+    private final AtomicReference<Instant> now = new AtomicReference<>(Instant.parse("2030-01-01T00:00:00Z"));
+
+    private final CognitoIdentityCache cache = CognitoIdentityCache.builder()
+            .clock(new Clock() {
+                @Override
+                public ZoneId getZone() {
+                    return ZoneOffset.UTC;
+                }
+
+                @Override
+                public Clock withZone(ZoneId zone) {
+                    return this;
+                }
+
+                @Override
+                public Instant instant() {
+                    return now.get();
+                }
+            })
+            .build();
+
+    @Test
+    public void identityId_isCachedPerUserAndNotPerToken() {
+        AtomicInteger lookups = new AtomicInteger();
+
+        String first = cache.identityId(POOL, logins("first-token"), "user-1", () -> "id-" + lookups.incrementAndGet());
+        String again = cache.identityId(POOL, logins("second-token"), "user-1", () -> "id-" + lookups.incrementAndGet());
+        String other = cache.identityId(POOL, logins("third-token"), "user-2", () -> "id-" + lookups.incrementAndGet());
+
+        assertEquals("id-1", first);
+        assertEquals("id-1", again);
+        assertEquals("id-2", other);
+
+        now.set(now.get().plus(Duration.ofHours(25)));
+        assertEquals("id-3", cache.identityId(POOL, logins("first-token"), "user-1", () -> "id-" + lookups.incrementAndGet()));
+    }
+
+    @Test
+    public void openIdToken_isReusedUntilShortlyBeforeItExpires() {
+        AtomicInteger lookups = new AtomicInteger();
+        String token = JWT.create()
+                .withExpiresAt(Date.from(now.get().plus(Duration.ofMinutes(10))))
+                .sign(Algorithm.HMAC256("secret"));
+
+        assertSame(token, cache.openIdToken("id-1", () -> {
+            lookups.incrementAndGet();
+            return token;
+        }));
+        now.set(now.get().plus(Duration.ofMinutes(8)));
+        assertSame(token, cache.openIdToken("id-1", () -> {
+            lookups.incrementAndGet();
+            return token;
+        }));
+        assertEquals(1, lookups.get());
+
+        // inside the last minute of its validity
+        now.set(now.get().plus(Duration.ofSeconds(90)));
+        cache.openIdToken("id-1", () -> {
+            lookups.incrementAndGet();
+            return token;
+        });
+        assertEquals(2, lookups.get());
+    }
+
+    private static Map<String, String> logins(String token) {
+        return Collections.singletonMap(PROVIDER, token);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingTimeouts;
+import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class JwksCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String ISSUER = "https://cognito-idp.us-west-2.amazonaws.com/us-west-2_abc";
+
+    private final AtomicReference<Instant> now = new AtomicReference<>(Instant.parse("2030-01-01T00:00:00Z"));
+    private final Map<String, RSAPublicKey> published = new HashMap<>();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final AtomicBoolean unavailable = new AtomicBoolean();
+
+    private final JwksCache cache = JwksCache.builder()
+            .minRefetchInterval(Duration.ofSeconds(30))
+            .maxIssuers(2)
+            .fetcher((issuer, timeout) -> {
+                fetches.incrementAndGet();
+                if (unavailable.get()) {
+                    throw new JwtProcessingException("JWKS unavailable");
+                }
+                return new HashMap<>(published);
+            })
+            .clock(new Clock() {
+                @Override
+                public ZoneId getZone() {
+                    return ZoneOffset.UTC;
+                }
+
+                @Override
+                public Clock withZone(ZoneId zone) {
+                    return this;
+                }
+
+                @Override
+                public Instant instant() {
+                    return now.get();
+                }
+            })
+            .build();
+
+    @Test
+    public void getKey_refetchesUnknownKeysAtMostOncePerInterval() throws Exception {
+        published.put("key-1", newKey());
+
+        assertSame(published.get("key-1"), getKey("key-1"));
+        assertSame(published.get("key-1"), getKey("key-1"));
+        assertEquals(1, fetches.get());
+
+        // made up key ids do not fetch again within the interval
+        for (int i = 0; i < 10; i++) {
+            try {
+                getKey("forged-" + i);
+                fail("Expected an unknown key");
+            } catch (JwtProcessingException e) {
+                assertTrue(e.getMessage().contains("forged-" + i));
+            }
+        }
+        assertEquals(1, fetches.get());
+
+        // a rotated key is picked up once the interval has passed
+        published.put("key-2", newKey());
+        now.set(now.get().plus(Duration.ofSeconds(31)));
+        assertSame(published.get("key-2"), getKey("key-2"));
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void getKey_remembersAFailedFetchForTheInterval() throws Exception {
+        published.put("key-1", newKey());
+        unavailable.set(true);
+
+        for (int i = 0; i < 10; i++) {
+            try {
+                getKey("key-1");
+                fail("Expected the fetch to fail");
+            } catch (JwtProcessingException expected) {
+                // the first call fetches, the others are refused without fetching
+            }
+        }
+        assertEquals(1, fetches.get());
+
+        unavailable.set(false);
+        now.set(now.get().plus(Duration.ofSeconds(31)));
+        assertSame(published.get("key-1"), getKey("key-1"));
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void getKey_keepsTheKeysOfAtMostMaxIssuers() throws Exception {
+        published.put("key-1", newKey());
+        cache.getKey(ISSUER, "key-1", Deadline.none(), VendingTimeouts.defaults());
+        cache.getKey(ISSUER + "2", "key-1", Deadline.none(), VendingTimeouts.defaults());
+
+        try {
+            cache.getKey(ISSUER + "3", "key-1", Deadline.none(), VendingTimeouts.defaults());
+            fail("Expected the third issuer to be refused");
+        } catch (JwtProcessingException expected) {
+            assertEquals(2, fetches.get());
+        }
+        assertSame(published.get("key-1"), getKey("key-1"));
+    }
+
+    @Test
+    public void parse_keepsTheRsaSigningKeys() throws Exception {
+        RSAPublicKey key = newKey();
+        String rsa = jwks("sig", key);
+        String jwks = rsa.substring(0, rsa.length() - 2)
+                + ",{\"kid\":\"ec\",\"kty\":\"EC\",\"crv\":\"P-256\",\"x\":\"AA\",\"y\":\"AA\"}]}";
+
+        Map<String, RSAPublicKey> keys = Jwks.parse(new ByteArrayInputStream(jwks.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(1, keys.size());
+        assertEquals(key.getModulus(), keys.get("sig").getModulus());
+        assertEquals(key.getPublicExponent(), keys.get("sig").getPublicExponent());
+    }
+
+    @Test
+    public void seed_usesTheSnapshotUntilTheKeysAreFetched() throws Exception {
+        RSAPublicKey snapshotKey = newKey();
+        Path snapshot = folder.newFile("jwks.json").toPath();
+        Files.write(snapshot, ("{\"" + ISSUER + "\":" + jwks("key-1", snapshotKey) + "}")
+                .getBytes(StandardCharsets.UTF_8));
+        CountDownLatch published = new CountDownLatch(1);
+        RSAPublicKey liveKey = newKey();
+        JwksCache cache = JwksCache.builder()
+                .fetcher((issuer, timeout) -> {
+                    try {
+                        published.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return Collections.singletonMap("key-1", liveKey);
+                })
+                .build();
+
+        cache.seed(Jwks.loadSnapshot(snapshot.toString()));
+
+        RSAPublicKey key = cache.getKey(ISSUER, "key-1", Deadline.none(), VendingTimeouts.defaults());
+        assertEquals(snapshotKey.getModulus(), key.getModulus());
+
+        published.countDown();
+        long giveUp = System.currentTimeMillis() + 5_000;
+        while (cache.getKeys(ISSUER).get("key-1") != liveKey && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(10);
+        }
+        assertSame(liveKey, cache.getKey(ISSUER, "key-1", Deadline.none(), VendingTimeouts.defaults()));
+    }
+
+    private RSAPublicKey getKey(String keyId) {
+        return cache.getKey(ISSUER, keyId, Deadline.none(), VendingTimeouts.defaults());
+    }
+
+    private static String jwks(String keyId, RSAPublicKey key) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return "{\"keys\":[{\"kid\":\"" + keyId + "\",\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\",\"n\":\""
+                + encoder.encodeToString(key.getModulus().toByteArray()) + "\",\"e\":\""
+                + encoder.encodeToString(key.getPublicExponent().toByteArray()) + "\"}]}";
+    }
+
+    private static RSAPublicKey newKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return (RSAPublicKey) generator.generateKeyPair().getPublic();
+    }
+}
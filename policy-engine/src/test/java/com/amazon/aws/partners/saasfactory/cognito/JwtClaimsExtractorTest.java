@@ -0,0 +1,149 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.concurrent.VendingTimeouts;
+import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class JwtClaimsExtractorTest {
+
+    private static final String ISSUER = "https://cognito-idp.us-west-2.amazonaws.com/us-west-2_trusted";
+    private static final String OTHER_ISSUER = "https://cognito-idp.us-west-2.amazonaws.com/us-west-2_other";
+
+    private final KeyPair keyPair = newKeyPair();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final IssuerRegistry issuers = IssuerRegistry.builder()
+            .issuer(ISSUER)
+            .jwksCache(JwksCache.builder()
+                    .fetcher((issuer, timeout) -> {
+                        fetches.incrementAndGet();
+                        return Collections.singletonMap("key-1", (RSAPublicKey) keyPair.getPublic());
+                    })
+                    .build())
+            .build();
+    private final JwtClaimsExtractor extractor = new JwtClaimsExtractor(Deadline.none(), VendingTimeouts.defaults(),
+            issuers);
+
+    @Test
+    public void getClaims_verifiesTokensOfTrustedIssuers() {
+        Map<String, Object> claims = extractor.getClaims(bearer(token(ISSUER, "tenant-a", keyPair)), true);
+
+        assertEquals("tenant-a", extractor.getTenantId(claims, "custom:tenant_id"));
+        extractor.getClaims(bearer(token(ISSUER, "tenant-b", keyPair)), true);
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void getClaims_rejectsUntrustedIssuersAndForgedSignaturesWithoutFetchingKeys() {
+        try {
+            extractor.getClaims(bearer(token(OTHER_ISSUER, "tenant-a", keyPair)), true);
+            fail("Expected an untrusted issuer to be rejected");
+        } catch (JwtProcessingException e) {
+            assertTrue(e.getMessage().contains("trusted"));
+        }
+        assertEquals(0, fetches.get());
+
+        Map<String, String> forged = bearer(token(ISSUER, "tenant-a", newKeyPair()));
+        for (int i = 0; i < 3; i++) {
+            try {
+                extractor.getClaims(forged, true);
+                fail("Expected a forged token to be rejected");
+            } catch (JwtProcessingException e) {
+                assertEquals("Failed to validate token with issuer.", e.getMessage());
+            }
+        }
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void getClaims_remembersRejectedTokensPerRegistry() {
+        String token = token(OTHER_ISSUER, "tenant-a", keyPair);
+        try {
+            extractor.getClaims(bearer(token), true);
+            fail("Expected an untrusted issuer to be rejected");
+        } catch (JwtProcessingException e) {
+            assertEquals(1, issuers.getRejectedTokens().size());
+        }
+
+        IssuerRegistry otherIssuers = IssuerRegistry.builder()
+                .issuer(OTHER_ISSUER)
+                .jwksCache(JwksCache.builder()
+                        .fetcher((issuer, timeout) ->
+                                Collections.singletonMap("key-1", (RSAPublicKey) keyPair.getPublic()))
+                        .build())
+                .build();
+        JwtClaimsExtractor otherExtractor = new JwtClaimsExtractor(Deadline.none(), VendingTimeouts.defaults(),
+                otherIssuers);
+
+        assertEquals("tenant-a", otherExtractor.getTenantId(otherExtractor.getClaims(bearer(token), true),
+                "custom:tenant_id"));
+        assertEquals(0, otherIssuers.getRejectedTokens().size());
+    }
+
+    @Test
+    public void getClaims_rejectsEveryTokenWithoutConfiguredIssuers() {
+        JwtClaimsExtractor unconfigured = new JwtClaimsExtractor(Deadline.none(), VendingTimeouts.defaults(),
+                IssuerRegistry.defaultRegistry());
+        try {
+            unconfigured.getClaims(bearer(token(ISSUER, "tenant-a", keyPair)), true);
+            fail("Expected a token to be rejected without configured issuers");
+        } catch (JwtProcessingException e) {
+            assertTrue(e.getMessage().contains("trusted"));
+        }
+        assertTrue(IssuerRegistry.defaultRegistry().getIssuers().isEmpty());
+    }
+
+    private static String token(String issuer, String tenant, KeyPair signer) {
+        return JWT.create()
+                .withIssuer(issuer)
+                .withKeyId("key-1")
+                .withSubject("user-1")
+                .withClaim("custom:tenant_id", tenant)
+                .withExpiresAt(new Date(System.currentTimeMillis() + 3_600_000))
+                .sign(Algorithm.RSA256((RSAPublicKey) signer.getPublic(), (RSAPrivateKey) signer.getPrivate()));
+    }
+
+    private static Map<String, String> bearer(String token) {
+        return Collections.singletonMap("Authorization", "Bearer " + token);
+    }
+
+    private static KeyPair newKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JwtClaimsReaderTest {
+
+    @Test
+    public void read_returnsOnlyTheRequestedClaims() {
+        String token = JWT.create()
+                .withIssuer("https://cognito-idp.us-west-2.amazonaws.com/us-west-2_abc")
+                .withArrayClaim("cognito:groups", new String[]{"admins", "ünïcödé", "readers"})
+                .withClaim("custom:tenant_id", "tenant-ä")
+                .withClaim("email_verified", true)
+                .withExpiresAt(new Date(1_900_000_000_000L))
+                .sign(Algorithm.none());
+
+        Map<String, Object> claims = JwtClaimsReader.read(token, "custom:tenant_id", "exp", "email_verified",
+                "custom:identity_pool", "cognito:groups");
+
+        assertEquals(3, claims.size());
+        assertEquals("tenant-ä", claims.get("custom:tenant_id"));
+        assertEquals(1_900_000_000L, claims.get("exp"));
+        assertEquals(Boolean.TRUE, claims.get("email_verified"));
+        assertEquals("tenant-ä", JwtClaimsReader.readString(token, "custom:tenant_id"));
+        assertNull(JwtClaimsReader.readString(token, "exp"));
+    }
+
+    @Test
+    public void read_rejectsMalformedTokens() {
+        for (String token : new String[]{"no-dots", "header.", "header.e30!.signature", "header.WzFd.signature"}) {
+            try {
+                JwtClaimsReader.read(token, "custom:tenant_id");
+                fail("Expected " + token + " to be rejected");
+            } catch (JwtProcessingException e) {
+                // expected
+            }
+        }
+        assertTrue(JwtClaimsReader.read("header.e30.signature", "custom:tenant_id").isEmpty());
+    }
+}
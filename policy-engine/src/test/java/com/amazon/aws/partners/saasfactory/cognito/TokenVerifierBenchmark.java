@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
+import com.auth0.jwt.algorithms.Algorithm;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares {@link TokenVerifier} with the java-jwt verifier it replaced. Not part of the default test run, run it from
+ * the policy-engine directory with the benchmark profile:
+ *
+ * <pre>
+ * mvn -Pbenchmark test
+ * </pre>
+ *
+ * {@link #warmedUp()} prints the time per verification of both verifiers once warmed up. {@link #firstVerification()}
+ * verifies a single token in a fresh JVM per verifier and prints the time that took, class loading included. The
+ * tokens are signed with the JDK so that the java-jwt classes are only loaded when they are measured.
+ */
+public class TokenVerifierBenchmark {
+
+    private static final String ISSUER = "https://cognito-idp.us-west-2.amazonaws.com/us-west-2_benchmark";
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 50_000;
+
+    @Test
+    public void warmedUp() throws Exception {
+        KeyPair keyPair = newKeyPair();
+        String token = sign(keyPair);
+        RSAPublicKey key = (RSAPublicKey) keyPair.getPublic();
+        TokenVerifier jdk = new TokenVerifier(ISSUER);
+        JWTVerifier javaJwt = javaJwtVerifier(key);
+        Runnable jdkVerify = () -> jdk.verify(token, key);
+        Runnable javaJwtVerify = () -> javaJwt.verify(token);
+        for (int round = 0; round < 3; round++) {
+            System.out.printf("jdk:      %,d ns per verification%n", measure(jdkVerify));
+            System.out.printf("java-jwt: %,d ns per verification%n", measure(javaJwtVerify));
+        }
+    }
+
+    @Test
+    public void firstVerification() throws Exception {
+        for (String verifier : new String[]{"jdk", "java-jwt"}) {
+            Process process = new ProcessBuilder(
+                    System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                    "-cp", System.getProperty("java.class.path"),
+                    TokenVerifierBenchmark.class.getName(), verifier)
+                    .redirectErrorStream(true)
+                    .start();
+            String output = read(process.getInputStream());
+            assertEquals(output, 0, process.waitFor());
+            System.out.print(output);
+        }
+    }
+
+    /**
+     * Verifies a single token with the named verifier, {@code jdk} or {@code java-jwt}, and prints the time that took.
+     */
+    public static void main(String[] args) throws Exception {
+        KeyPair keyPair = newKeyPair();
+        String token = sign(keyPair);
+        RSAPublicKey key = (RSAPublicKey) keyPair.getPublic();
+        long start = System.nanoTime();
+        if ("jdk".equals(args[0])) {
+            new TokenVerifier(ISSUER).verify(token, key);
+        } else {
+            javaJwtVerifier(key).verify(token);
+        }
+        System.out.printf("%s: first verification took %.1f ms%n", args[0], (System.nanoTime() - start) / 1e6);
+    }
+
+    private static long measure(Runnable verify) {
+        for (int i = 0; i < WARMUP; i++) {
+            verify.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            verify.run();
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private static JWTVerifier javaJwtVerifier(RSAPublicKey key) {
+        return JWT.require(Algorithm.RSA256(key, null)).withIssuer(ISSUER).build();
+    }
+
+    /**
+     * A Cognito sized ID token.
+     */
+    private static String sign(KeyPair keyPair) throws Exception {
+        long now = System.currentTimeMillis() / 1000;
+        String header = "{\"kid\":\"benchmark\",\"alg\":\"RS256\"}";
+        String payload = "{\"sub\":\"5f2b7c4e-1d3a-4b6f-9e8d-7c6b5a4f3e2d\","
+                + "\"cognito:groups\":[\"admins\",\"readers\",\"writers\",\"auditors\"],"
+                + "\"email_verified\":true,\"iss\":\"" + ISSUER + "\","
+                + "\"cognito:username\":\"user@example.com\",\"custom:tenant_id\":\"tenant-a\","
+                + "\"custom:identity_pool\":\"us-west-2:1a2b3c4d-5e6f-7a8b-9c0d-1e2f3a4b5c6d\","
+                + "\"aud\":\"1example23456789\",\"token_use\":\"id\",\"auth_time\":" + now + ","
+                + "\"exp\":" + (now + 3600) + ",\"iat\":" + now + ",\"email\":\"user@example.com\"}";
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String signed = encoder.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(signed.getBytes(StandardCharsets.US_ASCII));
+        return signed + "." + encoder.encodeToString(signature.sign());
+    }
+
+    private static String read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static KeyPair newKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+}
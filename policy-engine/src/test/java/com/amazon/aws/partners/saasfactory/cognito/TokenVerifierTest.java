@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class TokenVerifierTest {
+
+    private static final String ISSUER = "https://cognito-idp.us-west-2.amazonaws.com/us-west-2_abc";
+
+    private final KeyPair keyPair = newKeyPair();
+    private final TokenVerifier verifier = new TokenVerifier(ISSUER);
+
+    @Test
+    public void verify_returnsTheClaimsOfValidTokens() {
+        String token = JWT.create()
+                .withIssuer(ISSUER)
+                .withSubject("user-1")
+                .withClaim("custom:tenant_id", "tenant-a")
+                .withArrayClaim("cognito:groups", new String[]{"admins", "readers"})
+                .withIssuedAt(new Date(System.currentTimeMillis() - 1_000))
+                .withExpiresAt(new Date(System.currentTimeMillis() + 3_600_000))
+                .sign(rs256(keyPair));
+
+        VerifiedToken verified = verifier.verify(token, (RSAPublicKey) keyPair.getPublic());
+
+        assertEquals(ISSUER, verified.getIssuer());
+        assertEquals("user-1", verified.getSubject());
+        assertEquals("tenant-a", verified.getStringClaim("custom:tenant_id"));
+        assertEquals(Arrays.asList("admins", "readers"), verified.getClaim("cognito:groups"));
+        assertNotNull(verified.getExpiresAt());
+    }
+
+    @Test
+    public void verify_rejectsForgedExpiredAndForeignTokens() {
+        Date expiresAt = new Date(System.currentTimeMillis() + 3_600_000);
+        String valid = JWT.create().withIssuer(ISSUER).withExpiresAt(expiresAt).sign(rs256(keyPair));
+        String[] invalid = {
+                JWT.create().withIssuer(ISSUER).withExpiresAt(expiresAt).sign(rs256(newKeyPair())),
+                JWT.create().withIssuer(ISSUER).withExpiresAt(expiresAt).sign(Algorithm.none()),
+                JWT.create().withIssuer(ISSUER).withExpiresAt(expiresAt).sign(Algorithm.HMAC256("secret")),
+                JWT.create().withIssuer(ISSUER).withExpiresAt(new Date(System.currentTimeMillis() - 1_000))
+                        .sign(rs256(keyPair)),
+                JWT.create().withIssuer(ISSUER).sign(rs256(keyPair)),
+                JWT.create().withIssuer(ISSUER).withExpiresAt(expiresAt)
+                        .withNotBefore(new Date(System.currentTimeMillis() + 300_000)).sign(rs256(keyPair)),
+                JWT.create().withIssuer(ISSUER + "x").withExpiresAt(expiresAt).sign(rs256(keyPair)),
+                valid.substring(0, valid.lastIndexOf('.')) + ".e30" + valid.substring(valid.lastIndexOf('.')),
+                valid.substring(0, valid.length() - 4) + "AAAA"
+        };
+        for (String token : invalid) {
+            try {
+                verifier.verify(token, (RSAPublicKey) keyPair.getPublic());
+                fail("Expected " + token + " to be rejected");
+            } catch (JwtProcessingException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void verify_allowsTheLeewayForClocksAhead() {
+        Instant now = Instant.parse("2020-06-01T12:00:00Z");
+        TokenVerifier verifier = new TokenVerifier(ISSUER, Clock.fixed(now, ZoneOffset.UTC), Duration.ofSeconds(30));
+        Date expiresAt = Date.from(now.plusSeconds(3_600));
+        String slightlyAhead = JWT.create().withIssuer(ISSUER).withExpiresAt(expiresAt)
+                .withIssuedAt(Date.from(now.plusSeconds(20))).withNotBefore(Date.from(now.plusSeconds(20)))
+                .sign(rs256(keyPair));
+        String tooFarAhead = JWT.create().withIssuer(ISSUER).withExpiresAt(expiresAt)
+                .withIssuedAt(Date.from(now.plusSeconds(40))).sign(rs256(keyPair));
+
+        assertEquals(ISSUER, verifier.verify(slightlyAhead, (RSAPublicKey) keyPair.getPublic()).getIssuer());
+        try {
+            verifier.verify(tooFarAhead, (RSAPublicKey) keyPair.getPublic());
+            fail("Expected a token issued beyond the leeway to be rejected");
+        } catch (JwtProcessingException e) {
+            assertEquals("The token is not valid yet.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void verify_rejectsTokensWithoutExpiry() {
+        String token = JWT.create().withIssuer(ISSUER).withIssuedAt(new Date()).sign(rs256(keyPair));
+        try {
+            verifier.verify(token, (RSAPublicKey) keyPair.getPublic());
+            fail("Expected a token without expiry to be rejected");
+        } catch (JwtProcessingException e) {
+            assertEquals("The token has no expiry.", e.getMessage());
+        }
+    }
+
+    static Algorithm rs256(KeyPair keyPair) {
+        return Algorithm.RSA256((RSAPublicKey) keyPair.getPublic(), (RSAPrivateKey) keyPair.getPrivate());
+    }
+
+    static KeyPair newKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
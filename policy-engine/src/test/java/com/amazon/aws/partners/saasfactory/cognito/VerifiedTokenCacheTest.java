@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.cognito;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class VerifiedTokenCacheTest {
+
+    private static final Instant NOW = Instant.parse("2020-06-01T12:00:00Z");
+
+    @Test
+    public void get_expiresEntriesWithTheirToken() {
+        MutableClock clock = new MutableClock(NOW);
+        VerifiedTokenCache cache = VerifiedTokenCache.builder().clock(clock).build();
+        VerifiedToken token = token(NOW.plus(Duration.ofMinutes(10)));
+
+        cache.put("token", token);
+        assertSame(token, cache.get("token"));
+
+        clock.instant = NOW.plus(Duration.ofMinutes(10));
+        assertNull(cache.get("token"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void put_capsLongLivedTokensAndSkipsTokensWithoutExpiry() {
+        MutableClock clock = new MutableClock(NOW);
+        VerifiedTokenCache cache = VerifiedTokenCache.builder()
+                .maxTtl(Duration.ofMinutes(5))
+                .clock(clock)
+                .build();
+
+        cache.put("long-lived", token(NOW.plus(Duration.ofDays(1))));
+        cache.put("no-expiry", token(null));
+        assertNotNull(cache.get("long-lived"));
+        assertNull(cache.get("no-expiry"));
+
+        clock.instant = NOW.plus(Duration.ofMinutes(5));
+        assertNull(cache.get("long-lived"));
+    }
+
+    private static VerifiedToken token(Instant expiresAt) {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put("sub", "user-1");
+        if (expiresAt != null) {
+            claims.put("exp", expiresAt.getEpochSecond());
+        }
+        return new VerifiedToken(claims);
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
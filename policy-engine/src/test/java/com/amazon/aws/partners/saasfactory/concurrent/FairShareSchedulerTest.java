@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.concurrent;
+
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import com.amazon.aws.partners.saasfactory.exception.StsThrottledException;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class FairShareSchedulerTest {
+
+    @Test
+    public void execute_quietTenantIsNotStarvedByANoisyOne() throws Exception {
+        FairShareScheduler scheduler = FairShareScheduler.builder()
+                .maxConcurrency(1)
+                .build();
+        ExecutorService callers = Executors.newCachedThreadPool();
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> started = new CopyOnWriteArrayList<>();
+        try {
+            callers.submit(() -> scheduler.execute("noisy", () -> await(release)));
+            waitFor(() -> scheduler.availableSlots() == 0);
+            for (int i = 0; i < 20; i++) {
+                callers.submit(() -> scheduler.execute("noisy", () -> started.add("noisy")));
+            }
+            waitFor(() -> scheduler.queued("noisy") == 20);
+            callers.submit(() -> scheduler.execute("quiet", () -> started.add("quiet")));
+            waitFor(() -> scheduler.queued("quiet") == 1);
+
+            release.countDown();
+            waitFor(() -> started.size() == 21);
+            assertTrue("quiet started at " + started.indexOf("quiet"), started.indexOf("quiet") <= 1);
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void execute_capsTheTenantConcurrencyAndQueue() throws Exception {
+        FairShareScheduler scheduler = FairShareScheduler.builder()
+                .maxConcurrency(4)
+                .maxConcurrencyPerTenant(1)
+                .maxQueuedPerTenant(1)
+                .build();
+        ExecutorService callers = Executors.newCachedThreadPool();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            callers.submit(() -> scheduler.execute("tenant-a", () -> await(release)));
+            waitFor(() -> scheduler.inFlight("tenant-a") == 1);
+            Future<String> second = callers.submit(() -> scheduler.execute("tenant-a", () -> "second"));
+            waitFor(() -> scheduler.queued("tenant-a") == 1);
+
+            assertEquals(1, scheduler.inFlight("tenant-a"));
+            assertEquals("other", scheduler.execute("tenant-b", () -> "other"));
+            try {
+                scheduler.execute("tenant-a", () -> "third");
+                fail("Expected the tenant queue to be full");
+            } catch (StsThrottledException expected) {
+                // tenant-a already has a call waiting
+            }
+
+            release.countDown();
+            assertEquals("second", second.get(5, TimeUnit.SECONDS));
+            waitFor(() -> scheduler.queued("tenant-a") == 0 && scheduler.availableSlots() == 4);
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void execute_givesUpWaitingForASlotAtTheDeadline() throws Exception {
+        FairShareScheduler scheduler = FairShareScheduler.builder()
+                .maxConcurrency(1)
+                .build();
+        ExecutorService callers = Executors.newCachedThreadPool();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            callers.submit(() -> scheduler.execute("tenant-a", () -> await(release)));
+            waitFor(() -> scheduler.availableSlots() == 0);
+
+            long start = System.nanoTime();
+            try {
+                scheduler.execute("tenant-b", () -> "second", Deadline.afterMillis(50));
+                fail("Expected the deadline to pass");
+            } catch (DeadlineExceededException expected) {
+                assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5_000);
+            }
+
+            release.countDown();
+            waitFor(() -> scheduler.availableSlots() == 1);
+            assertEquals("third", scheduler.execute("tenant-b", () -> "third"));
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    private static String await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "first";
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out waiting for the scheduler", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
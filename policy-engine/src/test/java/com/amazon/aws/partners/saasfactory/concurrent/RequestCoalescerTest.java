@@ -0,0 +1,175 @@
+package com.amazon.aws.partners.saasfactory.concurrent;
+
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import com.amazon.aws.partners.saasfactory.exception.PolicyAssumptionException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RequestCoalescerTest {
+
+    @Test
+    public void execute_concurrentCallersShareOneCall() throws Exception {
+        RequestCoalescer<String, String> coalescer = RequestCoalescer.builder().build();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> coalescer.execute("tenant-a", () -> {
+                    calls.incrementAndGet();
+                    await(release);
+                    return "credentials";
+                })));
+            }
+            while (coalescer.inFlightCount() == 0) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("credentials", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, coalescer.inFlightCount());
+    }
+
+    @Test
+    public void execute_waitersReceiveLeaderError() throws Exception {
+        RequestCoalescer<String, String> coalescer = RequestCoalescer.builder().build();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("Throttling");
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> leader = pool.submit(() -> coalescer.execute("tenant-a", () -> {
+                started.countDown();
+                await(release);
+                throw failure;
+            }));
+            started.await(5, TimeUnit.SECONDS);
+            Thread waiterRelease = new Thread(() -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                release.countDown();
+            });
+            waiterRelease.start();
+            try {
+                coalescer.execute("tenant-a", () -> "unexpected");
+                fail("Expected the leader's error");
+            } catch (IllegalStateException e) {
+                assertSame(failure, e);
+            }
+            try {
+                leader.get(5, TimeUnit.SECONDS);
+            } catch (Exception expected) {
+                // the leader rethrows as well
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test(expected = PolicyAssumptionException.class)
+    public void execute_waiterTimesOut() throws Exception {
+        RequestCoalescer<String, String> coalescer = RequestCoalescer.builder()
+                .maxWaitMillis(20)
+                .build();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            pool.submit(() -> coalescer.execute("tenant-a", () -> {
+                started.countDown();
+                await(release);
+                return "late";
+            }));
+            started.await(5, TimeUnit.SECONDS);
+            coalescer.execute("tenant-a", () -> "unexpected");
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void execute_waiterGivesUpAtItsDeadline() throws Exception {
+        RequestCoalescer<String, String> coalescer = RequestCoalescer.builder().build();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            pool.submit(() -> coalescer.execute("tenant-a", () -> {
+                started.countDown();
+                await(release);
+                return "late";
+            }));
+            started.await(5, TimeUnit.SECONDS);
+            long start = System.nanoTime();
+            try {
+                coalescer.execute("tenant-a", () -> "unexpected", Deadline.afterMillis(50));
+                fail("Expected the deadline to pass");
+            } catch (DeadlineExceededException expected) {
+                assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5_000);
+            }
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void execute_waiterWithTimeLeftTakesOverWhenTheLeaderRunsOutOfTime() throws Exception {
+        RequestCoalescer<String, String> coalescer = RequestCoalescer.builder().build();
+        CountDownLatch started = new CountDownLatch(1);
+        Deadline leaderDeadline = Deadline.afterMillis(100);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> leader = pool.submit(() -> coalescer.execute("tenant-a", () -> {
+                started.countDown();
+                while (!leaderDeadline.isExpired()) {
+                    Thread.yield();
+                }
+                throw new DeadlineExceededException("Deadline passed calling STS.");
+            }, leaderDeadline));
+            started.await(5, TimeUnit.SECONDS);
+
+            String value = coalescer.execute("tenant-a", () -> "credentials", Deadline.afterMillis(5_000));
+
+            assertEquals("credentials", value);
+            try {
+                leader.get(5, TimeUnit.SECONDS);
+                fail("Expected the leader to fail at its deadline");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof DeadlineExceededException);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(0, coalescer.inFlightCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.concurrent;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class VendingExecutorsTest {
+
+    @Test
+    public void newVendingExecutor_runsTasksOnNamedDaemonThreads() throws Exception {
+        ExecutorService executor = VendingExecutors.newVendingExecutor("test-vend");
+        try {
+            Future<Thread> thread = executor.submit(Thread::currentThread);
+            assertTrue(thread.get(5, TimeUnit.SECONDS).getName().startsWith("test-vend-"));
+            assertTrue(thread.get().isDaemon());
+            assertEquals(VendingExecutors.usesVirtualThreads(), isVirtual(thread.get()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void newBoundedVendingExecutor_letsIdleThreadsTimeOut() throws Exception {
+        ThreadPoolExecutor executor = VendingExecutors.newBoundedVendingExecutor("test-stage", 2, 4);
+        try {
+            assertTrue(executor.allowsCoreThreadTimeOut());
+            assertTrue(executor.getKeepAliveTime(TimeUnit.MILLISECONDS) > 0);
+            Future<Thread> thread = executor.submit(Thread::currentThread);
+            assertTrue(thread.get(5, TimeUnit.SECONDS).getName().startsWith("test-stage-"));
+            assertEquals(VendingExecutors.usesVirtualThreads(), isVirtual(thread.get()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void newBoundedVendingExecutor_rejectsTasksBeyondItsQueue() throws InterruptedException {
+        ThreadPoolExecutor executor = VendingExecutors.newBoundedVendingExecutor("test-stage", 1, 1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            executor.execute(() -> { });
+            try {
+                executor.execute(() -> { });
+                fail("the third task has neither a thread nor room in the queue");
+            } catch (RejectedExecutionException expected) {
+                assertEquals(1, executor.getQueue().size());
+            }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    // Thread.isVirtual() only exists on Java 21, where the java21 profile runs this test against the virtual variant
+    private static boolean isVirtual(Thread thread) throws ReflectiveOperationException {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
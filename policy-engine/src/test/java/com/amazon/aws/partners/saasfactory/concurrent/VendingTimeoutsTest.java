@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.concurrent;
+
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class VendingTimeoutsTest {
+
+    private final VendingTimeouts timeouts = VendingTimeouts.builder()
+            .timeout(VendingTimeouts.Phase.STS, Duration.ofSeconds(2))
+            .expectedLatency(VendingTimeouts.Phase.STS, Duration.ofMillis(200))
+            .build();
+
+    @Test
+    public void timeoutFor_neverExtendsPastTheDeadline() {
+        assertEquals(Duration.ofSeconds(2), timeouts.timeoutFor(VendingTimeouts.Phase.STS, Deadline.none()));
+        assertNull(timeouts.timeoutFor(VendingTimeouts.Phase.COGNITO, Deadline.none()));
+
+        assertEquals(Duration.ofSeconds(2), timeouts.timeoutFor(VendingTimeouts.Phase.STS, Deadline.afterMillis(60_000)));
+        Duration bounded = timeouts.timeoutFor(VendingTimeouts.Phase.STS, Deadline.afterMillis(1_000));
+        assertTrue(bounded.toMillis() <= 1_000 && bounded.toMillis() > 500);
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void timeoutFor_failsFastWhenTheExpectedLatencyDoesNotFit() {
+        timeouts.timeoutFor(VendingTimeouts.Phase.STS, Deadline.afterMillis(5_000).minus(Duration.ofMillis(4_900)));
+    }
+}
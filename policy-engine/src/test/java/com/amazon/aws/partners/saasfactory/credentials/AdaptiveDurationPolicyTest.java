@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.credentials;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveDurationPolicyTest {
+
+    private static final String ROLE = "arn:aws:iam::123456789012:role/tenant-role";
+    private static final String SHORT_ROLE = "arn:aws:iam::123456789012:role/short-role";
+
+    @Test
+    public void durationSeconds_followsTheTenantRequestRate() {
+        AtomicReference<Instant> now = new AtomicReference<>(Instant.now());
+        AdaptiveDurationPolicy policy = AdaptiveDurationPolicy.builder()
+                .maxDuration(SHORT_ROLE, Duration.ofMinutes(30))
+                .clock(new Clock() {
+                    @Override
+                    public ZoneId getZone() {
+                        return ZoneOffset.UTC;
+                    }
+
+                    @Override
+                    public Clock withZone(ZoneId zone) {
+                        return this;
+                    }
+
+                    @Override
+                    public Instant instant() {
+                        return now.get();
+                    }
+                })
+                .build();
+
+        assertEquals(DurationPolicy.MIN_DURATION_SECONDS, policy.durationSeconds(ROLE, "idle"));
+
+        // two requests a minute for an hour
+        for (int i = 0; i < 120; i++) {
+            now.set(now.get().plusSeconds(30));
+            policy.durationSeconds(ROLE, "busy");
+            policy.durationSeconds(SHORT_ROLE, "busy");
+        }
+        assertEquals(3600, policy.durationSeconds(ROLE, "busy"));
+        assertEquals(1800, policy.durationSeconds(SHORT_ROLE, "busy"));
+        assertEquals(DurationPolicy.MIN_DURATION_SECONDS, policy.durationSeconds(ROLE, "idle"));
+
+        now.set(now.get().plus(Duration.ofHours(4)));
+        assertEquals(DurationPolicy.MIN_DURATION_SECONDS, policy.durationSeconds(ROLE, "busy"));
+    }
+
+    @Test
+    public void currentDurationSeconds_doesNotCountAsARequest() {
+        AdaptiveDurationPolicy policy = AdaptiveDurationPolicy.builder().build();
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(DurationPolicy.MIN_DURATION_SECONDS, policy.currentDurationSeconds(ROLE, "prewarmed"));
+        }
+        assertEquals(0, policy.requestRate(ROLE, "prewarmed"), 0);
+
+        policy.durationSeconds(ROLE, "prewarmed");
+        assertTrue(policy.requestRate(ROLE, "prewarmed") > 0);
+    }
+}
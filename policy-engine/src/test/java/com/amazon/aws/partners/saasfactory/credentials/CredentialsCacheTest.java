@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.credentials;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.*;
+
+public class CredentialsCacheTest {
+
+    private static final Instant NOW = Instant.parse("2020-01-01T00:00:00Z");
+    private static final CredentialsKey KEY = new CredentialsKey("arn:aws:iam::123456789012:role/tenant-role", "tenant-a", "{}");
+
+    @Test
+    public void get_servesCredentialsUntilTheyAreDueForRefresh() {
+        MutableClock clock = new MutableClock(NOW);
+        CredentialsCache cache = CredentialsCache.builder()
+                .refreshSkew(Duration.ofMinutes(5))
+                .clock(clock)
+                .build();
+        Credentials credentials = credentials(NOW.plus(Duration.ofMinutes(15)));
+        cache.put(KEY, credentials);
+
+        clock.instant = NOW.plus(Duration.ofMinutes(10)).minusMillis(1);
+        assertSame(credentials, cache.get(KEY));
+
+        // refreshed ahead of expiration, but still good while STS cannot be reached
+        clock.instant = NOW.plus(Duration.ofMinutes(10));
+        assertNull(cache.get(KEY));
+        assertSame(credentials, cache.getIfValid(KEY));
+
+        clock.instant = NOW.plus(Duration.ofMinutes(15)).minusMillis(1);
+        assertSame(credentials, cache.getIfValid(KEY));
+
+        clock.instant = NOW.plus(Duration.ofMinutes(15));
+        assertNull(cache.getIfValid(KEY));
+        assertNull(cache.get(KEY));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void put_skipsCredentialsAlreadyDueForRefresh() {
+        CredentialsCache cache = CredentialsCache.builder()
+                .refreshSkew(Duration.ofMinutes(5))
+                .clock(new MutableClock(NOW))
+                .build();
+
+        cache.put(KEY, credentials(NOW.plus(Duration.ofMinutes(5))));
+        assertEquals(0, cache.size());
+
+        cache.put(KEY, credentials(null));
+        assertEquals(0, cache.size());
+
+        cache.put(KEY, credentials(NOW.plus(Duration.ofMinutes(5)).plusMillis(1)));
+        assertEquals(1, cache.size());
+    }
+
+    private static Credentials credentials(Instant expiration) {
+        return Credentials.builder()
+                .accessKeyId("AKIA")
+                .secretAccessKey("secret")
+                .sessionToken("token")
+                .expiration(expiration)
+                .build();
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
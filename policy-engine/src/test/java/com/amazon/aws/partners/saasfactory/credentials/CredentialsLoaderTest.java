@@ -0,0 +1,154 @@
+package com.amazon.aws.partners.saasfactory.credentials;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.concurrent.NegativeCache;
+import com.amazon.aws.partners.saasfactory.sts.CircuitBreaker;
+import com.amazon.aws.partners.saasfactory.sts.StsGuard;
+import org.junit.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class CredentialsLoaderTest {
+
+    private static final CredentialsKey KEY = new CredentialsKey("arn:aws:iam::123456789012:role/tenant-role", "tenant-a", "{}");
+
+    @Test
+    public void load_servesCachedCredentialsWithoutCallingSts() {
+        CredentialsLoader loader = CredentialsLoader.builder()
+                .cache(CredentialsCache.builder().build())
+                .build();
+        AtomicInteger calls = new AtomicInteger();
+
+        Credentials first = loader.load(KEY, () -> {
+            calls.incrementAndGet();
+            return credentials(Duration.ofMinutes(15));
+        });
+        Credentials second = loader.load(KEY, () -> {
+            calls.incrementAndGet();
+            return credentials(Duration.ofMinutes(15));
+        });
+
+        assertSame(first, second);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void load_servesStillValidCredentialsWhileStsThrottles() {
+        AtomicReference<Instant> now = new AtomicReference<>(Instant.now());
+        CredentialsCache cache = CredentialsCache.builder()
+                .refreshSkew(Duration.ofMinutes(5))
+                .clock(new Clock() {
+                    @Override
+                    public ZoneId getZone() {
+                        return ZoneOffset.UTC;
+                    }
+
+                    @Override
+                    public Clock withZone(ZoneId zone) {
+                        return this;
+                    }
+
+                    @Override
+                    public Instant instant() {
+                        return now.get();
+                    }
+                })
+                .build();
+        CredentialsLoader loader = CredentialsLoader.builder()
+                .cache(cache)
+                .stsGuard(StsGuard.builder()
+                        .circuitBreaker(() -> CircuitBreaker.builder().failureThreshold(1).build())
+                        .build())
+                .build();
+        Credentials vended = loader.load(KEY, () -> credentials(Duration.ofMinutes(15)));
+
+        // inside the refresh window, but not yet expired
+        now.set(now.get().plus(Duration.ofMinutes(12)));
+        assertNull(cache.get(KEY));
+
+        Credentials served = loader.load(KEY, () -> {
+            throw AwsServiceException.builder()
+                    .awsErrorDetails(AwsErrorDetails.builder().errorCode("Throttling").build())
+                    .statusCode(400)
+                    .build();
+        });
+        assertSame(vended, served);
+    }
+
+    @Test
+    public void load_prewarmRefreshesCredentialsBeforeRequestsFindThemDue() {
+        CredentialsLoader loader = CredentialsLoader.builder()
+                .cache(CredentialsCache.builder().refreshSkew(Duration.ofMinutes(5)).build())
+                .prewarmWindow(Duration.ofMinutes(8))
+                .build();
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<Credentials> stsCall = () -> {
+            calls.incrementAndGet();
+            return credentials(Duration.ofMinutes(calls.get() == 1 ? 10 : 60));
+        };
+        Credentials vended = loader.load(KEY, stsCall);
+
+        // not yet due for requests, but due within the prewarm window
+        assertSame(vended, loader.load(KEY, stsCall));
+        Credentials prewarmed = loader.load(KEY, stsCall, Deadline.none(), true);
+
+        assertNotSame(vended, prewarmed);
+        assertEquals(2, calls.get());
+        assertSame(prewarmed, loader.load(KEY, stsCall));
+        assertSame(prewarmed, loader.load(KEY, stsCall, Deadline.none(), true));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void load_refusesDeniedAssumptionWithoutCallingSts() {
+        CredentialsLoader loader = CredentialsLoader.builder()
+                .cache(CredentialsCache.builder().build())
+                .deniedAssumptions(NegativeCache.builder().build())
+                .build();
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<Credentials> denied = () -> {
+            calls.incrementAndGet();
+            throw AwsServiceException.builder()
+                    .awsErrorDetails(AwsErrorDetails.builder().errorCode("AccessDenied").build())
+                    .statusCode(403)
+                    .build();
+        };
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                loader.load(KEY, denied);
+                fail("Expected the assumption to be denied");
+            } catch (AwsServiceException e) {
+                assertTrue(CredentialsLoader.isAccessDenied(e));
+            }
+        }
+        assertEquals(1, calls.get());
+
+        // another tenant of the same role still reaches STS
+        loader.load(new CredentialsKey(KEY.getRole(), "tenant-b", "{}"), () -> credentials(Duration.ofMinutes(15)));
+        // as does the same tenant once it has been invalidated
+        CredentialsKey invalidated = new CredentialsKey(KEY.getRole(), KEY.getTenant(), KEY.getPolicy(), 1);
+        loader.load(invalidated, () -> credentials(Duration.ofMinutes(15)));
+    }
+
+    private static Credentials credentials(Duration validFor) {
+        return Credentials.builder()
+                .accessKeyId("AKIA")
+                .secretAccessKey("secret")
+                .sessionToken("token")
+                .expiration(Instant.now().plus(validFor))
+                .build();
+    }
+}
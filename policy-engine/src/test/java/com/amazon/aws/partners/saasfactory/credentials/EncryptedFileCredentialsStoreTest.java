@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.credentials;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class EncryptedFileCredentialsStoreTest {
+
+    private static final CredentialsKey KEY = new CredentialsKey("arn:aws:iam::123456789012:role/tenant-role", "tenant-a", "{}");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void get_readsCredentialsWrittenByAnotherInstance() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("credentials.store");
+        Credentials credentials = credentials();
+
+        try (EncryptedFileCredentialsStore writer = store(path, key((byte) 1))) {
+            writer.put(KEY, credentials);
+        }
+        try (EncryptedFileCredentialsStore reader = store(path, key((byte) 1))) {
+            assertEquals(credentials, reader.get(KEY));
+            assertNull(reader.get(new CredentialsKey(KEY.getRole(), "tenant-b", KEY.getPolicy())));
+
+            reader.remove(KEY);
+            assertNull(reader.get(KEY));
+        }
+    }
+
+    @Test
+    public void get_treatsEntriesEncryptedWithAnotherKeyAsMisses() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("credentials.store");
+
+        try (EncryptedFileCredentialsStore writer = store(path, key((byte) 1))) {
+            writer.put(KEY, credentials());
+        }
+        try (EncryptedFileCredentialsStore reader = store(path, key((byte) 2))) {
+            assertNull(reader.get(KEY));
+        }
+    }
+
+    @Test
+    public void removeTenant_removesEveryEntryOfTheTenantForEveryProcess() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("credentials.store");
+        CredentialsKey invalidated = new CredentialsKey(KEY.getRole(), KEY.getTenant(), "{\"scoped\":true}", 3);
+        CredentialsKey other = new CredentialsKey(KEY.getRole(), "tenant-b", KEY.getPolicy());
+
+        try (EncryptedFileCredentialsStore writer = store(path, key((byte) 1))) {
+            writer.put(KEY, credentials());
+            writer.put(invalidated, credentials());
+            writer.put(other, credentials());
+        }
+        try (EncryptedFileCredentialsStore sibling = store(path, key((byte) 1))) {
+            CredentialsCache cache = CredentialsCache.builder().secondLevel(sibling).build();
+            assertNotNull(cache.get(KEY));
+            cache.invalidateTenant(KEY.getTenant());
+            assertEquals(0, cache.size());
+        }
+        try (EncryptedFileCredentialsStore reader = store(path, key((byte) 1))) {
+            assertNull(reader.get(KEY));
+            assertNull(reader.get(invalidated));
+            assertNotNull(reader.get(other));
+        }
+    }
+
+    @Test
+    public void get_promotesSecondLevelEntriesIntoTheCache() {
+        InMemoryCredentialsStore store = new InMemoryCredentialsStore();
+        Credentials credentials = credentials();
+        CredentialsCache.builder().secondLevel(store).build().put(KEY, credentials);
+
+        CredentialsCache restarted = CredentialsCache.builder().secondLevel(store).build();
+        assertEquals(0, restarted.size());
+        assertSame(credentials, restarted.get(KEY));
+        assertEquals(1, restarted.size());
+    }
+
+    private static EncryptedFileCredentialsStore store(Path path, byte[] key) {
+        return EncryptedFileCredentialsStore.builder()
+                .path(path)
+                .key(key)
+                .slotCount(16)
+                .build();
+    }
+
+    private static byte[] key(byte value) {
+        byte[] key = new byte[32];
+        Arrays.fill(key, value);
+        return key;
+    }
+
+    private static Credentials credentials() {
+        return Credentials.builder()
+                .accessKeyId("AKIA")
+                .secretAccessKey("secret")
+                .sessionToken("token")
+                .expiration(Instant.ofEpochMilli(Instant.now().plus(Duration.ofMinutes(15)).toEpochMilli()))
+                .build();
+    }
+}
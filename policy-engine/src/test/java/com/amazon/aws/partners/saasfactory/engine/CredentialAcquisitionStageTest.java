@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.credentials.AdaptiveDurationPolicy;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsCache;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsKey;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsLoader;
+import com.amazon.aws.partners.saasfactory.sts.StsEndpointSelector;
+import com.amazon.aws.partners.saasfactory.sts.StubStsServer;
+import org.junit.Test;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+import static org.junit.Assert.*;
+
+public class CredentialAcquisitionStageTest {
+
+    private static final String ROLE = "arn:aws:iam::123456789012:role/tenant-role";
+    private static final String POLICY = "{\"tenant\":\"acquisition-tenant\"}";
+
+    @Test
+    public void acquire_assumesTheRoleForEachWebIdentityOfTheTenant() throws Exception {
+        try (StubStsServer sts = new StubStsServer("AKIA")) {
+            CredentialAcquisitionStage stage = CredentialAcquisitionStage.builder()
+                    .credentialsLoader(CredentialsLoader.builder().cache(CredentialsCache.builder().build()).build())
+                    .stsEndpointSelector(StsEndpointSelector.single(sts.client()))
+                    .build();
+
+            stage.acquire(ROLE, "acquisition-tenant", POLICY, webIdentityToken("us-west-2:alice"), Deadline.none());
+            stage.acquire(ROLE, "acquisition-tenant", POLICY, webIdentityToken("us-west-2:bob"), Deadline.none());
+            assertEquals(2, sts.requests());
+
+            stage.acquire(ROLE, "acquisition-tenant", POLICY, webIdentityToken("us-west-2:alice"), Deadline.none());
+            assertEquals(2, sts.requests());
+        }
+    }
+
+    @Test
+    public void acquire_countsOnlyClientVendsTowardsTheTenantUsage() {
+        CredentialsCache cache = CredentialsCache.builder().build();
+        Credentials cached = Credentials.builder()
+                .accessKeyId("AKIA")
+                .secretAccessKey("secret")
+                .sessionToken("token")
+                .expiration(Instant.now().plus(Duration.ofHours(1)))
+                .build();
+        cache.put(new CredentialsKey(ROLE, "acquisition-tenant", POLICY, 0), cached);
+        AdaptiveDurationPolicy durationPolicy = AdaptiveDurationPolicy.builder().build();
+        CredentialAcquisitionStage stage = CredentialAcquisitionStage.builder()
+                .credentialsLoader(CredentialsLoader.builder().cache(cache).build())
+                .durationPolicy(durationPolicy)
+                .build();
+
+        assertSame(cached, stage.acquire(ROLE, "acquisition-tenant", POLICY, null, Deadline.none(), true));
+        assertEquals(0, durationPolicy.requestRate(ROLE, "acquisition-tenant"), 0);
+
+        assertSame(cached, stage.acquire(ROLE, "acquisition-tenant", POLICY, null, Deadline.none()));
+        assertTrue(durationPolicy.requestRate(ROLE, "acquisition-tenant") > 0);
+    }
+
+    private static String webIdentityToken(String identityId) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString("{\"alg\":\"RS512\"}".getBytes(StandardCharsets.UTF_8)) + "."
+                + encoder.encodeToString(("{\"sub\":\"" + identityId + "\"}").getBytes(StandardCharsets.UTF_8))
+                + ".c2lnbmF0dXJl";
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import com.amazon.aws.partners.saasfactory.exception.PolicyAssumptionException;
+import com.amazon.aws.partners.saasfactory.policy.PolicyGenerator;
+import org.junit.Test;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class VendingEngineTest {
+
+    private static final Instant EXPIRATION = Instant.parse("2030-01-01T00:00:00Z");
+
+    private final AtomicInteger policies = new AtomicInteger();
+
+    private VendingEngine.VendingEngineBuilder engine(VendingStage credentials) {
+        return VendingEngine.builder()
+                .policyGenerator(() -> new TenantPolicyGenerator(policies))
+                .stage(StageName.CREDENTIALS, credentials);
+    }
+
+    private static VendingRequest request(String tenant) {
+        return VendingRequest.builder()
+                .flow(VendingFlow.TENANT)
+                .tenant(tenant)
+                .role("arn:aws:iam::123456789012:role/tenant")
+                .build();
+    }
+
+    private static void credentials(VendingContext context) {
+        assertEquals("{\"tenant\":\"" + context.getTenant() + "\"}", context.getPolicy());
+        context.setCredentials(Credentials.builder()
+                .accessKeyId("AKIA" + context.getTenant())
+                .secretAccessKey("secret")
+                .sessionToken("token")
+                .expiration(EXPIRATION)
+                .build());
+    }
+
+    @Test
+    public void vend_runsEveryStageInOrder() {
+        VendingEngine engine = engine(VendingEngineTest::credentials).build();
+
+        VendingResult result = engine.vend(request("t1"));
+
+        assertEquals("t1", result.getTenant());
+        assertEquals("arn:aws:iam::123456789012:role/tenant", result.getRole());
+        assertEquals(EXPIRATION, result.getExpiration());
+        assertEquals("AKIAt1", result.getCredentialsProvider().resolveCredentials().accessKeyId());
+        assertTrue(result.getTimings().keySet().containsAll(
+                Arrays.asList(StageName.PARSE, StageName.IDENTITY, StageName.POLICY, StageName.CREDENTIALS)));
+        for (StageMetrics metrics : engine.metrics()) {
+            assertEquals(metrics.getStage().name(), 1, metrics.getCompleted());
+        }
+    }
+
+    @Test
+    public void vend_turnsVendsAwayWhenTheStageQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        VendingEngine engine = engine(context -> {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            credentials(context);
+        }).executor(StageName.CREDENTIALS, 1, 1).build();
+
+        CompletableFuture<VendingResult> running = engine.vendAsync(request("t1"));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<VendingResult> queued = engine.vendAsync(request("t2"));
+        try {
+            engine.vend(request("t3"));
+            fail("Expected the third vend to be turned away");
+        } catch (PolicyAssumptionException e) {
+            assertTrue(e.getMessage().contains("CREDENTIALS"));
+        }
+        release.countDown();
+
+        assertEquals("t1", running.get(10, TimeUnit.SECONDS).getTenant());
+        assertEquals("t2", queued.get(10, TimeUnit.SECONDS).getTenant());
+        StageMetrics credentials = engine.metrics().get(StageName.CREDENTIALS.ordinal());
+        assertEquals(2, credentials.getCompleted());
+        assertEquals(1, credentials.getRejected());
+        engine.shutdown();
+    }
+
+    @Test
+    public void vend_stopsAtTheDeadline() {
+        VendingEngine engine = engine(VendingEngineTest::credentials).build();
+        try {
+            engine.vendAsync(VendingRequest.builder()
+                    .flow(VendingFlow.TENANT)
+                    .tenant("t1")
+                    .deadline(Deadline.afterMillis(0))
+                    .build()).join();
+            fail("Expected the vend to stop at the deadline");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof DeadlineExceededException);
+        }
+        assertEquals(0, policies.get());
+    }
+
+    @Test
+    public void vend_resolvesTheIdentityPoolAlongsideThePolicy() {
+        CountDownLatch policyStarted = new CountDownLatch(1);
+        VendingEngine engine = engine(VendingEngineTest::credentials)
+                .stage(StageName.PARSE, context -> context.setTenant("t1"))
+                .stage(StageName.IDENTITY, context -> {
+                    try {
+                        // only completes if the policy stage runs while this one is still running
+                        assertTrue(policyStarted.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    context.setRole("arn:aws:iam::123456789012:role/identity-pool-auth");
+                })
+                .stage(StageName.POLICY, context -> {
+                    policyStarted.countDown();
+                    context.setPolicy("{\"tenant\":\"" + context.getTenant() + "\"}");
+                })
+                .build();
+
+        VendingResult result = engine.vend(VendingRequest.builder()
+                .flow(VendingFlow.COGNITO_IDENTITY_POOL)
+                .build());
+
+        assertEquals("arn:aws:iam::123456789012:role/identity-pool-auth", result.getRole());
+        assertEquals("AKIAt1", result.getCredentialsProvider().resolveCredentials().accessKeyId());
+    }
+
+    private static final class TenantPolicyGenerator implements PolicyGenerator {
+        private final AtomicInteger policies;
+        private String tenant;
+
+        private TenantPolicyGenerator(AtomicInteger policies) {
+            this.policies = policies;
+        }
+
+        @Override
+        public String generatePolicy() {
+            policies.incrementAndGet();
+            return "{\"tenant\":\"" + tenant + "\"}";
+        }
+
+        @Override
+        public PolicyGenerator tenant(String tenant) {
+            this.tenant = tenant;
+            return this;
+        }
+
+        @Override
+        public String getTenant() {
+            return tenant;
+        }
+    }
+}
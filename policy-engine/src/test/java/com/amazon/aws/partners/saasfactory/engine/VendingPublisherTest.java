@@ -0,0 +1,210 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.engine;
+
+import com.amazon.aws.partners.saasfactory.exception.PolicyAssumptionException;
+import com.amazon.aws.partners.saasfactory.policy.PolicyGenerator;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class VendingPublisherTest {
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    private VendingEngine engine() {
+        return VendingEngine.builder()
+                .policyGenerator(TenantPolicyGenerator::new)
+                .stage(StageName.CREDENTIALS, context -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    if ("t7".equals(context.getTenant())) {
+                        throw new PolicyAssumptionException("denied");
+                    }
+                    context.setCredentials(Credentials.builder()
+                            .accessKeyId("AKIA" + context.getTenant())
+                            .secretAccessKey("secret")
+                            .sessionToken("token")
+                            .expiration(Instant.parse("2030-01-01T00:00:00Z"))
+                            .build());
+                })
+                .build();
+    }
+
+    @Test
+    public void subscribe_vendsEveryRequestWithBoundedConcurrency() throws Exception {
+        Requests requests = new Requests(40);
+        VendingPublisher publisher = VendingPublisher.builder()
+                .engine(engine())
+                .requests(requests)
+                .maxInFlight(4)
+                .build();
+        Outcomes outcomes = new Outcomes(Long.MAX_VALUE);
+
+        publisher.subscribe(outcomes);
+
+        assertTrue(outcomes.done.await(10, TimeUnit.SECONDS));
+        assertNull(outcomes.error);
+        assertEquals(40, outcomes.received.size());
+        Set<String> tenants = ConcurrentHashMap.newKeySet();
+        for (VendingOutcome outcome : outcomes.received) {
+            tenants.add(outcome.getRequest().getTenant());
+            assertEquals("t7".equals(outcome.getRequest().getTenant()), !outcome.isSuccess());
+        }
+        assertEquals(40, tenants.size());
+        assertTrue(maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void subscribe_holdsBackTheRequestsOfASlowSubscriber() throws Exception {
+        Requests requests = new Requests(40);
+        VendingPublisher publisher = VendingPublisher.builder()
+                .engine(engine())
+                .requests(requests)
+                .maxInFlight(4)
+                .build();
+        Outcomes outcomes = new Outcomes(2);
+
+        publisher.subscribe(outcomes);
+        Thread.sleep(200);
+
+        assertEquals(2, outcomes.received.size());
+        assertEquals(6, requests.taken.get());
+
+        outcomes.subscription.request(Long.MAX_VALUE);
+        assertTrue(outcomes.done.await(10, TimeUnit.SECONDS));
+        assertEquals(40, outcomes.received.size());
+    }
+
+    private static final class Requests implements Publisher<VendingRequest> {
+        private final int count;
+        private final AtomicInteger taken = new AtomicInteger();
+
+        private Requests(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super VendingRequest> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                private long demand;
+                private boolean emitting;
+                private boolean completed;
+
+                @Override
+                public synchronized void request(long n) {
+                    demand += n;
+                    if (emitting) {
+                        return;
+                    }
+                    emitting = true;
+                    while (demand > 0 && taken.get() < count) {
+                        demand--;
+                        subscriber.onNext(VendingRequest.builder()
+                                .flow(VendingFlow.TENANT)
+                                .tenant("t" + taken.getAndIncrement())
+                                .role("arn:aws:iam::123456789012:role/tenant")
+                                .build());
+                    }
+                    emitting = false;
+                    if (taken.get() == count && !completed) {
+                        completed = true;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+        }
+    }
+
+    private static final class Outcomes implements Subscriber<VendingOutcome> {
+        private final long initialDemand;
+        private final List<VendingOutcome> received = new CopyOnWriteArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Subscription subscription;
+        private volatile Throwable error;
+
+        private Outcomes(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialDemand);
+        }
+
+        @Override
+        public void onNext(VendingOutcome outcome) {
+            received.add(outcome);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+
+    private static final class TenantPolicyGenerator implements PolicyGenerator {
+        private String tenant;
+
+        @Override
+        public String generatePolicy() {
+            return "{\"tenant\":\"" + tenant + "\"}";
+        }
+
+        @Override
+        public PolicyGenerator tenant(String tenant) {
+            this.tenant = tenant;
+            return this;
+        }
+
+        @Override
+        public String getTenant() {
+            return tenant;
+        }
+    }
+}
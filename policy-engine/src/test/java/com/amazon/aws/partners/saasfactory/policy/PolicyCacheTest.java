@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.policy;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PolicyCacheTest {
+
+    private static final List<String> S3 = Collections.singletonList("S3FolderPerTenantTemplate.json");
+    private static final List<String> S3_AND_DYNAMO = Arrays.asList("S3FolderPerTenantTemplate.json",
+            "DynamoLeadingKeyTemplate.json");
+
+    private final PolicyGenerations generations = new PolicyGenerations();
+    private final PolicyCache cache = PolicyCache.builder()
+            .generations(generations)
+            .build();
+    private final AtomicInteger renders = new AtomicInteger();
+
+    private String policy(List<String> templates, String tenant) {
+        Map<String, String> data = new HashMap<>();
+        data.put("tenant", tenant);
+        return cache.get(templates, data, () -> tenant + "-" + templates.size() + "-" + renders.incrementAndGet());
+    }
+
+    @Test
+    public void get_rendersAgainOnlyWhatDependsOnTheInvalidatedTenant() {
+        assertEquals("t1-1-1", policy(S3, "t1"));
+        assertEquals("t2-1-2", policy(S3, "t2"));
+        assertEquals("t1-1-1", policy(S3, "t1"));
+
+        generations.invalidateTenant("t1");
+
+        assertEquals("t1-1-3", policy(S3, "t1"));
+        assertEquals("t2-1-2", policy(S3, "t2"));
+    }
+
+    @Test
+    public void get_rendersAgainOnlyWhatUsesTheInvalidatedTemplateSet() {
+        policy(S3, "t1");
+        policy(S3_AND_DYNAMO, "t1");
+        policy(Collections.singletonList("SQSTenantQueueTemplate.json"), "t1");
+
+        generations.invalidateTemplateSet("DynamoLeadingKeyTemplate.json");
+        generations.invalidateTenant("t2");
+
+        assertEquals("t1-1-1", policy(S3, "t1"));
+        assertEquals("t1-2-4", policy(S3_AND_DYNAMO, "t1"));
+        assertEquals("t1-1-3", policy(Collections.singletonList("SQSTenantQueueTemplate.json"), "t1"));
+
+        generations.invalidateAll();
+        assertEquals("t1-1-5", policy(S3, "t1"));
+    }
+}
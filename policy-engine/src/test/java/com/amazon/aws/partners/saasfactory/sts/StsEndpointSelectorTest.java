@@ -0,0 +1,91 @@
+package com.amazon.aws.partners.saasfactory.sts;
+
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import org.junit.Test;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class StsEndpointSelectorTest {
+
+    @Test
+    public void execute_prefersFastestEndpoint() throws Exception {
+        try (StubStsServer slow = new StubStsServer("SLOW"); StubStsServer fast = new StubStsServer("FAST")) {
+            slow.delayMillis(150);
+            StsEndpointSelector selector = StsEndpointSelector.builder()
+                    .endpoint("slow", slow.client())
+                    .endpoint("fast", fast.client())
+                    .explorationRatio(0)
+                    .build();
+
+            // the first calls measure both endpoints
+            assumeRole(selector);
+            assumeRole(selector);
+            for (int i = 0; i < 5; i++) {
+                assertEquals("FAST", assumeRole(selector).accessKeyId());
+            }
+            assertEquals(1, slow.requests());
+        }
+    }
+
+    @Test
+    public void execute_failsOverAndProbesAfterCooldown() throws Exception {
+        try (StubStsServer broken = new StubStsServer("BROKEN"); StubStsServer healthy = new StubStsServer("HEALTHY")) {
+            broken.status(500);
+            StsEndpointSelector selector = StsEndpointSelector.builder()
+                    .endpoint("broken", broken.client())
+                    .endpoint("healthy", healthy.client())
+                    .failureThreshold(1)
+                    .cooldown(Duration.ofMillis(200))
+                    .explorationRatio(0)
+                    .build();
+
+            assertEquals("HEALTHY", assumeRole(selector).accessKeyId());
+            assertFalse(selector.metrics().get(0).isHealthy());
+            int brokenRequests = broken.requests();
+            assertEquals("HEALTHY", assumeRole(selector).accessKeyId());
+            assertEquals("No calls during the cooldown", brokenRequests, broken.requests());
+
+            broken.status(200);
+            Thread.sleep(250);
+            assertEquals("BROKEN", assumeRole(selector).accessKeyId());
+            assertTrue(selector.metrics().get(0).isHealthy());
+        }
+    }
+
+    @Test
+    public void execute_releasesTheProbeWhenTheCallFailsBeforeReachingSts() throws Exception {
+        try (StubStsServer broken = new StubStsServer("BROKEN"); StubStsServer healthy = new StubStsServer("HEALTHY")) {
+            broken.status(500);
+            StsEndpointSelector selector = StsEndpointSelector.builder()
+                    .endpoint("broken", broken.client())
+                    .endpoint("healthy", healthy.client())
+                    .failureThreshold(1)
+                    .cooldown(Duration.ofMillis(200))
+                    .explorationRatio(0)
+                    .build();
+            assertEquals("HEALTHY", assumeRole(selector).accessKeyId());
+
+            broken.status(200);
+            Thread.sleep(250);
+            try {
+                selector.execute(sts -> {
+                    throw new DeadlineExceededException("No time left to build the request");
+                });
+                fail("Expected the deadline to run out");
+            } catch (DeadlineExceededException expected) {
+                // the probe never reached the endpoint
+            }
+            assertEquals("BROKEN", assumeRole(selector).accessKeyId());
+        }
+    }
+
+    private static Credentials assumeRole(StsEndpointSelector selector) {
+        return selector.execute(sts -> sts.assumeRole(request -> request
+                .roleArn("arn:aws:iam::123456789012:role/tenant-role")
+                .roleSessionName("tenant-a")
+        ).credentials());
+    }
+}
@@ -0,0 +1,179 @@
+package com.amazon.aws.partners.saasfactory.sts;
+
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsKey;
+import com.amazon.aws.partners.saasfactory.exception.StsThrottledException;
+import org.junit.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StsGuardTest {
+
+    private static final CredentialsKey KEY = new CredentialsKey("arn:aws:iam::123456789012:role/tenant-role", "tenant-a", "{}");
+
+    @Test
+    public void call_throttlingOpensCircuitAndFailsFast() {
+        StsGuard guard = StsGuard.builder()
+                .circuitBreaker(() -> CircuitBreaker.builder().failureThreshold(2).openDuration(Duration.ofMinutes(1)).build())
+                .build();
+        AtomicInteger calls = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                guard.call(KEY, () -> {
+                    calls.incrementAndGet();
+                    throw error("Throttling", 400);
+                });
+                fail("Expected the throttling error");
+            } catch (AwsServiceException expected) {
+                assertTrue(StsGuard.isThrottling(expected));
+            }
+        }
+
+        try {
+            guard.call(KEY, () -> {
+                calls.incrementAndGet();
+                return credentials();
+            });
+            fail("Expected the open circuit to fail fast");
+        } catch (StsThrottledException expected) {
+            // no call made
+        }
+        assertEquals(2, calls.get());
+
+        StsGuardMetrics metrics = guard.metrics().get(0);
+        assertEquals(CircuitBreaker.State.OPEN, metrics.getCircuitState());
+        assertEquals(2, metrics.getThrottledCount());
+        assertEquals(1, metrics.getRejectedCount());
+        assertTrue(metrics.getRate() < 50);
+    }
+
+    @Test
+    public void call_accessDeniedDoesNotOpenCircuit() {
+        StsGuard guard = StsGuard.builder()
+                .circuitBreaker(() -> CircuitBreaker.builder().failureThreshold(1).build())
+                .build();
+        try {
+            guard.call(KEY, () -> {
+                throw error("AccessDenied", 403);
+            });
+            fail("Expected the access denied error");
+        } catch (AwsServiceException expected) {
+            assertFalse(StsGuard.isThrottling(expected));
+        }
+        assertNotNull(guard.call(KEY, StsGuardTest::credentials));
+        assertEquals(CircuitBreaker.State.CLOSED, guard.metrics().get(0).getCircuitState());
+    }
+
+    @Test
+    public void circuitBreaker_halfOpenProbeClosesCircuit() {
+        MutableClock clock = new MutableClock();
+        CircuitBreaker breaker = CircuitBreaker.builder()
+                .failureThreshold(1)
+                .openDuration(Duration.ofSeconds(5))
+                .clock(clock)
+                .build();
+        breaker.onFailure();
+        assertFalse(breaker.allowRequest());
+
+        clock.advance(Duration.ofSeconds(5));
+        assertTrue(breaker.allowRequest());
+        assertFalse("Only one probe at a time", breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void call_rejectedByTheHalfOpenCircuitSpendsNoRateLimiterToken() {
+        MutableClock clock = new MutableClock();
+        CircuitBreaker breaker = CircuitBreaker.builder()
+                .failureThreshold(1)
+                .openDuration(Duration.ofSeconds(5))
+                .clock(clock)
+                .build();
+        AdaptiveRateLimiter limiter = AdaptiveRateLimiter.builder()
+                .maxRate(1)
+                .burst(1)
+                .clock(clock)
+                .build();
+        StsGuard guard = StsGuard.builder()
+                .circuitBreaker(() -> breaker)
+                .rateLimiter(() -> limiter)
+                .maxWaitMillis(0)
+                .build();
+        breaker.onFailure();
+        clock.advance(Duration.ofSeconds(5));
+        // another call is probing the half open circuit
+        assertTrue(breaker.allowRequest());
+
+        try {
+            guard.call(KEY, StsGuardTest::credentials);
+            fail("Expected the half open circuit to turn the call away");
+        } catch (StsThrottledException expected) {
+            assertEquals(1, limiter.getAvailableTokens(), 0.001);
+        }
+
+        breaker.onSuccess();
+        assertNotNull(guard.call(KEY, StsGuardTest::credentials));
+    }
+
+    @Test
+    public void rateLimiter_throttleHalvesRate() {
+        AdaptiveRateLimiter limiter = AdaptiveRateLimiter.builder()
+                .maxRate(40)
+                .burst(1)
+                .clock(new MutableClock())
+                .build();
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.onThrottle();
+        assertEquals(20, limiter.getRate(), 0.001);
+        limiter.onSuccess();
+        assertEquals(21, limiter.getRate(), 0.001);
+    }
+
+    static AwsServiceException error(String code, int status) {
+        return AwsServiceException.builder()
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(code).build())
+                .statusCode(status)
+                .build();
+    }
+
+    static Credentials credentials() {
+        return Credentials.builder()
+                .accessKeyId("AKIA")
+                .secretAccessKey("secret")
+                .sessionToken("token")
+                .expiration(Instant.now().plus(Duration.ofMinutes(15)))
+                .build();
+    }
+
+    static final class MutableClock extends java.time.Clock {
+        private Instant now = Instant.parse("2020-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public java.time.ZoneId getZone() {
+            return java.time.ZoneOffset.UTC;
+        }
+
+        @Override
+        public java.time.Clock withZone(java.time.ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory.sts;
+
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.exception.DeadlineExceededException;
+import org.junit.Test;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.amazon.aws.partners.saasfactory.sts.StsGuardTest.error;
+import static org.junit.Assert.*;
+
+public class StsRequestHedgerTest {
+
+    @Test
+    public void execute_hedgesSlowCallAndTakesTheFirstResult() {
+        StsRequestHedger hedger = StsRequestHedger.builder()
+                .initialDelay(Duration.ofMillis(50))
+                .build();
+        AtomicInteger calls = new AtomicInteger();
+
+        long start = System.nanoTime();
+        String result = hedger.execute(() -> {
+            if (calls.incrementAndGet() == 1) {
+                sleep(2_000);
+                return "slow";
+            }
+            return "fast";
+        });
+
+        assertEquals("fast", result);
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 1_000);
+        StsHedgingMetrics metrics = hedger.metrics();
+        assertEquals(1, metrics.getHedges());
+        assertEquals(1, metrics.getHedgeWins());
+    }
+
+    @Test
+    public void execute_retriesServerErrorsWhileTheBudgetLasts() {
+        StsRequestHedger hedger = StsRequestHedger.builder()
+                .baseBackoff(Duration.ofMillis(1))
+                .maxAttempts(3)
+                .build();
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = hedger.execute(() -> {
+            if (calls.incrementAndGet() < 3) {
+                throw error("InternalFailure", 500);
+            }
+            return "ok";
+        });
+        assertEquals("ok", result);
+        assertEquals(2, hedger.metrics().getRetries());
+
+        StsRequestHedger broke = StsRequestHedger.builder()
+                .retryBudget(RetryBudget.builder().ratio(0).minPerSecond(0).build())
+                .build();
+        try {
+            broke.execute(() -> {
+                throw error("InternalFailure", 500);
+            });
+            fail("Expected the server error");
+        } catch (AwsServiceException expected) {
+            assertEquals(0, broke.metrics().getRetries());
+            assertEquals(1, broke.metrics().getBudgetExhausted());
+        }
+    }
+
+    @Test
+    public void execute_doesNotBackOffPastTheDeadline() {
+        StsRequestHedger hedger = StsRequestHedger.builder()
+                .baseBackoff(Duration.ofSeconds(1))
+                .maxAttempts(3)
+                .build();
+        AtomicInteger calls = new AtomicInteger();
+
+        try {
+            hedger.execute(() -> {
+                calls.incrementAndGet();
+                throw error("InternalFailure", 500);
+            }, Deadline.afterMillis(0));
+            fail("Expected the deadline to pass");
+        } catch (DeadlineExceededException expected) {
+            assertTrue(expected.getCause() instanceof AwsServiceException);
+        }
+        assertEquals(1, calls.get());
+        assertEquals(0, hedger.metrics().getRetries());
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.amazon.aws.partners.saasfactory.sts;
+
+import com.sun.net.httpserver.HttpServer;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.urlconnection.UrlConnectionHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sts.StsClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in for a regional STS endpoint answering AssumeRole and AssumeRoleWithWebIdentity with fixed
+ * credentials.
+ */
+public class StubStsServer implements AutoCloseable {
+
+    private static final String ASSUME_ROLE_RESPONSE = "<%1$sResponse xmlns=\"https://sts.amazonaws.com/doc/2011-06-15/\">"
+            + "<%1$sResult><Credentials>"
+            + "<AccessKeyId>%2$s</AccessKeyId><SecretAccessKey>secret</SecretAccessKey>"
+            + "<SessionToken>token</SessionToken><Expiration>2099-01-01T00:00:00Z</Expiration>"
+            + "</Credentials></%1$sResult>"
+            + "<ResponseMetadata><RequestId>stub</RequestId></ResponseMetadata></%1$sResponse>";
+
+    private final HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long delayMillis;
+    private volatile int status = 200;
+
+    public StubStsServer(String accessKeyId) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            String action = readBody(exchange.getRequestBody()).contains("Action=AssumeRoleWithWebIdentity")
+                    ? "AssumeRoleWithWebIdentity"
+                    : "AssumeRole";
+            sleep(delayMillis);
+            byte[] body = status == 200
+                    ? String.format(ASSUME_ROLE_RESPONSE, action, accessKeyId).getBytes(StandardCharsets.UTF_8)
+                    : "<ErrorResponse><Error><Code>InternalFailure</Code></Error></ErrorResponse>".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/xml");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    public StsClient client() {
+        return StsClient.builder()
+                .region(Region.US_EAST_1)
+                .endpointOverride(URI.create("http://localhost:" + server.getAddress().getPort()))
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("AKIA", "secret")))
+                .httpClientBuilder(UrlConnectionHttpClient.builder())
+                .overrideConfiguration(config -> config.retryPolicy(RetryPolicy.none()))
+                .build();
+    }
+
+    public void delayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    public void status(int status) {
+        this.status = status;
+    }
+
+    public int requests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+            body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void sleep(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory;
+
+import com.amazon.aws.partners.saasfactory.concurrent.VendingExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the credentials of hot tenants warm. At start the configured tenants are vended in the background, and from
+ * then on the configured and most recently observed tenants are re-vended on a schedule. These vends are prewarm vends,
+ * which refresh the cached credentials a prewarm window ahead of the cache's refresh skew. With a window longer than
+ * the refresh interval, the credentials of these tenants are refreshed before requests find them due, so those
+ * requests do not wait for STS themselves.
+ */
+public class CredentialsPrewarmer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CredentialsPrewarmer.class);
+
+    private final BiConsumer<String, String> vend;
+    private final Set<Target> configured;
+    private final ConcurrentMap<Target, Long> observed = new ConcurrentHashMap<>();
+    private final int maxObservedTenants;
+    private final Duration observedTtl;
+    private final Duration refreshInterval;
+    private final Semaphore permits;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    private final Clock clock;
+
+    public CredentialsPrewarmer(CredentialsPrewarmerBuilder builder) {
+        this.vend = builder.vend;
+        this.configured = builder.tenants.stream()
+                .map(tenant -> new Target(builder.role, tenant))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        this.maxObservedTenants = builder.maxObservedTenants;
+        this.observedTtl = builder.observedTtl;
+        this.refreshInterval = builder.refreshInterval;
+        this.permits = new Semaphore(builder.concurrency);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "credentials-prewarmer"));
+        this.workers = VendingExecutors.newVendingExecutor("credentials-prewarmer-worker");
+        this.clock = builder.clock;
+    }
+
+    public static CredentialsPrewarmerBuilder builder() {
+        return new CredentialsPrewarmerBuilder();
+    }
+
+    public void start() {
+        LOGGER.info("Prewarming credentials for {} tenants every {}", configured.size(), refreshInterval);
+        scheduler.scheduleWithFixedDelay(this::prewarm, 0, refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Records a tenant seen in live traffic so that it is kept warm as long as it stays among the most recent ones.
+     */
+    public void recordVend(String role, String tenant) {
+        if (maxObservedTenants > 0 && role != null && tenant != null) {
+            observed.put(new Target(role, tenant), clock.millis());
+        }
+    }
+
+    void prewarm() {
+        for (Target target : targets()) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            workers.execute(() -> {
+                try {
+                    vend.accept(target.role, target.tenant);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Failed to prewarm credentials for tenant {}", target.tenant, e);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+    }
+
+    List<Target> targets() {
+        long cutoff = clock.millis() - observedTtl.toMillis();
+        observed.values().removeIf(lastSeen -> lastSeen < cutoff);
+        Set<Target> targets = new LinkedHashSet<>(configured);
+        observed.entrySet().stream()
+                .sorted(Map.Entry.<Target, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(maxObservedTenants)
+                .forEach(entry -> targets.add(entry.getKey()));
+        return new ArrayList<>(targets);
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    static final class Target {
+        private final String role;
+        private final String tenant;
+
+        Target(String role, String tenant) {
+            this.role = role;
+            this.tenant = tenant;
+        }
+
+        String getTenant() {
+            return tenant;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Target)) {
+                return false;
+            }
+            Target target = (Target) o;
+            return Objects.equals(role, target.role) && Objects.equals(tenant, target.tenant);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(role, tenant);
+        }
+    }
+
+    public static final class CredentialsPrewarmerBuilder {
+        private BiConsumer<String, String> vend;
+        private String role;
+        private Collection<String> tenants = new ArrayList<>();
+        private int maxObservedTenants = 0;
+        private Duration observedTtl = Duration.ofHours(1);
+        private Duration refreshInterval = Duration.ofMinutes(4);
+        private int concurrency = 4;
+        private Clock clock = Clock.systemUTC();
+
+        private CredentialsPrewarmerBuilder() {
+        }
+
+        /**
+         * The vend call used to warm a tenant, given the role and the tenant.
+         */
+        public CredentialsPrewarmerBuilder vend(BiConsumer<String, String> vend) {
+            this.vend = vend;
+            return this;
+        }
+
+        public CredentialsPrewarmerBuilder role(String role) {
+            this.role = role;
+            return this;
+        }
+
+        public CredentialsPrewarmerBuilder tenants(Collection<String> tenants) {
+            this.tenants = tenants;
+            return this;
+        }
+
+        /**
+         * How many of the most recently observed tenants to keep warm in addition to the configured ones.
+         */
+        public CredentialsPrewarmerBuilder maxObservedTenants(int maxObservedTenants) {
+            this.maxObservedTenants = maxObservedTenants;
+            return this;
+        }
+
+        public CredentialsPrewarmerBuilder observedTtl(Duration observedTtl) {
+            this.observedTtl = observedTtl;
+            return this;
+        }
+
+        public CredentialsPrewarmerBuilder refreshInterval(Duration refreshInterval) {
+            this.refreshInterval = refreshInterval;
+            return this;
+        }
+
+        public CredentialsPrewarmerBuilder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        public CredentialsPrewarmerBuilder clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public CredentialsPrewarmer build() {
+            return new CredentialsPrewarmer(this);
+        }
+    }
+}
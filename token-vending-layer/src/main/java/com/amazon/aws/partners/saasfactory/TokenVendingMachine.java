@@ -18,17 +18,57 @@
 
 package com.amazon.aws.partners.saasfactory;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-
-import com.amazon.aws.partners.saasfactory.policy.PolicyGenerator;
+import java.util.stream.Collectors;
+
+import com.amazon.aws.partners.saasfactory.cluster.ClusterNode;
+import com.amazon.aws.partners.saasfactory.cluster.VendingCluster;
+import com.amazon.aws.partners.saasfactory.cognito.IssuerRegistry;
+import com.amazon.aws.partners.saasfactory.cognito.Jwks;
+import com.amazon.aws.partners.saasfactory.cognito.JwksCache;
+import com.amazon.aws.partners.saasfactory.cognito.VerifiedTokenCache;
+import com.amazon.aws.partners.saasfactory.concurrent.Deadline;
+import com.amazon.aws.partners.saasfactory.concurrent.FairShareScheduler;
+import com.amazon.aws.partners.saasfactory.concurrent.NegativeCache;
+import com.amazon.aws.partners.saasfactory.credentials.AdaptiveDurationPolicy;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsCache;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsLoader;
+import com.amazon.aws.partners.saasfactory.credentials.CredentialsStore;
+import com.amazon.aws.partners.saasfactory.credentials.DurationPolicy;
+import com.amazon.aws.partners.saasfactory.credentials.EncryptedFileCredentialsStore;
+import com.amazon.aws.partners.saasfactory.credentials.FixedDurationPolicy;
+import com.amazon.aws.partners.saasfactory.engine.CredentialAcquisitionStage;
+import com.amazon.aws.partners.saasfactory.engine.StageMetrics;
+import com.amazon.aws.partners.saasfactory.engine.StageName;
+import com.amazon.aws.partners.saasfactory.engine.VendingEngine;
+import com.amazon.aws.partners.saasfactory.engine.VendingFlow;
+import com.amazon.aws.partners.saasfactory.engine.VendingOutcome;
+import com.amazon.aws.partners.saasfactory.engine.VendingPublisher;
+import com.amazon.aws.partners.saasfactory.engine.VendingRequest;
+import com.amazon.aws.partners.saasfactory.engine.VendingResult;
+import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
 import com.amazon.aws.partners.saasfactory.policy.DeclarativePolicyGenerator;
-import com.amazon.aws.partners.saasfactory.token.CognitoTokenVendor;
-import com.amazon.aws.partners.saasfactory.token.JwtTokenVendor;
-import com.amazon.aws.partners.saasfactory.token.TokenVendor;
+import com.amazon.aws.partners.saasfactory.policy.PolicyGenerations;
+import com.amazon.aws.partners.saasfactory.sts.StsEndpointMetrics;
+import com.amazon.aws.partners.saasfactory.sts.StsEndpointSelector;
+import com.amazon.aws.partners.saasfactory.sts.StsGuard;
+import com.amazon.aws.partners.saasfactory.sts.StsGuardMetrics;
+import com.amazon.aws.partners.saasfactory.sts.StsHedgingMetrics;
+import com.amazon.aws.partners.saasfactory.sts.StsRequestHedger;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.core.retry.RetryPolicy;
 import software.amazon.awssdk.regions.Region;
 
 /**
@@ -39,11 +79,91 @@ public class TokenVendingMachine {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TokenVendingMachine.class);
 
-    private String tenant;
-
     private static final String AWS_REGION = "AWS_REGION";
     private static final String S3_BUCKET = "S3_BUCKET";
     private static final String DB_TABLE = "DB_TABLE";
+    private static final String PREWARM_TENANTS = "PREWARM_TENANTS";
+    private static final String PREWARM_ROLE = "PREWARM_ROLE";
+    private static final String PREWARM_OBSERVED_TENANTS = "PREWARM_OBSERVED_TENANTS";
+    private static final String PREWARM_INTERVAL_SECONDS = "PREWARM_INTERVAL_SECONDS";
+    private static final String PREWARM_CONCURRENCY = "PREWARM_CONCURRENCY";
+    private static final String STS_REGIONS = "STS_REGIONS";
+    private static final String CREDENTIALS_STORE_PATH = "CREDENTIALS_STORE_PATH";
+    private static final String CREDENTIALS_STORE_KEY = "CREDENTIALS_STORE_KEY";
+    private static final String STS_HEDGING = "STS_HEDGING";
+    private static final String SESSION_DURATION_SECONDS = "SESSION_DURATION_SECONDS";
+    private static final String ADAPTIVE_SESSION_DURATION = "ADAPTIVE_SESSION_DURATION";
+    private static final String MAX_SESSION_DURATION_SECONDS = "MAX_SESSION_DURATION_SECONDS";
+    private static final String STS_MAX_CONCURRENCY = "STS_MAX_CONCURRENCY";
+    private static final String TENANT_MAX_CONCURRENCY = "TENANT_MAX_CONCURRENCY";
+    private static final String TENANT_TIERS = "TENANT_TIERS";
+    private static final String TIER_WEIGHTS = "TIER_WEIGHTS";
+    private static final String VEND_RESERVE_MILLIS = "VEND_RESERVE_MILLIS";
+    private static final String CLUSTER_NODES = "CLUSTER_NODES";
+    private static final String CLUSTER_NODE_ID = "CLUSTER_NODE_ID";
+    private static final String CLUSTER_KEY = "CLUSTER_KEY";
+    private static final String CLUSTER_BIND_ADDRESS = "CLUSTER_BIND_ADDRESS";
+    private static final String USER_POOL_IDS = "USER_POOL_IDS";
+    private static final String JWKS_SNAPSHOT = "JWKS_SNAPSHOT";
+
+    private static final boolean HEDGING_ENABLED = Boolean.parseBoolean(System.getenv(STS_HEDGING));
+
+    private static final Duration VEND_RESERVE = Duration.ofMillis(intFromEnv(VEND_RESERVE_MILLIS, 1000));
+
+    private static final Duration PREWARM_INTERVAL = Duration.ofSeconds(intFromEnv(PREWARM_INTERVAL_SECONDS, 240));
+
+    /**
+     * Tenant of the last vend made on the calling thread, only kept for {@link #getTenant()}.
+     */
+    private static final ThreadLocal<String> LAST_TENANT = new ThreadLocal<>();
+
+    /**
+     * Shared so that the adaptive policy sees every request the container serves.
+     */
+    private static final DurationPolicy DURATION_POLICY = durationPolicy();
+
+    /**
+     * Shared across invocations of the same container so that vended credentials outlive a single request.
+     */
+    private static final CredentialsLoader CREDENTIALS_LOADER = CredentialsLoader.builder()
+            .cache(CredentialsCache.builder()
+                    .secondLevel(credentialsStore())
+                    .build())
+            .stsGuard(StsGuard.builder().build())
+            .hedger(HEDGING_ENABLED ? StsRequestHedger.builder().build() : null)
+            .scheduler(fairShareScheduler())
+            .deniedAssumptions(NegativeCache.builder().build())
+            // every prewarm run refreshes what would fall due before the next run is done
+            .prewarmWindow(PREWARM_INTERVAL.multipliedBy(2))
+            .build();
+
+    private static final StsEndpointSelector STS_ENDPOINTS = stsEndpoints();
+
+    private static final VendingCluster CLUSTER = cluster();
+
+    private static final CredentialAcquisitionStage CREDENTIAL_ACQUISITION = credentialAcquisition();
+
+    private static final IssuerRegistry ISSUERS = issuerRegistry();
+
+    /**
+     * Runs every vend of the container, whichever flow it uses.
+     */
+    private static final VendingEngine ENGINE = vendingEngine();
+
+    private static final CredentialsPrewarmer PREWARMER = startPrewarmer();
+
+    private final VendingEngine engine;
+
+    public TokenVendingMachine() {
+        this(ENGINE);
+    }
+
+    /**
+     * @param engine runs the vends of this machine instead of the container's engine
+     */
+    TokenVendingMachine(VendingEngine engine) {
+        this.engine = engine;
+    }
 
     /**
      * Validates the JWT token with Cognito (our IdP in this example) in code using their Json Web Key Sets (JWKS),
@@ -55,29 +175,43 @@ public class TokenVendingMachine {
      * @return the scoped credentials
      */
     public AwsCredentialsProvider vendCognitoToken(Map<String, String> headers) {
+        return vendCognito(headers, Deadline.none()).getCredentialsProvider();
+    }
 
-        Region region = Region.of(System.getenv(AWS_REGION));
+    /**
+     * Like {@link #vendCognitoToken(Map)}, but gives up as soon as the vend cannot complete in the time left.
+     *
+     * @param headers         the HTTP headers which contain an authorization header.
+     * @param remainingMillis the time left in the invocation, from {@code Context.getRemainingTimeInMillis()}.
+     * @return the scoped credentials
+     */
+    public AwsCredentialsProvider vendCognitoToken(Map<String, String> headers, long remainingMillis) {
+        return vendCognito(headers, remainingMillis).getCredentialsProvider();
+    }
 
-        String bucket = System.getenv(S3_BUCKET);
-        String table = System.getenv(DB_TABLE);
+    /**
+     * Like {@link #vendCognitoToken(Map, long)}, but returns the tenant, expiration and timings along with the
+     * credentials.
+     *
+     * @param headers         the HTTP headers which contain an authorization header.
+     * @param remainingMillis the time left in the invocation, from {@code Context.getRemainingTimeInMillis()}.
+     * @return the result of the vend
+     */
+    public VendingResult vendCognito(Map<String, String> headers, long remainingMillis) {
+        return vendCognito(headers, deadline(remainingMillis));
+    }
 
-        PolicyGenerator policyGenerator = DeclarativePolicyGenerator.generator()
-                .dynamoLeadingKey(table)
-                .s3FolderPerTenant(bucket);
+    private VendingResult vendCognito(Map<String, String> headers, Deadline deadline) {
 
-        CognitoTokenVendor cognitoTokenVendor = CognitoTokenVendor.builder()
-                .policyGenerator(policyGenerator)
-                .durationSeconds(900)
+        VendingResult result = vend(VendingRequest.builder()
+                .flow(VendingFlow.COGNITO_IDENTITY_POOL)
                 .headers(headers)
-                .region(region)
-                .build();
-
-        AwsCredentialsProvider awsCredentialsProvider = cognitoTokenVendor.vendToken();
-        this.tenant = cognitoTokenVendor.getTenant();
+                .deadline(deadline)
+                .build());
 
-        LOGGER.info("Vending Cognito security token for tenant {}", tenant);
+        LOGGER.info("Vending Cognito security token for tenant {}", result.getTenant());
 
-        return awsCredentialsProvider;
+        return result;
     }
 
     /**
@@ -90,30 +224,46 @@ public class TokenVendingMachine {
      * @return the scoped credentials
      */
     public AwsCredentialsProvider vendToken(Map<String, String> headers, String role) {
+        return vendJwt(headers, role, Deadline.none()).getCredentialsProvider();
+    }
 
-        Region region = Region.of(System.getenv(AWS_REGION));
+    /**
+     * Like {@link #vendToken(Map, String)}, but gives up as soon as the vend cannot complete in the time left.
+     *
+     * @param headers         the HTTP headers which contain an authorization header.
+     * @param role            the role to assume.
+     * @param remainingMillis the time left in the invocation, from {@code Context.getRemainingTimeInMillis()}.
+     * @return the scoped credentials
+     */
+    public AwsCredentialsProvider vendToken(Map<String, String> headers, String role, long remainingMillis) {
+        return vendJwt(headers, role, remainingMillis).getCredentialsProvider();
+    }
 
-        String bucket = System.getenv(S3_BUCKET);
-        String table = System.getenv(DB_TABLE);
+    /**
+     * Like {@link #vendToken(Map, String, long)}, but returns the tenant, expiration and timings along with the
+     * credentials.
+     *
+     * @param headers         the HTTP headers which contain an authorization header.
+     * @param role            the role to assume.
+     * @param remainingMillis the time left in the invocation, from {@code Context.getRemainingTimeInMillis()}.
+     * @return the result of the vend
+     */
+    public VendingResult vendJwt(Map<String, String> headers, String role, long remainingMillis) {
+        return vendJwt(headers, role, deadline(remainingMillis));
+    }
 
-        PolicyGenerator policyGenerator = DeclarativePolicyGenerator.generator()
-                .dynamoLeadingKey(table)
-                .s3FolderPerTenant(bucket);
+    private VendingResult vendJwt(Map<String, String> headers, String role, Deadline deadline) {
 
-        JwtTokenVendor jwtTokenVendor = JwtTokenVendor.builder()
-                .policyGenerator(policyGenerator)
-                .durationSeconds(900)
+        VendingResult result = vend(VendingRequest.builder()
+                .flow(VendingFlow.JWT)
                 .headers(headers)
                 .role(role)
-                .region(region)
-                .build();
-
-        AwsCredentialsProvider awsCredentialsProvider = jwtTokenVendor.vendToken();
-        tenant = jwtTokenVendor.getTenant();
+                .deadline(deadline)
+                .build());
 
-        LOGGER.info("Vending JWT security token for tenant {}", tenant);
+        LOGGER.info("Vending JWT security token for tenant {}", result.getTenant());
 
-        return awsCredentialsProvider;
+        return result;
     }
 
     /**
@@ -126,31 +276,48 @@ public class TokenVendingMachine {
      * @return the scoped credentials
      */
     public AwsCredentialsProvider vendTokenNoJwtValidation(Map<String, String> headers, String role) {
+        return vendJwtNoValidation(headers, role, Deadline.none()).getCredentialsProvider();
+    }
 
-        Region region = Region.of(System.getenv(AWS_REGION));
+    /**
+     * Like {@link #vendTokenNoJwtValidation(Map, String)}, but gives up as soon as the vend cannot complete in the
+     * time left.
+     *
+     * @param headers         the HTTP headers which contain an authorization header.
+     * @param role            the role to assume.
+     * @param remainingMillis the time left in the invocation, from {@code Context.getRemainingTimeInMillis()}.
+     * @return the scoped credentials
+     */
+    public AwsCredentialsProvider vendTokenNoJwtValidation(Map<String, String> headers, String role,
+                                                           long remainingMillis) {
+        return vendJwtNoValidation(headers, role, remainingMillis).getCredentialsProvider();
+    }
 
-        String bucket = System.getenv(S3_BUCKET);
-        String table = System.getenv(DB_TABLE);
+    /**
+     * Like {@link #vendTokenNoJwtValidation(Map, String, long)}, but returns the tenant, expiration and timings along
+     * with the credentials.
+     *
+     * @param headers         the HTTP headers which contain an authorization header.
+     * @param role            the role to assume.
+     * @param remainingMillis the time left in the invocation, from {@code Context.getRemainingTimeInMillis()}.
+     * @return the result of the vend
+     */
+    public VendingResult vendJwtNoValidation(Map<String, String> headers, String role, long remainingMillis) {
+        return vendJwtNoValidation(headers, role, deadline(remainingMillis));
+    }
 
-        PolicyGenerator policyGenerator = DeclarativePolicyGenerator.generator()
-                .dynamoLeadingKey(table)
-                .s3FolderPerTenant(bucket);
+    private VendingResult vendJwtNoValidation(Map<String, String> headers, String role, Deadline deadline) {
 
-        JwtTokenVendor jwtTokenVendor = JwtTokenVendor.builder()
-                .policyGenerator(policyGenerator)
-                .durationSeconds(900)
+        VendingResult result = vend(VendingRequest.builder()
+                .flow(VendingFlow.JWT_UNVERIFIED)
                 .headers(headers)
                 .role(role)
-                .region(region)
-                .validateToken(false)
-                .build();
-
-        AwsCredentialsProvider awsCredentialsProvider = jwtTokenVendor.vendToken();
-        tenant = jwtTokenVendor.getTenant();
+                .deadline(deadline)
+                .build());
 
-        LOGGER.info("Vending JWT security token for tenant {}", tenant);
+        LOGGER.info("Vending JWT security token for tenant {}", result.getTenant());
 
-        return awsCredentialsProvider;
+        return result;
     }
 
     /**
@@ -162,36 +329,420 @@ public class TokenVendingMachine {
      * @return the scoped credentials
      */
     public AwsCredentialsProvider vendTokenAuthorizer(Map<String, Object> authorizer, String role) {
+        return vendAuthorizer(authorizer, role, Deadline.none()).getCredentialsProvider();
+    }
+
+    /**
+     * Like {@link #vendTokenAuthorizer(Map, String)}, but gives up as soon as the vend cannot complete in the time
+     * left.
+     *
+     * @param authorizer      the HTTP headers which contain an authorization header.
+     * @param role            the role to assume.
+     * @param remainingMillis the time left in the invocation, from {@code Context.getRemainingTimeInMillis()}.
+     * @return the scoped credentials
+     */
+    public AwsCredentialsProvider vendTokenAuthorizer(Map<String, Object> authorizer, String role,
+                                                      long remainingMillis) {
+        return vendAuthorizer(authorizer, role, remainingMillis).getCredentialsProvider();
+    }
+
+    /**
+     * Like {@link #vendTokenAuthorizer(Map, String, long)}, but returns the tenant, expiration and timings along with
+     * the credentials.
+     *
+     * @param authorizer      the authorizer claims of the request context.
+     * @param role            the role to assume.
+     * @param remainingMillis the time left in the invocation, from {@code Context.getRemainingTimeInMillis()}.
+     * @return the result of the vend
+     */
+    public VendingResult vendAuthorizer(Map<String, Object> authorizer, String role, long remainingMillis) {
+        return vendAuthorizer(authorizer, role, deadline(remainingMillis));
+    }
+
+    private VendingResult vendAuthorizer(Map<String, Object> authorizer, String role, Deadline deadline) {
+
+        VendingResult result = vend(VendingRequest.builder()
+                .flow(VendingFlow.AUTHORIZER)
+                .authorizer(authorizer)
+                .role(role)
+                .deadline(deadline)
+                .build());
+
+        LOGGER.info("Vending security token for tenant {}", result.getTenant());
 
-        Region region = Region.of(System.getenv(AWS_REGION));
+        return result;
+    }
+
+    /**
+     * Vends any flow through the engine shared by the container. The machine keeps no state of its own between
+     * vends, a single instance can serve concurrent requests.
+     *
+     * @param request the vend to make
+     * @return the credentials, tenant, role, expiration and timings of the vend
+     */
+    public VendingResult vend(VendingRequest request) {
+        VendingResult result = engine.vend(request);
+        LAST_TENANT.set(result.getTenant());
+        if (isPrewarmable(request.getFlow())) {
+            recordVend(result.getRole(), result.getTenant());
+        }
+        return result;
+    }
 
+    /**
+     * Whether the tenants of the flow's vends are kept warm once seen. Not those of unverified tokens, whose tenant
+     * claim anyone can set, nor those of the identity pool, whose vends assume the pool's role with the caller's own
+     * token, which the prewarmer cannot vend for.
+     */
+    static boolean isPrewarmable(VendingFlow flow) {
+        return flow != VendingFlow.JWT_UNVERIFIED && flow != VendingFlow.COGNITO_IDENTITY_POOL;
+    }
+
+    private static AwsCredentialsProvider vendTenantToken(String tenant, String role) {
+
+        return ENGINE.vend(VendingRequest.builder()
+                .flow(VendingFlow.TENANT)
+                .tenant(tenant)
+                .role(role)
+                .prewarm(true)
+                .build())
+                .getCredentialsProvider();
+    }
+
+    /**
+     * Keeps VEND_RESERVE_MILLIS (1000 by default) of the invocation for the caller to use the credentials and respond.
+     */
+    private static Deadline deadline(long remainingMillis) {
+        return Deadline.afterMillis(remainingMillis).minus(VEND_RESERVE);
+    }
+
+    private static void recordVend(String role, String tenant) {
+        if (PREWARMER != null) {
+            PREWARMER.recordVend(role, tenant);
+        }
+    }
+
+    /**
+     * Starts keeping the tenants listed in PREWARM_TENANTS (comma separated, vended with PREWARM_ROLE) and the
+     * PREWARM_OBSERVED_TENANTS most recently seen tenants warm. Nothing is started when neither is configured.
+     */
+    private static CredentialsPrewarmer startPrewarmer() {
+        String configuredTenants = System.getenv(PREWARM_TENANTS);
+        String role = System.getenv(PREWARM_ROLE);
+        List<String> tenants = configuredTenants == null || role == null
+                ? Collections.emptyList()
+                : Arrays.stream(configuredTenants.split(","))
+                        .map(String::trim)
+                        .filter(tenant -> !tenant.isEmpty())
+                        .collect(Collectors.toList());
+        int maxObservedTenants = intFromEnv(PREWARM_OBSERVED_TENANTS, 0);
+        if (tenants.isEmpty() && maxObservedTenants <= 0) {
+            return null;
+        }
+        CredentialsPrewarmer prewarmer = CredentialsPrewarmer.builder()
+                .vend((prewarmRole, prewarmTenant) -> vendTenantToken(prewarmTenant, prewarmRole))
+                .role(role)
+                .tenants(tenants)
+                .maxObservedTenants(maxObservedTenants)
+                .refreshInterval(PREWARM_INTERVAL)
+                .concurrency(intFromEnv(PREWARM_CONCURRENCY, 4))
+                .build();
+        prewarmer.start();
+        return prewarmer;
+    }
+
+    /**
+     * Policies cover the tenant's folder in S3_BUCKET and its items in DB_TABLE.
+     */
+    private static VendingEngine vendingEngine() {
         String bucket = System.getenv(S3_BUCKET);
         String table = System.getenv(DB_TABLE);
+        return VendingEngine.builder()
+                .region(region())
+                .policyGenerator(() -> DeclarativePolicyGenerator.generator()
+                        .dynamoLeadingKey(table)
+                        .s3FolderPerTenant(bucket))
+                .stage(StageName.CREDENTIALS, CREDENTIAL_ACQUISITION)
+                .issuerRegistry(ISSUERS)
+                .build();
+    }
 
-        Map<String, Object> claims = (Map<String, Object>) authorizer.get("claims");
-        tenant = (String) claims.get("custom:tenant_id");
+    /**
+     * Only tokens of the user pools in USER_POOL_IDS (comma separated pool ids or issuer URLs) are accepted. Without
+     * it, every token is rejected.
+     */
+    private static IssuerRegistry issuerRegistry() {
+        seedJwks();
+        String userPools = System.getenv(USER_POOL_IDS);
+        // clients reuse their token for many requests, its signature is checked once
+        IssuerRegistry.IssuerRegistryBuilder registry = IssuerRegistry.builder()
+                .verifiedTokens(VerifiedTokenCache.builder().build());
+        if (userPools == null || userPools.trim().isEmpty()) {
+            LOGGER.error("{} is not set, every token will be rejected", USER_POOL_IDS);
+            return registry.build();
+        }
+        for (String userPool : userPools.split(",")) {
+            userPool = userPool.trim();
+            if (userPool.startsWith("https://")) {
+                registry.issuer(userPool);
+            } else if (userPool.indexOf('_') > 0) {
+                // user pool ids start with their region, us-west-2_AbCdEfGhI
+                registry.userPool(Region.of(userPool.substring(0, userPool.indexOf('_'))), userPool);
+            } else if (!userPool.isEmpty()) {
+                LOGGER.error("Ignoring user pool {}, it is neither a user pool id nor an issuer", userPool);
+            }
+        }
+        return registry.build();
+    }
 
-        PolicyGenerator policyGenerator = DeclarativePolicyGenerator.generator()
-                .dynamoLeadingKey(table)
-                .s3FolderPerTenant(bucket)
-                .tenant(tenant);
+    /**
+     * Makes the user pool keys known at init, so that the first request does not wait for them to be fetched.
+     */
+    private static void seedJwks() {
+        String snapshot = System.getenv(JWKS_SNAPSHOT);
+        if (snapshot == null || snapshot.trim().isEmpty()) {
+            return;
+        }
+        try {
+            JwksCache.global().seed(Jwks.loadSnapshot(snapshot.trim()));
+        } catch (JwtProcessingException e) {
+            LOGGER.error("Unable to load the JWKS snapshot, fetching the keys on demand", e);
+        }
+    }
 
-        TokenVendor stsTokenVendor = TokenVendor.builder()
-                .policyGenerator(policyGenerator)
-                .durationSeconds(900)
-                .role(role)
-                .region(region)
+    /**
+     * The STS client for AWS_REGION is only built when STS_ENDPOINTS does not provide one. In a cluster this node
+     * also serves the vends forwarded to it for the tenants it owns.
+     */
+    private static CredentialAcquisitionStage credentialAcquisition() {
+        CredentialAcquisitionStage credentialAcquisition = CredentialAcquisitionStage.builder()
+                .region(region())
+                .durationPolicy(DURATION_POLICY)
+                .credentialsLoader(CREDENTIALS_LOADER)
+                .stsEndpointSelector(STS_ENDPOINTS)
+                .cluster(CLUSTER)
                 .build();
+        if (CLUSTER != null) {
+            try {
+                CLUSTER.start(credentialAcquisition::acquireForwarded, credentialAcquisition::invalidateForwarded);
+            } catch (RuntimeException e) {
+                LOGGER.error("Unable to serve the tenants this node owns, the other nodes will vend them locally", e);
+            }
+        }
+        return credentialAcquisition;
+    }
 
-        AwsCredentialsProvider awsCredentialsProvider = stsTokenVendor.vendToken();
+    /**
+     * Cluster of the nodes listed in CLUSTER_NODES (id=host:port, comma separated), this node being CLUSTER_NODE_ID.
+     * CLUSTER_KEY holds the base64 encoded AES key shared by the nodes. Only enabled when all three are set. The node
+     * listens on CLUSTER_BIND_ADDRESS when it is set, on every interface otherwise.
+     */
+    private static VendingCluster cluster() {
+        String nodes = System.getenv(CLUSTER_NODES);
+        String self = System.getenv(CLUSTER_NODE_ID);
+        String key = System.getenv(CLUSTER_KEY);
+        if (nodes == null || nodes.trim().isEmpty() || self == null || self.trim().isEmpty()
+                || key == null || key.trim().isEmpty()) {
+            return null;
+        }
+        String bindAddress = System.getenv(CLUSTER_BIND_ADDRESS);
+        try {
+            return VendingCluster.builder()
+                    .bindAddress(bindAddress == null || bindAddress.trim().isEmpty()
+                            ? null
+                            : InetAddress.getByName(bindAddress.trim()))
+                    .self(self.trim())
+                    .nodes(Arrays.stream(nodes.split(","))
+                            .map(String::trim)
+                            .filter(node -> !node.isEmpty())
+                            .map(ClusterNode::parse)
+                            .collect(Collectors.toList()))
+                    .key(Base64.getDecoder().decode(key.trim()))
+                    .build();
+        } catch (RuntimeException | UnknownHostException e) {
+            LOGGER.error("Invalid cluster configuration, vending without the cluster", e);
+            return null;
+        }
+    }
 
-        LOGGER.info("Vending security token for tenant {}", tenant);
+    private static Region region() {
+        String region = System.getenv(AWS_REGION);
+        return region == null || region.trim().isEmpty() ? null : Region.of(region.trim());
+    }
 
-        return awsCredentialsProvider;
+    /**
+     * STS clients shared by every invocation of the container. Calls are routed to the fastest healthy region listed
+     * in STS_REGIONS (comma separated), or go to the Lambda's own region when it is not set.
+     */
+    private static StsEndpointSelector stsEndpoints() {
+        String regions = System.getenv(STS_REGIONS);
+        if (regions == null || regions.trim().isEmpty()) {
+            regions = System.getenv(AWS_REGION);
+        }
+        if (regions == null || regions.trim().isEmpty()) {
+            return null;
+        }
+        return StsEndpointSelector.builder()
+                .retryPolicy(HEDGING_ENABLED ? RetryPolicy.none() : null)
+                .regions(Arrays.stream(regions.split(","))
+                        .map(String::trim)
+                        .filter(region -> !region.isEmpty())
+                        .map(Region::of)
+                        .collect(Collectors.toList()))
+                .build();
+    }
+
+    /**
+     * Shares STS_MAX_CONCURRENCY concurrent STS calls between tenants, at most TENANT_MAX_CONCURRENCY (4 by default) for
+     * a single tenant. TENANT_TIERS assigns tenants to tiers (tenant=tier, comma separated) and TIER_WEIGHTS gives a tier
+     * a larger share (tier=weight). Calls are not scheduled when STS_MAX_CONCURRENCY is not set.
+     */
+    private static FairShareScheduler fairShareScheduler() {
+        int maxConcurrency = intFromEnv(STS_MAX_CONCURRENCY, 0);
+        if (maxConcurrency <= 0) {
+            return null;
+        }
+        Map<String, String> tiers = mapFromEnv(TENANT_TIERS);
+        FairShareScheduler.FairShareSchedulerBuilder builder = FairShareScheduler.builder()
+                .maxConcurrency(maxConcurrency)
+                .maxConcurrencyPerTenant(intFromEnv(TENANT_MAX_CONCURRENCY, 4))
+                .tierResolver(tiers::get);
+        mapFromEnv(TIER_WEIGHTS).forEach((tier, weight) -> {
+            try {
+                builder.tierWeight(tier, Integer.parseInt(weight));
+            } catch (NumberFormatException e) {
+                LOGGER.error("Ignoring non numeric weight for tier {}", tier);
+            }
+        });
+        return builder.build();
     }
 
+    /**
+     * Fixed SESSION_DURATION_SECONDS (900 by default), or with ADAPTIVE_SESSION_DURATION a duration between 900 seconds
+     * and MAX_SESSION_DURATION_SECONDS (3600 by default) depending on how busy the tenant is.
+     */
+    private static DurationPolicy durationPolicy() {
+        if (!Boolean.parseBoolean(System.getenv(ADAPTIVE_SESSION_DURATION))) {
+            return new FixedDurationPolicy(intFromEnv(SESSION_DURATION_SECONDS, DurationPolicy.MIN_DURATION_SECONDS));
+        }
+        return AdaptiveDurationPolicy.builder()
+                .defaultMaxDuration(Duration.ofSeconds(intFromEnv(MAX_SESSION_DURATION_SECONDS, 3600)))
+                .build();
+    }
+
+    /**
+     * Encrypted file store shared by the processes of this host, so that a new container or process can reuse
+     * credentials vended by another one. Only enabled when CREDENTIALS_STORE_KEY holds a base64 encoded AES key.
+     */
+    private static CredentialsStore credentialsStore() {
+        String key = System.getenv(CREDENTIALS_STORE_KEY);
+        if (key == null || key.trim().isEmpty()) {
+            return null;
+        }
+        String path = System.getenv(CREDENTIALS_STORE_PATH);
+        if (path == null || path.trim().isEmpty()) {
+            path = "/tmp/tvm-credentials.store";
+        }
+        try {
+            return EncryptedFileCredentialsStore.builder()
+                    .path(Paths.get(path.trim()))
+                    .key(Base64.getDecoder().decode(key.trim()))
+                    .build();
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to open the credentials store, continuing without it", e);
+            return null;
+        }
+    }
+
+    private static Map<String, String> mapFromEnv(String name) {
+        String value = System.getenv(name);
+        if (value == null || value.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return Arrays.stream(value.split(","))
+                .map(entry -> entry.split("=", 2))
+                .filter(entry -> entry.length == 2)
+                .collect(Collectors.toMap(entry -> entry[0].trim(), entry -> entry[1].trim(), (first, last) -> last));
+    }
+
+    private static int intFromEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.error("Ignoring non numeric value for {}", name);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return the tenant of the last vend made on the calling thread
+     * @deprecated read the tenant from the {@link VendingResult} of the vend instead, for example
+     * {@link #vendJwt(Map, String, long)}
+     */
+    @Deprecated
     public String getTenant() {
-        return tenant;
+        return LAST_TENANT.get();
+    }
+
+    /**
+     * Vends a stream of requests, for example every tenant in a nightly job, through the same engine as the single
+     * vends. Outcomes are published as the vends complete, with at most {@code maxInFlight} requests taken and not
+     * yet delivered.
+     */
+    public static Publisher<VendingOutcome> vendAll(Publisher<VendingRequest> requests, int maxInFlight) {
+        return VendingPublisher.builder()
+                .engine(ENGINE)
+                .requests(requests)
+                .maxInFlight(maxInFlight)
+                .build();
+    }
+
+    /**
+     * Stops reusing the policies and credentials vended for a tenant so far, for example after its permissions
+     * changed. The tenant's credentials are dropped from the cache and the second level store, and in a cluster the
+     * other nodes are told to do the same.
+     */
+    public static void invalidateTenant(String tenant) {
+        CREDENTIAL_ACQUISITION.invalidateTenant(tenant);
+    }
+
+    /**
+     * Stops reusing the policies rendered from a template set, for example {@code S3FolderPerTenantTemplate.json}.
+     */
+    public static void invalidateTemplateSet(String templateSet) {
+        PolicyGenerations.global().invalidateTemplateSet(templateSet);
+    }
+
+    /**
+     * @return the rate limiter and circuit breaker state for every role STS has been called for in this container
+     */
+    public static List<StsGuardMetrics> getStsMetrics() {
+        return CREDENTIALS_LOADER.getStsGuard().metrics();
+    }
+
+    /**
+     * @return latency and health of the STS endpoints used by this container
+     */
+    public static List<StsEndpointMetrics> getStsEndpointMetrics() {
+        return STS_ENDPOINTS == null ? Collections.emptyList() : STS_ENDPOINTS.metrics();
+    }
+
+    /**
+     * @return throughput, latency and failures of every stage of the vends made by this container
+     */
+    public static List<StageMetrics> getVendingStageMetrics() {
+        return ENGINE.metrics();
+    }
+
+    /**
+     * @return hedge, retry and per attempt latency counters, or null when STS_HEDGING is not enabled
+     */
+    public static StsHedgingMetrics getStsHedgingMetrics() {
+        return HEDGING_ENABLED ? CREDENTIALS_LOADER.getHedger().metrics() : null;
     }
 
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CredentialsPrewarmerTest {
+
+    private static final String ROLE = "arn:aws:iam::123456789012:role/tenant-role";
+
+    @Test
+    public void start_revendsTheConfiguredTenantsEveryInterval() throws InterruptedException {
+        CountDownLatch tenantA = new CountDownLatch(2);
+        CountDownLatch tenantB = new CountDownLatch(2);
+        CredentialsPrewarmer prewarmer = CredentialsPrewarmer.builder()
+                .vend((role, tenant) -> ("tenant-a".equals(tenant) ? tenantA : tenantB).countDown())
+                .role(ROLE)
+                .tenants(Arrays.asList("tenant-a", "tenant-b"))
+                .refreshInterval(Duration.ofMillis(50))
+                .build();
+        try {
+            prewarmer.start();
+            assertTrue(tenantA.await(5, TimeUnit.SECONDS));
+            assertTrue(tenantB.await(5, TimeUnit.SECONDS));
+        } finally {
+            prewarmer.stop();
+        }
+    }
+
+    @Test
+    public void targets_keepsTheMostRecentlyObservedTenantsUntilTheyGoQuiet() {
+        MutableClock clock = new MutableClock(Instant.parse("2020-01-01T00:00:00Z"));
+        CredentialsPrewarmer prewarmer = CredentialsPrewarmer.builder()
+                .vend((role, tenant) -> { })
+                .role(ROLE)
+                .tenants(Collections.singletonList("configured"))
+                .maxObservedTenants(2)
+                .observedTtl(Duration.ofMinutes(10))
+                .clock(clock)
+                .build();
+
+        for (String tenant : Arrays.asList("oldest", "older", "newest")) {
+            prewarmer.recordVend(ROLE, tenant);
+            clock.instant = clock.instant.plusSeconds(1);
+        }
+        assertEquals(Arrays.asList("configured", "newest", "older"), tenants(prewarmer));
+
+        clock.instant = clock.instant.plus(Duration.ofMinutes(10));
+        assertEquals(Collections.singletonList("configured"), tenants(prewarmer));
+    }
+
+    @Test
+    public void prewarm_vendsAtMostConcurrencyTenantsAtOnce() throws InterruptedException {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(6);
+        CredentialsPrewarmer prewarmer = CredentialsPrewarmer.builder()
+                .vend((role, tenant) -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    inFlight.decrementAndGet();
+                    done.countDown();
+                })
+                .role(ROLE)
+                .tenants(Arrays.asList("a", "b", "c", "d", "e", "f"))
+                .concurrency(2)
+                .build();
+        try {
+            prewarmer.prewarm();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        } finally {
+            prewarmer.stop();
+        }
+        assertEquals(2, maxInFlight.get());
+    }
+
+    private static List<String> tenants(CredentialsPrewarmer prewarmer) {
+        List<String> tenants = new ArrayList<>();
+        prewarmer.targets().forEach(target -> tenants.add(target.getTenant()));
+        return tenants;
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant instant;
+
+        private MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
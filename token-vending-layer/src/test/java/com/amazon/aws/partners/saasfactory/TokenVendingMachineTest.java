@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.amazon.aws.partners.saasfactory;
+
+import com.amazon.aws.partners.saasfactory.cognito.IssuerRegistry;
+import com.amazon.aws.partners.saasfactory.cognito.JwksCache;
+import com.amazon.aws.partners.saasfactory.engine.StageName;
+import com.amazon.aws.partners.saasfactory.engine.VendingContext;
+import com.amazon.aws.partners.saasfactory.engine.VendingEngine;
+import com.amazon.aws.partners.saasfactory.engine.VendingFlow;
+import com.amazon.aws.partners.saasfactory.engine.VendingResult;
+import com.amazon.aws.partners.saasfactory.exception.JwtProcessingException;
+import com.amazon.aws.partners.saasfactory.policy.DeclarativePolicyGenerator;
+import org.junit.After;
+import org.junit.Test;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.services.sts.model.Credentials;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TokenVendingMachineTest {
+
+    private static final String ISSUER = "https://cognito-idp.us-west-2.amazonaws.com/us-west-2_handler";
+    private static final String ROLE = "arn:aws:iam::123456789012:role/tenant-role";
+    private static final Instant EXPIRATION = Instant.parse("2030-01-01T00:00:00Z");
+
+    private final KeyPair keyPair = newKeyPair();
+    private final AtomicInteger assumptions = new AtomicInteger();
+    private final VendingEngine engine = VendingEngine.builder()
+            .policyGenerator(() -> DeclarativePolicyGenerator.generator()
+                    .dynamoLeadingKey("tenant-table")
+                    .s3FolderPerTenant("tenant-bucket"))
+            .stage(StageName.CREDENTIALS, this::assumeRole)
+            .issuerRegistry(IssuerRegistry.builder()
+                    .issuer(ISSUER)
+                    .jwksCache(JwksCache.builder()
+                            .fetcher((issuer, timeout) ->
+                                    Collections.singletonMap("key-1", (RSAPublicKey) keyPair.getPublic()))
+                            .build())
+                    .build())
+            .build();
+    private final TokenVendingMachine machine = new TokenVendingMachine(engine);
+
+    @After
+    public void shutdown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void vendJwt_returnsTheCredentialsAndTenantOfEachVend() {
+        VendingResult first = machine.vendJwt(bearer(token("tenant-a", keyPair)), ROLE, 30_000);
+        VendingResult second = machine.vendJwt(bearer(token("tenant-b", keyPair)), ROLE, 30_000);
+
+        assertEquals("tenant-a", first.getTenant());
+        assertEquals(ROLE, first.getRole());
+        assertEquals(EXPIRATION, first.getExpiration());
+        AwsCredentials credentials = first.getCredentialsProvider().resolveCredentials();
+        assertEquals("AKIAtenant-a", credentials.accessKeyId());
+        assertTrue(first.getTimings().containsKey(StageName.CREDENTIALS));
+        assertEquals("tenant-b", second.getTenant());
+        assertEquals("AKIAtenant-b", second.getCredentialsProvider().resolveCredentials().accessKeyId());
+        assertEquals("AKIAtenant-a", machine.vendToken(bearer(token("tenant-a", keyPair)), ROLE)
+                .resolveCredentials().accessKeyId());
+    }
+
+    @Test
+    public void vendJwt_rejectsTokensNotSignedByTheUserPool() {
+        try {
+            machine.vendJwt(bearer(token("tenant-a", newKeyPair())), ROLE, 30_000);
+            fail("Expected a forged token to be rejected");
+        } catch (JwtProcessingException e) {
+            assertEquals("Failed to validate token with issuer.", e.getMessage());
+        }
+        assertEquals(0, assumptions.get());
+    }
+
+    @Test
+    public void vendJwt_rejectsRequestsWithoutAnAuthorizationHeader() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json");
+        try {
+            machine.vendJwt(headers, ROLE, 30_000);
+            fail("Expected a request without a token to be rejected");
+        } catch (JwtProcessingException e) {
+            // expected
+        }
+        assertEquals(0, assumptions.get());
+    }
+
+    @Test
+    public void isPrewarmable_keepsOnlyTheTenantsOfVerifiedRoleBasedFlowsWarm() {
+        assertTrue(TokenVendingMachine.isPrewarmable(VendingFlow.JWT));
+        assertTrue(TokenVendingMachine.isPrewarmable(VendingFlow.AUTHORIZER));
+        assertTrue(TokenVendingMachine.isPrewarmable(VendingFlow.TENANT));
+        assertFalse(TokenVendingMachine.isPrewarmable(VendingFlow.JWT_UNVERIFIED));
+        assertFalse(TokenVendingMachine.isPrewarmable(VendingFlow.COGNITO_IDENTITY_POOL));
+    }
+
+    private void assumeRole(VendingContext context) {
+        assumptions.incrementAndGet();
+        assertTrue(context.getPolicy().contains("tenant-bucket"));
+        context.setCredentials(Credentials.builder()
+                .accessKeyId("AKIA" + context.getTenant())
+                .secretAccessKey("secret")
+                .sessionToken("token")
+                .expiration(EXPIRATION)
+                .build());
+    }
+
+    private static Map<String, String> bearer(String token) {
+        return Collections.singletonMap("Authorization", "Bearer " + token);
+    }
+
+    /**
+     * A token of the user pool, RS256 signed by the given key.
+     */
+    private static String token(String tenant, KeyPair signer) {
+        long expiresAt = System.currentTimeMillis() / 1000 + 3600;
+        String signed = base64("{\"alg\":\"RS256\",\"kid\":\"key-1\",\"typ\":\"JWT\"}") + "."
+                + base64("{\"iss\":\"" + ISSUER + "\",\"sub\":\"user-1\",\"custom:tenant_id\":\"" + tenant
+                + "\",\"exp\":" + expiresAt + "}");
+        try {
+            Signature signature = Signature.getInstance("SHA256withRSA");
+            signature.initSign(signer.getPrivate());
+            signature.update(signed.getBytes(StandardCharsets.US_ASCII));
+            return signed + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(signature.sign());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String base64(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static KeyPair newKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}